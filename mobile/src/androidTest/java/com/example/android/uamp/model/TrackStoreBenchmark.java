@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.uamp.model;
+
+import android.media.MediaMetadata;
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the heap used by a catalog held as a list of {@link MediaMetadata} with the same
+ * catalog held in a {@link TrackStore}. Results are logged under the TrackStoreBenchmark tag.
+ */
+public class TrackStoreBenchmark extends TestCase {
+
+    private static final String TAG = "TrackStoreBenchmark";
+
+    // Artists, albums and genres repeat across tracks, like in a real catalog.
+    private static final int ARTISTS = 500;
+    private static final int ALBUMS = 2000;
+    private static final int GENRES = 40;
+
+    public void testHeap10k() {
+        compare(10000);
+    }
+
+    public void testHeap100k() {
+        compare(100000);
+    }
+
+    private void compare(int count) {
+        long storeBytes = measureStore(count);
+        long listBytes = measureList(count);
+        // Only logged: heap deltas depend on when the collector runs, so they are not asserted.
+        Log.i(TAG, count + " tracks: MediaMetadata list=" + kb(listBytes) + " TrackStore="
+                + kb(storeBytes));
+    }
+
+    private static long measureList(int count) {
+        long before = usedHeap();
+        List<MediaMetadata> tracks = new ArrayList<>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                tracks.add(buildTrack(i));
+            }
+        } catch (OutOfMemoryError e) {
+            Log.w(TAG, "Out of memory after building MediaMetadata tracks");
+            return -1;
+        }
+        long used = usedHeap() - before;
+        assertEquals(count, tracks.size());
+        return used;
+    }
+
+    private static long measureStore(int count) {
+        long before = usedHeap();
+        TrackStore store = new TrackStore();
+        for (int i = 0; i < count; i++) {
+            store.add(buildTrack(i));
+        }
+        long used = usedHeap() - before;
+        assertEquals(count, store.size());
+        assertEquals("artist " + (count - 1) % ARTISTS,
+                store.getString(count - 1, MediaMetadata.METADATA_KEY_ARTIST));
+        return used;
+    }
+
+    private static MediaMetadata buildTrack(int i) {
+        return new MediaMetadata.Builder()
+                .putString(MediaMetadata.METADATA_KEY_MEDIA_ID, String.valueOf(1000000 + i))
+                .putString(MusicProvider.CUSTOM_METADATA_TRACK_SOURCE,
+                        "https://api.soundcloud.com/tracks/" + (1000000 + i) + "/stream")
+                .putString(MediaMetadata.METADATA_KEY_ALBUM, "album " + i % ALBUMS)
+                .putString(MediaMetadata.METADATA_KEY_ARTIST, "artist " + i % ARTISTS)
+                .putLong(MediaMetadata.METADATA_KEY_DURATION, 180000 + i)
+                .putString(MediaMetadata.METADATA_KEY_GENRE, "genre " + i % GENRES)
+                .putString(MediaMetadata.METADATA_KEY_ALBUM_ART_URI,
+                        "https://i1.sndcdn.com/artworks-" + i + "-large.jpg")
+                .putString(MediaMetadata.METADATA_KEY_TITLE, "Track number " + i)
+                .putLong(MediaMetadata.METADATA_KEY_TRACK_NUMBER, 1)
+                .putLong(MediaMetadata.METADATA_KEY_NUM_TRACKS, i % 1000)
+                .build();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            runtime.gc();
+            runtime.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static String kb(long bytes) {
+        return bytes < 0 ? "OOM" : bytes / 1024 + "KB";
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.uamp.utils;
+
+import android.os.Debug;
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * Compares reading the parts of media IDs with {@link MediaId} against the string splitting
+ * that {@link MediaIDHelper} used before. Results are logged under the MediaIdBenchmark tag.
+ */
+public class MediaIdBenchmark extends TestCase {
+
+    private static final String TAG = "MediaIdBenchmark";
+
+    private static final int ITERATIONS = 200000;
+
+    // A browse request and the queue built from it: the same IDs are read over and over.
+    private static final String[] MEDIA_IDS = {
+            MediaIDHelper.MEDIA_ID_MUSICS_BY_GENRE,
+            MediaIDHelper.createBrowseCategoryMediaID(
+                    MediaIDHelper.MEDIA_ID_MUSICS_BY_GENRE, "Electronic"),
+            MediaIDHelper.createMediaID("1234567",
+                    MediaIDHelper.MEDIA_ID_MUSICS_BY_GENRE, "Electronic"),
+            MediaIDHelper.createMediaID("-42", MediaIDHelper.MEDIA_ID_TOP_TRACKS),
+            MediaIDHelper.createMediaID("7654321",
+                    MediaIDHelper.MEDIA_ID_MUSICS_BY_SEARCH, "daft punk"),
+    };
+
+    public void testSameResults() {
+        for (String mediaId : MEDIA_IDS) {
+            MediaId parsed = MediaId.of(mediaId);
+            String[] hierarchy = splitHierarchy(mediaId);
+            assertEquals(hierarchy.length, parsed.getDepth());
+            assertEquals(hierarchy[0], parsed.getCategory());
+            assertEquals(hierarchy.length > 1 ? hierarchy[1] : null, parsed.getCategoryValue());
+            assertEquals(splitParent(mediaId), parsed.getParent());
+            assertEquals(splitMusicId(mediaId), parsed.getMusicId());
+        }
+    }
+
+    public void testNoAllocation() {
+        // The first pass parses the IDs and cuts their parts.
+        readParts();
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        int sum = readParts();
+        Debug.stopAllocCounting();
+        int allocations = Debug.getThreadAllocCount();
+        Log.i(TAG, "Allocations reading " + MEDIA_IDS.length + " parsed IDs: " + allocations);
+        assertTrue(sum > 0);
+        assertEquals(0, allocations);
+    }
+
+    public void testSpeed() {
+        // Warm up both paths before timing them.
+        readParts();
+        readSplitParts();
+        long start = System.nanoTime();
+        int parsedSum = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            parsedSum += readParts();
+        }
+        long parsedNs = System.nanoTime() - start;
+        start = System.nanoTime();
+        int splitSum = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            splitSum += readSplitParts();
+        }
+        long splitNs = System.nanoTime() - start;
+        Log.i(TAG, ITERATIONS * MEDIA_IDS.length + " IDs: split=" + splitNs / 1000000
+                + "ms MediaId=" + parsedNs / 1000000 + "ms");
+        // Only the results are checked: timings vary too much between devices and runs.
+        assertEquals(splitSum, parsedSum);
+    }
+
+    private static int readParts() {
+        int sum = 0;
+        for (String mediaId : MEDIA_IDS) {
+            MediaId parsed = MediaId.of(mediaId);
+            sum += parsed.getCategory().length() + parsed.getParent().length();
+            String value = parsed.getCategoryValue();
+            if (value != null) {
+                sum += value.length();
+            }
+            String musicId = parsed.getMusicId();
+            if (musicId != null) {
+                sum += musicId.length();
+            }
+        }
+        return sum;
+    }
+
+    private static int readSplitParts() {
+        int sum = 0;
+        for (String mediaId : MEDIA_IDS) {
+            String[] hierarchy = splitHierarchy(mediaId);
+            sum += hierarchy[0].length() + splitParent(mediaId).length();
+            if (hierarchy.length > 1) {
+                sum += hierarchy[1].length();
+            }
+            String musicId = splitMusicId(mediaId);
+            if (musicId != null) {
+                sum += musicId.length();
+            }
+        }
+        return sum;
+    }
+
+    // The implementation MediaIDHelper had before MediaId, kept as the baseline.
+
+    private static String[] splitHierarchy(String mediaID) {
+        int pos = mediaID.indexOf('|');
+        if (pos >= 0) {
+            mediaID = mediaID.substring(0, pos);
+        }
+        return mediaID.split("/");
+    }
+
+    private static String splitMusicId(String mediaID) {
+        int pos = mediaID.indexOf('|');
+        if (pos >= 0) {
+            return mediaID.substring(pos + 1);
+        }
+        return null;
+    }
+
+    private static String splitParent(String mediaID) {
+        String[] hierarchy = splitHierarchy(mediaID);
+        if (mediaID.indexOf('|') >= 0) {
+            return MediaIDHelper.createMediaID(null, hierarchy);
+        }
+        if (hierarchy.length <= 1) {
+            return MediaIDHelper.MEDIA_ID_ROOT;
+        }
+        return MediaIDHelper.createMediaID(null, Arrays.copyOf(hierarchy, hierarchy.length - 1));
+    }
+}
@@ -139,6 +139,11 @@ public class CastPlayback implements Playback {
         }
     }
 
+    @Override
+    public void setNextQueueItem(QueueItem item) {
+        // The receiver loads each track itself when it is played.
+    }
+
     @Override
     public void pause() {
         try {
@@ -219,7 +224,7 @@ public class CastPlayback implements Playback {
 
     private void loadMedia(String mediaId, boolean autoPlay) throws
             TransientNetworkDisconnectionException, NoConnectionException, JSONException {
-        String musicId = MediaIDHelper.extractMusicIDFromMediaID(mediaId);
+        long musicId = MediaIDHelper.extractTrackIdFromMediaID(mediaId);
         android.media.MediaMetadata track = mMusicProvider.getMusic(musicId);
         if (track == null) {
             throw new IllegalArgumentException("Invalid mediaId " + mediaId);
@@ -265,6 +270,8 @@ public class CastPlayback implements Playback {
         // when the cast dialog is clicked.
         mediaMetadata.addImage(image);
 
+        // Always the stream, even for a track in the DownloadIndex: the receiver cannot read
+        // the files of the phone.
         return new MediaInfo.Builder(track.getString(MusicProvider.CUSTOM_METADATA_TRACK_SOURCE))
                 .setContentType(MIME_TYPE_AUDIO_MPEG)
                 .setStreamType(MediaInfo.STREAM_TYPE_BUFFERED)
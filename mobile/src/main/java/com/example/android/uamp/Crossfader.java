@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp;
+
+import android.annotation.TargetApi;
+import android.media.MediaPlayer;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.example.android.uamp.utils.LogHelper;
+
+/**
+ * Ramps the volume of an outgoing and an incoming {@link MediaPlayer} so one track fades into
+ * the next.
+ *
+ * The ramp runs on its own audio priority thread rather than the main looper, so its steps stay
+ * regular while the UI is busy. The players are still owned by the main thread: every method
+ * and every step of the ramp holds the lock of the instance, so a player is never used by the
+ * ramp after {@link #finish()} returned it for release.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class Crossfader {
+
+    private static final String TAG = LogHelper.makeLogTag(Crossfader.class);
+
+    // Time between two volume changes.
+    private static final int STEP_MS = 20;
+
+    /**
+     * How the volume changes over a fade, x going from 0 to 1.
+     */
+    public enum Curve {
+        /** Volumes change linearly: the overall loudness dips in the middle. */
+        LINEAR,
+        /** sin and cos of x: the overall loudness stays constant. */
+        EQUAL_POWER,
+        /** Slow at both ends and fast in the middle. */
+        S_CURVE;
+
+        float fadeIn(float x) {
+            switch (this) {
+                case EQUAL_POWER:
+                    return (float) Math.sin(x * Math.PI / 2);
+                case S_CURVE:
+                    return x * x * (3 - 2 * x);
+                default:
+                    return x;
+            }
+        }
+
+        float fadeOut(float x) {
+            switch (this) {
+                case EQUAL_POWER:
+                    return (float) Math.cos(x * Math.PI / 2);
+                default:
+                    return 1 - fadeIn(x);
+            }
+        }
+    }
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+
+    private MediaPlayer mOutgoing;
+    private MediaPlayer mIncoming;
+    private Curve mCurve;
+    private long mStartMs;
+    private int mDurationMs;
+    // Volume of a track playing alone, lowered when ducking.
+    private float mMaxVolume = 1.0f;
+
+    private final Runnable mStep = new Runnable() {
+        @Override
+        public void run() {
+            step();
+        }
+    };
+
+    /**
+     * Fade the outgoing player out and the incoming one in, both being started already. A fade
+     * in progress is finished first, and its outgoing player released.
+     */
+    public synchronized void start(MediaPlayer outgoing, MediaPlayer incoming, int durationMs,
+                                   Curve curve) {
+        MediaPlayer previous = finish();
+        if (previous != null) {
+            previous.release();
+        }
+        if (mThread == null) {
+            mThread = new HandlerThread("AudioTiming", Process.THREAD_PRIORITY_AUDIO);
+            mThread.start();
+            mHandler = new Handler(mThread.getLooper());
+        }
+        LogHelper.d(TAG, "Crossfade of ", durationMs, "ms, curve ", curve);
+        mOutgoing = outgoing;
+        mIncoming = incoming;
+        mCurve = curve;
+        mDurationMs = durationMs;
+        mStartMs = SystemClock.uptimeMillis();
+        applyVolumes(durationMs > 0 ? 0 : 1);
+        mHandler.post(mStep);
+    }
+
+    /**
+     * @return true if the player is fading out.
+     */
+    public synchronized boolean isFadingOut(MediaPlayer player) {
+        return player != null && player == mOutgoing;
+    }
+
+    /**
+     * @return true if a fade is in progress.
+     */
+    public synchronized boolean isFading() {
+        return mIncoming != null;
+    }
+
+    /**
+     * Stop the fade in progress, if any: the incoming player is left at full volume.
+     *
+     * @return the outgoing player, which the caller releases, or null.
+     */
+    public synchronized MediaPlayer finish() {
+        if (mIncoming == null) {
+            return null;
+        }
+        mHandler.removeCallbacks(mStep);
+        mIncoming.setVolume(mMaxVolume, mMaxVolume);
+        MediaPlayer outgoing = mOutgoing;
+        mOutgoing = null;
+        mIncoming = null;
+        return outgoing;
+    }
+
+    /**
+     * Set the volume of a track playing alone, the most a fade goes up to. A fade in progress
+     * is scaled right away, so ducking works while fading.
+     */
+    public synchronized void setMaxVolume(float volume) {
+        mMaxVolume = volume;
+        if (mIncoming != null) {
+            applyVolumes(progress());
+        }
+    }
+
+    /**
+     * Stop the timing thread. The fade in progress, if any, must be finished.
+     */
+    public synchronized void release() {
+        if (mThread != null) {
+            mThread.quit();
+            mThread = null;
+            mHandler = null;
+        }
+    }
+
+    private synchronized void step() {
+        if (mIncoming == null) {
+            return;
+        }
+        float x = progress();
+        applyVolumes(x);
+        if (x < 1) {
+            mHandler.postAtTime(mStep, SystemClock.uptimeMillis() + STEP_MS);
+        }
+        // At the end of the fade, the silent outgoing player is released when it completes.
+    }
+
+    private float progress() {
+        long elapsed = SystemClock.uptimeMillis() - mStartMs;
+        return mDurationMs > 0 ? Math.min(1, (float) elapsed / mDurationMs) : 1;
+    }
+
+    private void applyVolumes(float x) {
+        float in = mMaxVolume * mCurve.fadeIn(x);
+        float out = mMaxVolume * mCurve.fadeOut(x);
+        mIncoming.setVolume(in, in);
+        mOutgoing.setVolume(out, out);
+    }
+}
@@ -26,27 +26,45 @@ import android.media.MediaPlayer;
 import android.media.session.PlaybackState;
 import android.net.wifi.WifiManager;
 import android.os.Build;
+import android.os.Handler;
 import android.os.PowerManager;
+import android.os.SystemClock;
 import android.text.TextUtils;
 
 import com.example.android.uamp.model.MusicProvider;
+import com.example.android.uamp.model.TrackId;
+import com.example.android.uamp.proxy.StreamProxy;
+import com.example.android.uamp.save.DownloadIndex;
+import com.example.android.uamp.utils.LatencyHistogram;
 import com.example.android.uamp.utils.LogHelper;
 import com.example.android.uamp.utils.MediaIDHelper;
+import com.example.android.uamp.utils.PrefUtils;
 
+import java.io.File;
 import java.io.IOException;
 
 import static android.media.MediaPlayer.OnCompletionListener;
 import static android.media.MediaPlayer.OnErrorListener;
+import static android.media.MediaPlayer.OnInfoListener;
 import static android.media.MediaPlayer.OnPreparedListener;
 import static android.media.MediaPlayer.OnSeekCompleteListener;
 import static android.media.session.MediaSession.QueueItem;
 
 /**
  * A class that implements local media playback using {@link android.media.MediaPlayer}
+ *
+ * Playback is gapless: when the current track gets close to its end, a second player prepares
+ * the next queue item and is chained to the current one with
+ * {@link MediaPlayer#setNextMediaPlayer}, so it starts as soon as the current track ends. The
+ * time between the end of a track and the start of the next one is measured and logged.
+ *
+ * When a crossfade is set in {@link PrefUtils}, the next player is started before the current
+ * track ends instead, and a {@link Crossfader} fades one into the other.
  */
 @TargetApi(Build.VERSION_CODES.LOLLIPOP)
 public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeListener,
-        OnCompletionListener, OnErrorListener, OnPreparedListener, OnSeekCompleteListener {
+        OnCompletionListener, OnErrorListener, OnInfoListener, OnPreparedListener,
+        OnSeekCompleteListener {
 
     private static final String TAG = LogHelper.makeLogTag(LocalPlayback.class);
 
@@ -63,6 +81,10 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
     // we have full audio focus
     private static final int AUDIO_FOCUSED  = 2;
 
+    // How long before the end of the current track the next one starts preparing. Streams
+    // need to buffer, so this is well above the time to open a local file.
+    private static final int PREPARE_NEXT_AHEAD_MS = 20000;
+
     private final MusicService mService;
     private final WifiManager.WifiLock mWifiLock;
     private int mState;
@@ -78,6 +100,45 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
     private final AudioManager mAudioManager;
     private MediaPlayer mMediaPlayer;
 
+    // Item to play after the current one, and the player preparing it, or null.
+    private QueueItem mNextItem;
+    private MediaPlayer mNextPlayer;
+    private String mNextMediaId;
+    // True once mNextPlayer is prepared, and chained to mMediaPlayer unless crossfading.
+    private boolean mNextPrepared;
+    // Crossfade into the next item set when it started preparing, 0 to chain it.
+    private int mNextCrossfadeMs;
+    private Crossfader.Curve mNextCrossfadeCurve;
+    // Item the current player was started for by the previous one, until the service asks to
+    // play it.
+    private String mHandedOffMediaId;
+    private final Handler mHandler = new Handler();
+    private final Runnable mPrepareNextRunnable = new Runnable() {
+        @Override
+        public void run() {
+            prepareNextPlayer();
+        }
+    };
+    private final Runnable mCrossfadeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            startCrossfade();
+        }
+    };
+    private final Crossfader mCrossfader = new Crossfader();
+
+    // Inter-track gap measurement. Times are SystemClock.elapsedRealtime(), 0 if unknown.
+    private long mCompletedAtMs;
+    private long mNextStartedAtMs;
+    private long mLastGapMs = -1;
+    private long mTotalGapMs;
+    private int mGapCount;
+
+    // Time from a request to play a track to its first audio, 0 once it started.
+    private long mPlayRequestedAtMs;
+    private final LatencyHistogram mTimeToFirstAudio =
+            new LatencyHistogram("Time to first audio");
+
     private final IntentFilter mAudioNoisyIntentFilter =
             new IntentFilter(AudioManager.ACTION_AUDIO_BECOMING_NOISY);
 
@@ -112,6 +173,8 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
     @Override
     public void stop(boolean notifyListeners) {
         mState = PlaybackState.STATE_STOPPED;
+        mCompletedAtMs = 0;
+        mPlayRequestedAtMs = 0;
         if (notifyListeners && mCallback != null) {
             mCallback.onPlaybackStatusChanged(mState);
         }
@@ -165,6 +228,14 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
         tryToGetAudioFocus();
         registerAudioNoisyReceiver();
         String mediaId = item.getDescription().getMediaId();
+        if (mediaId.equals(mHandedOffMediaId)) {
+            // Already playing: the previous track started it when it completed.
+            mHandedOffMediaId = null;
+            mState = PlaybackState.STATE_PLAYING;
+            configMediaPlayerState();
+            return;
+        }
+        mHandedOffMediaId = null;
         boolean mediaHasChanged = !TextUtils.equals(mediaId, mCurrentMediaId);
         if (mediaHasChanged) {
             mCurrentPosition = 0;
@@ -173,21 +244,28 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
 
         if (mState == PlaybackState.STATE_PAUSED && !mediaHasChanged && mMediaPlayer != null) {
             configMediaPlayerState();
+        } else if (mediaHasChanged && mNextPrepared && mediaId.equals(mNextMediaId)) {
+            // Skipping to the next item, which is already prepared.
+            mPlayRequestedAtMs = SystemClock.elapsedRealtime();
+            switchToNextPlayer();
+            mState = PlaybackState.STATE_BUFFERING;
+            configMediaPlayerState();
         } else {
+            mPlayRequestedAtMs = SystemClock.elapsedRealtime();
             mState = PlaybackState.STATE_STOPPED;
+            endCrossfade();
+            releaseNextPlayer();
             relaxResources(false); // release everything except MediaPlayer
             MediaMetadata track = mMusicProvider.getMusic(
-                    MediaIDHelper.extractMusicIDFromMediaID(item.getDescription().getMediaId()));
-
-            String source = track.getString(MusicProvider.CUSTOM_METADATA_TRACK_SOURCE);
+                    MediaIDHelper.extractTrackIdFromMediaID(item.getDescription().getMediaId()));
 
             try {
                 createMediaPlayerIfNeeded();
 
                 mState = PlaybackState.STATE_BUFFERING;
 
+                String source = setPlayableSource(mMediaPlayer, track);
                 mMediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
-                mMediaPlayer.setDataSource(source);
 
                 // Starts preparing the media player in the background. When
                 // it's done, it will call our OnPreparedListener (that is,
@@ -199,7 +277,9 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
                 // If we are streaming from the internet, we want to hold a
                 // Wifi lock, which prevents the Wifi radio from going to
                 // sleep while the song is playing.
-                mWifiLock.acquire();
+                if (source.startsWith("http")) {
+                    mWifiLock.acquire();
+                }
 
                 if (mCallback != null) {
                     mCallback.onPlaybackStatusChanged(mState);
@@ -214,8 +294,48 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
         }
     }
 
+    @Override
+    public void setNextQueueItem(QueueItem item) {
+        String mediaId = item != null ? item.getDescription().getMediaId() : null;
+        if (mNextPlayer != null && TextUtils.equals(mediaId, mNextMediaId)) {
+            // Already prepared, or being prepared.
+            return;
+        }
+        releaseNextPlayer();
+        mNextItem = item;
+        scheduleNextTrack();
+    }
+
+    /**
+     * @return the time between the end of the last track that completed and the start of the
+     * next one, in milliseconds, or -1 if no track completed yet.
+     */
+    public long getLastTrackGapMs() {
+        return mLastGapMs;
+    }
+
+    /**
+     * @return the average time between two tracks, in milliseconds, or -1.
+     */
+    public long getAverageTrackGapMs() {
+        return mGapCount == 0 ? -1 : mTotalGapMs / mGapCount;
+    }
+
+    /**
+     * @return the times from a request to play a track to its first audio.
+     */
+    public LatencyHistogram getTimeToFirstAudio() {
+        return mTimeToFirstAudio;
+    }
+
     @Override
     public void pause() {
+        mHandler.removeCallbacks(mPrepareNextRunnable);
+        mHandler.removeCallbacks(mCrossfadeRunnable);
+        mCompletedAtMs = 0;
+        mPlayRequestedAtMs = 0;
+        // The outgoing track of a fade stops with the incoming one.
+        endCrossfade();
         if (mState == PlaybackState.STATE_PLAYING) {
             // Pause media player and cancel the 'foreground service' state.
             if (mMediaPlayer != null && mMediaPlayer.isPlaying()) {
@@ -244,6 +364,8 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
             if (mMediaPlayer.isPlaying()) {
                 mState = PlaybackState.STATE_BUFFERING;
             }
+            // Seeking the incoming track of a fade cuts the outgoing one.
+            endCrossfade();
             mMediaPlayer.seekTo(position);
             if (mCallback != null) {
                 mCallback.onPlaybackStatusChanged(mState);
@@ -316,11 +438,9 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
             }
         } else {  // we have audio focus:
             if (mAudioFocus == AUDIO_NO_FOCUS_CAN_DUCK) {
-                mMediaPlayer.setVolume(VOLUME_DUCK, VOLUME_DUCK); // we'll be relatively quiet
+                setVolume(VOLUME_DUCK); // we'll be relatively quiet
             } else {
-                if (mMediaPlayer != null) {
-                    mMediaPlayer.setVolume(VOLUME_NORMAL, VOLUME_NORMAL); // we can be loud again
-                } // else do something for remote client.
+                setVolume(VOLUME_NORMAL); // we can be loud again
             }
             // If we were playing when we lost focus, we need to resume playing.
             if (mPlayOnFocusGain) {
@@ -330,6 +450,10 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
                     if (mCurrentPosition == mMediaPlayer.getCurrentPosition()) {
                         mMediaPlayer.start();
                         mState = PlaybackState.STATE_PLAYING;
+                        recordFirstAudio();
+                        if (mCompletedAtMs != 0) {
+                            recordTrackGap(SystemClock.elapsedRealtime());
+                        }
                     } else {
                         mMediaPlayer.seekTo(mCurrentPosition);
                         mState = PlaybackState.STATE_BUFFERING;
@@ -337,6 +461,7 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
                 }
                 mPlayOnFocusGain = false;
             }
+            scheduleNextTrack();
         }
         if (mCallback != null) {
             mCallback.onPlaybackStatusChanged(mState);
@@ -387,6 +512,8 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
         if (mState == PlaybackState.STATE_BUFFERING) {
             mMediaPlayer.start();
             mState = PlaybackState.STATE_PLAYING;
+            recordFirstAudio();
+            scheduleNextTrack();
         }
         if (mCallback != null) {
             mCallback.onPlaybackStatusChanged(mState);
@@ -401,6 +528,23 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
     @Override
     public void onCompletion(MediaPlayer player) {
         LogHelper.d(TAG, "onCompletion from MediaPlayer");
+        if (mCrossfader.isFadingOut(player)) {
+            endCrossfade();
+            return;
+        }
+        if (player != mMediaPlayer) {
+            return;
+        }
+        mCompletedAtMs = SystemClock.elapsedRealtime();
+        if (mNextPrepared && mNextCrossfadeMs == 0) {
+            // The chained player already took over: it becomes the current one, and the play
+            // request the service sends for its item keeps it playing.
+            mHandedOffMediaId = mNextMediaId;
+            switchToNextPlayer();
+            if (mNextStartedAtMs != 0) {
+                recordTrackGap(mNextStartedAtMs);
+            }
+        }
         // The media player finished playing the current song, so we go ahead
         // and start the next.
         if (mCallback != null) {
@@ -416,6 +560,19 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
     @Override
     public void onPrepared(MediaPlayer player) {
         LogHelper.d(TAG, "onPrepared from MediaPlayer");
+        if (player == mNextPlayer) {
+            mNextPrepared = true;
+            if (mNextCrossfadeMs > 0) {
+                LogHelper.d(TAG, "Next track ", mNextMediaId, " is ready to fade in");
+                scheduleNextTrack();
+                return;
+            }
+            float volume = mAudioFocus == AUDIO_NO_FOCUS_CAN_DUCK ? VOLUME_DUCK : VOLUME_NORMAL;
+            player.setVolume(volume, volume);
+            mMediaPlayer.setNextMediaPlayer(player);
+            LogHelper.d(TAG, "Next track ", mNextMediaId, " is ready to start without a gap");
+            return;
+        }
         // The media player is done preparing. That means we can start playing if we
         // have audio focus.
         configMediaPlayerState();
@@ -430,6 +587,17 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
      */
     @Override
     public boolean onError(MediaPlayer mp, int what, int extra) {
+        if (mCrossfader.isFadingOut(mp)) {
+            // The incoming track plays on.
+            endCrossfade();
+            return true;
+        }
+        if (mp == mNextPlayer) {
+            // The next track will be prepared again when it is played.
+            LogHelper.w(TAG, "Could not prepare the next track: what=", what, ", extra=", extra);
+            releaseNextPlayer();
+            return true;
+        }
         LogHelper.e(TAG, "Media player error: what=" + what + ", extra=" + extra);
         if (mCallback != null) {
             mCallback.onError("MediaPlayer error " + what + " (" + extra + ")");
@@ -437,6 +605,228 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
         return true; // true indicates we handled the error
     }
 
+    /**
+     * Called when the chained player starts playing after the current one.
+     *
+     * @see OnInfoListener
+     */
+    @Override
+    public boolean onInfo(MediaPlayer mp, int what, int extra) {
+        if (what != MediaPlayer.MEDIA_INFO_STARTED_AS_NEXT) {
+            return false;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (mCompletedAtMs != 0) {
+            recordTrackGap(now);
+        } else {
+            // Sent before the previous player reports its completion.
+            mNextStartedAtMs = now;
+        }
+        return true;
+    }
+
+    private void recordFirstAudio() {
+        if (mPlayRequestedAtMs == 0) {
+            return;
+        }
+        mTimeToFirstAudio.record(SystemClock.elapsedRealtime() - mPlayRequestedAtMs);
+        mPlayRequestedAtMs = 0;
+        LogHelper.i(TAG, mTimeToFirstAudio);
+    }
+
+    private void recordTrackGap(long startedAtMs) {
+        long gap = Math.max(0, startedAtMs - mCompletedAtMs);
+        mCompletedAtMs = 0;
+        mNextStartedAtMs = 0;
+        mLastGapMs = gap;
+        mTotalGapMs += gap;
+        mGapCount++;
+        LogHelper.i(TAG, "Inter-track gap ", gap, "ms, average ", getAverageTrackGapMs(),
+                "ms over ", mGapCount, " tracks");
+    }
+
+    /**
+     * Prepare the next item when the current track gets close to its end, and once it is
+     * prepared, start fading into it if it crossfades.
+     */
+    private void scheduleNextTrack() {
+        mHandler.removeCallbacks(mPrepareNextRunnable);
+        mHandler.removeCallbacks(mCrossfadeRunnable);
+        if (mNextItem == null || mMediaPlayer == null || mState != PlaybackState.STATE_PLAYING) {
+            return;
+        }
+        // The duration of a live stream is unknown: prepare right away.
+        int remaining = mMediaPlayer.getDuration() - mMediaPlayer.getCurrentPosition();
+        if (mNextPlayer == null) {
+            int ahead = PREPARE_NEXT_AHEAD_MS + PrefUtils.getCrossfadeDuration(mService);
+            mHandler.postDelayed(mPrepareNextRunnable, Math.max(0, remaining - ahead));
+        } else if (mNextPrepared && mNextCrossfadeMs > 0) {
+            mHandler.postDelayed(mCrossfadeRunnable, Math.max(0, remaining - mNextCrossfadeMs));
+        }
+    }
+
+    private void prepareNextPlayer() {
+        if (mNextItem == null || mNextPlayer != null || mMediaPlayer == null) {
+            return;
+        }
+        String mediaId = mNextItem.getDescription().getMediaId();
+        MediaMetadata track = mMusicProvider.getMusic(
+                MediaIDHelper.extractTrackIdFromMediaID(mediaId));
+        if (track == null) {
+            return;
+        }
+        MediaPlayer player = newMediaPlayer();
+        try {
+            setPlayableSource(player, track);
+            player.setAudioStreamType(AudioManager.STREAM_MUSIC);
+            player.prepareAsync();
+        } catch (IOException ex) {
+            LogHelper.w(TAG, ex, "Could not prepare the next track");
+            player.release();
+            return;
+        }
+        LogHelper.d(TAG, "Preparing next track ", mediaId);
+        mNextPlayer = player;
+        mNextMediaId = mediaId;
+        mNextPrepared = false;
+        mNextCrossfadeMs = Math.max(0, PrefUtils.getCrossfadeDuration(mService));
+        mNextCrossfadeCurve = getCrossfadeCurve();
+    }
+
+    /**
+     * Set the source of a track on an idle player: its downloaded file if there is one, else
+     * its stream read through the {@link StreamProxy}, so the bytes already downloaded are not
+     * downloaded again. A downloaded file that cannot be opened, usually because it was
+     * deleted, is dropped from the {@link DownloadIndex} and the track is streamed.
+     *
+     * @return the source set.
+     */
+    private String setPlayableSource(MediaPlayer player, MediaMetadata track)
+            throws IOException {
+        long trackId = TrackId.parse(track.getString(MediaMetadata.METADATA_KEY_MEDIA_ID));
+        DownloadIndex downloads = DownloadIndex.getInstance(mService);
+        File file = downloads.getFile(trackId);
+        if (file != null) {
+            try {
+                player.setDataSource(file.getAbsolutePath());
+                return file.getAbsolutePath();
+            } catch (IOException ex) {
+                LogHelper.w(TAG, "Could not open downloaded file ", file, ": ", ex.getMessage());
+                downloads.onFileMissing(trackId, file);
+                player.reset();
+            }
+        }
+        String source = getStreamSource(track);
+        player.setDataSource(source);
+        return source;
+    }
+
+    private String getStreamSource(MediaMetadata track) {
+        String source = track.getString(MusicProvider.CUSTOM_METADATA_TRACK_SOURCE);
+        StreamProxy proxy = StreamProxy.getInstance(mService);
+        return proxy != null ? proxy.getProxyUrl(source) : source;
+    }
+
+    private Crossfader.Curve getCrossfadeCurve() {
+        String curve = PrefUtils.getCrossfadeCurve(mService);
+        if (curve != null) {
+            try {
+                return Crossfader.Curve.valueOf(curve);
+            } catch (IllegalArgumentException ex) {
+                LogHelper.w(TAG, "Unknown crossfade curve ", curve);
+            }
+        }
+        return Crossfader.Curve.EQUAL_POWER;
+    }
+
+    /**
+     * Start the prepared next item, and fade the current track into it. The next item becomes
+     * the current one right away, like when a chained player takes over.
+     */
+    private void startCrossfade() {
+        if (!mNextPrepared || mNextCrossfadeMs == 0 || mMediaPlayer == null
+                || mState != PlaybackState.STATE_PLAYING) {
+            return;
+        }
+        // Seeking close to the end leaves less time than the full fade.
+        int remaining = mMediaPlayer.getDuration() - mMediaPlayer.getCurrentPosition();
+        int duration = Math.max(0, Math.min(mNextCrossfadeMs, remaining));
+        Crossfader.Curve curve = mNextCrossfadeCurve;
+        mHandedOffMediaId = mNextMediaId;
+        MediaPlayer outgoing = takeNextPlayer();
+        mMediaPlayer.setVolume(0, 0);
+        mMediaPlayer.start();
+        mCrossfader.start(outgoing, mMediaPlayer, duration, curve);
+        // The service moves on to the next item, as when the track completes.
+        if (mCallback != null) {
+            mCallback.onCompletion();
+        }
+    }
+
+    /**
+     * Cut the fade in progress, if any: the outgoing track stops and the incoming one plays
+     * at full volume.
+     */
+    private void endCrossfade() {
+        MediaPlayer outgoing = mCrossfader.finish();
+        if (outgoing != null) {
+            outgoing.release();
+        }
+    }
+
+    /**
+     * Set the volume of the current track, or the most a fade in progress goes up to.
+     */
+    private void setVolume(float volume) {
+        mCrossfader.setMaxVolume(volume);
+        if (mMediaPlayer != null && !mCrossfader.isFading()) {
+            mMediaPlayer.setVolume(volume, volume);
+        } // else do something for remote client.
+    }
+
+    /**
+     * Make the next player the current one, and release the current one.
+     */
+    private void switchToNextPlayer() {
+        MediaPlayer previous = takeNextPlayer();
+        if (previous != null) {
+            previous.release();
+        }
+    }
+
+    /**
+     * Make the next player the current one.
+     *
+     * @return the player that was current, for the caller to release.
+     */
+    private MediaPlayer takeNextPlayer() {
+        MediaPlayer previous = mMediaPlayer;
+        mMediaPlayer = mNextPlayer;
+        mCurrentMediaId = mNextMediaId;
+        mCurrentPosition = 0;
+        mNextItem = null;
+        mNextPlayer = null;
+        mNextMediaId = null;
+        mNextPrepared = false;
+        return previous;
+    }
+
+    private void releaseNextPlayer() {
+        mHandler.removeCallbacks(mPrepareNextRunnable);
+        mHandler.removeCallbacks(mCrossfadeRunnable);
+        if (mNextPlayer != null) {
+            if (mNextPrepared && mNextCrossfadeMs == 0 && mMediaPlayer != null) {
+                mMediaPlayer.setNextMediaPlayer(null);
+            }
+            mNextPlayer.release();
+        }
+        mNextItem = null;
+        mNextPlayer = null;
+        mNextMediaId = null;
+        mNextPrepared = false;
+        mNextStartedAtMs = 0;
+    }
+
     /**
      * Makes sure the media player exists and has been reset. This will create
      * the media player if needed, or reset the existing media player if one
@@ -445,25 +835,30 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
     private void createMediaPlayerIfNeeded() {
         LogHelper.d(TAG, "createMediaPlayerIfNeeded. needed? ", (mMediaPlayer==null));
         if (mMediaPlayer == null) {
-            mMediaPlayer = new MediaPlayer();
-
-            // Make sure the media player will acquire a wake-lock while
-            // playing. If we don't do that, the CPU might go to sleep while the
-            // song is playing, causing playback to stop.
-            mMediaPlayer.setWakeMode(mService.getApplicationContext(),
-                    PowerManager.PARTIAL_WAKE_LOCK);
-
-            // we want the media player to notify us when it's ready preparing,
-            // and when it's done playing:
-            mMediaPlayer.setOnPreparedListener(this);
-            mMediaPlayer.setOnCompletionListener(this);
-            mMediaPlayer.setOnErrorListener(this);
-            mMediaPlayer.setOnSeekCompleteListener(this);
+            mMediaPlayer = newMediaPlayer();
         } else {
             mMediaPlayer.reset();
         }
     }
 
+    private MediaPlayer newMediaPlayer() {
+        MediaPlayer player = new MediaPlayer();
+
+        // Make sure the media player will acquire a wake-lock while
+        // playing. If we don't do that, the CPU might go to sleep while the
+        // song is playing, causing playback to stop.
+        player.setWakeMode(mService.getApplicationContext(), PowerManager.PARTIAL_WAKE_LOCK);
+
+        // we want the media player to notify us when it's ready preparing,
+        // and when it's done playing:
+        player.setOnPreparedListener(this);
+        player.setOnCompletionListener(this);
+        player.setOnErrorListener(this);
+        player.setOnSeekCompleteListener(this);
+        player.setOnInfoListener(this);
+        return player;
+    }
+
     /**
      * Releases resources used by the service for playback. This includes the
      * "foreground service" status, the wake locks and possibly the MediaPlayer.
@@ -477,6 +872,11 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
         mService.stopForeground(true);
 
         // stop and release the Media Player, if it's available
+        if (releaseMediaPlayer) {
+            endCrossfade();
+            mCrossfader.release();
+            releaseNextPlayer();
+        }
         if (releaseMediaPlayer && mMediaPlayer != null) {
             mMediaPlayer.reset();
             mMediaPlayer.release();
@@ -40,12 +40,19 @@ import android.support.annotation.NonNull;
 import android.support.v7.media.MediaRouter;
 import android.text.TextUtils;
 
+import com.example.android.uamp.model.BrowseIndex;
 import com.example.android.uamp.model.MusicProvider;
+import com.example.android.uamp.model.TrackId;
+import com.example.android.uamp.model.UserLibrary;
+import com.example.android.uamp.proxy.Prefetcher;
 import com.example.android.uamp.ui.NowPlayingActivity;
 import com.example.android.uamp.utils.CarHelper;
 import com.example.android.uamp.utils.LogHelper;
 import com.example.android.uamp.utils.MediaIDHelper;
+import com.example.android.uamp.utils.MediaId;
+import com.example.android.uamp.utils.PlayingQueue;
 import com.example.android.uamp.utils.QueueHelper;
+import com.example.android.uamp.utils.QueueWindow;
 import com.example.android.uamp.utils.WearHelper;
 import com.google.android.gms.cast.ApplicationMetadata;
 import com.google.android.libraries.cast.companionlibrary.cast.VideoCastManager;
@@ -55,9 +62,18 @@ import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.example.android.uamp.utils.MediaIDHelper.MEDIA_ID_FAVORITES;
+import static com.example.android.uamp.utils.MediaIDHelper.MEDIA_ID_MOST_PLAYED;
+import static com.example.android.uamp.utils.MediaIDHelper.MEDIA_ID_MUSICS_BY_ALBUM;
+import static com.example.android.uamp.utils.MediaIDHelper.MEDIA_ID_MUSICS_BY_ARTIST;
+import static com.example.android.uamp.utils.MediaIDHelper.MEDIA_ID_MUSICS_BY_DURATION;
 import static com.example.android.uamp.utils.MediaIDHelper.MEDIA_ID_MUSICS_BY_GENRE;
+import static com.example.android.uamp.utils.MediaIDHelper.MEDIA_ID_RECENTLY_PLAYED;
 import static com.example.android.uamp.utils.MediaIDHelper.MEDIA_ID_ROOT;
+import static com.example.android.uamp.utils.MediaIDHelper.MEDIA_ID_TOP_TRACKS;
 import static com.example.android.uamp.utils.MediaIDHelper.createBrowseCategoryMediaID;
 
 /**
@@ -145,8 +161,12 @@ public class MusicService extends MediaBrowserService implements Playback.Callba
     private MusicProvider mMusicProvider;
     private MediaSession mSession;
     // "Now playing" queue:
-    private List<MediaSession.QueueItem> mPlayingQueue;
+    private PlayingQueue mPlayingQueue;
     private int mCurrentIndexOnQueue;
+    // Part of the queue set on the session.
+    private final QueueWindow mQueueWindow = new QueueWindow();
+    // Downloads the start of the next items while the current one plays.
+    private Prefetcher mPrefetcher;
     private MediaNotificationManager mMediaNotificationManager;
     // Indicates whether the service was started.
     private boolean mServiceStarted;
@@ -159,6 +179,9 @@ public class MusicService extends MediaBrowserService implements Playback.Callba
     private boolean mIsConnectedToCar;
     private BroadcastReceiver mCarConnectionReceiver;
 
+    // Used to measure the cold start time until the first onLoadChildren result is sent.
+    private long mCreatedAtMs;
+    private boolean mFirstChildrenSent;
 
 
     /**
@@ -202,6 +225,52 @@ public class MusicService extends MediaBrowserService implements Playback.Callba
 
     private VideoCastManager mCastManager;
 
+    // Artist and album pages loaded by a browser, which may show them again.
+    private final Set<String> mLoadedBrowsePages =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final MusicProvider.OnCatalogChangedListener mCatalogChangedListener =
+            new MusicProvider.OnCatalogChangedListener() {
+        @Override
+        public void onCatalogChanged(Set<String> changedGenres, boolean genresChanged) {
+            // A new batch of tracks was ingested, the snapshot we served was replaced by
+            // fresh network data, or a refresh found changes, so let subscribers reload the
+            // affected nodes.
+            if (genresChanged) {
+                notifyChildrenChanged(MEDIA_ID_MUSICS_BY_GENRE);
+            }
+            notifyChildrenChanged(MEDIA_ID_MUSICS_BY_ARTIST);
+            notifyChildrenChanged(MEDIA_ID_MUSICS_BY_ALBUM);
+            notifyChildrenChanged(MEDIA_ID_MUSICS_BY_DURATION);
+            notifyChildrenChanged(MEDIA_ID_TOP_TRACKS);
+            for (String genre : changedGenres) {
+                notifyChildrenChanged(createBrowseCategoryMediaID(MEDIA_ID_MUSICS_BY_GENRE, genre));
+            }
+            for (String bucket : mMusicProvider.getDurationBuckets()) {
+                notifyChildrenChanged(
+                        createBrowseCategoryMediaID(MEDIA_ID_MUSICS_BY_DURATION, bucket));
+            }
+            // Too many artist and album pages to notify them all: only the ones loaded.
+            for (String page : mLoadedBrowsePages) {
+                notifyChildrenChanged(page);
+            }
+        }
+    };
+
+    private final UserLibrary.OnLibraryChangedListener mLibraryChangedListener =
+            new UserLibrary.OnLibraryChangedListener() {
+        @Override
+        public void onLibraryChanged(boolean favoritesChanged, boolean historyChanged) {
+            if (favoritesChanged) {
+                notifyChildrenChanged(MEDIA_ID_FAVORITES);
+            }
+            if (historyChanged) {
+                notifyChildrenChanged(MEDIA_ID_RECENTLY_PLAYED);
+                notifyChildrenChanged(MEDIA_ID_MOST_PLAYED);
+            }
+        }
+    };
+
     /*
      * (non-Javadoc)
      * @see android.app.Service#onCreate()
@@ -211,8 +280,13 @@ public class MusicService extends MediaBrowserService implements Playback.Callba
         super.onCreate();
         LogHelper.d(TAG, "onCreate");
 
-        mPlayingQueue = new ArrayList<>();
-        mMusicProvider = new MusicProvider();
+        mCreatedAtMs = SystemClock.elapsedRealtime();
+        mPlayingQueue = new PlayingQueue();
+        mPrefetcher = new Prefetcher(this);
+        mMusicProvider = MusicProvider.getInstance(this);
+        mMusicProvider.addOnCatalogChangedListener(mCatalogChangedListener);
+        mMusicProvider.addOnLibraryChangedListener(mLibraryChangedListener);
+        mMusicProvider.startPeriodicRefresh();
         mPackageValidator = new PackageValidator(this);
 
         // Start a new MediaSession
@@ -300,6 +374,9 @@ public class MusicService extends MediaBrowserService implements Playback.Callba
         mCastManager.removeVideoCastConsumer(mCastConsumer);
 
         mDelayedStopHandler.removeCallbacksAndMessages(null);
+        mMusicProvider.removeOnCatalogChangedListener(mCatalogChangedListener);
+        mMusicProvider.removeOnLibraryChangedListener(mLibraryChangedListener);
+        mMusicProvider.stopPeriodicRefresh();
         // Always release the MediaSession to clean up resources
         // and notify associated MediaController(s).
         mSession.release();
@@ -382,6 +459,27 @@ public class MusicService extends MediaBrowserService implements Playback.Callba
                         .setSubtitle(getString(R.string.browse_genre_subtitle))
                         .build(), MediaBrowser.MediaItem.FLAG_BROWSABLE
             ));
+            mediaItems.add(createBrowsableItem(MEDIA_ID_MUSICS_BY_ARTIST,
+                    getString(R.string.browse_artists),
+                    getString(R.string.browse_artists_subtitle)));
+            mediaItems.add(createBrowsableItem(MEDIA_ID_MUSICS_BY_ALBUM,
+                    getString(R.string.browse_albums),
+                    getString(R.string.browse_albums_subtitle)));
+            mediaItems.add(createBrowsableItem(MEDIA_ID_TOP_TRACKS,
+                    getString(R.string.browse_top_tracks),
+                    getString(R.string.browse_top_tracks_subtitle)));
+            mediaItems.add(createBrowsableItem(MEDIA_ID_MUSICS_BY_DURATION,
+                    getString(R.string.browse_durations),
+                    getString(R.string.browse_durations_subtitle)));
+            mediaItems.add(createBrowsableItem(MEDIA_ID_FAVORITES,
+                    getString(R.string.browse_favorites),
+                    getString(R.string.browse_favorites_subtitle)));
+            mediaItems.add(createBrowsableItem(MEDIA_ID_RECENTLY_PLAYED,
+                    getString(R.string.browse_recently_played),
+                    getString(R.string.browse_recently_played_subtitle)));
+            mediaItems.add(createBrowsableItem(MEDIA_ID_MOST_PLAYED,
+                    getString(R.string.browse_most_played),
+                    getString(R.string.browse_most_played_subtitle)));
 
         } else if (MEDIA_ID_MUSICS_BY_GENRE.equals(parentMediaId)) {
             LogHelper.d(TAG, "OnLoadChildren.GENRES");
@@ -397,28 +495,139 @@ public class MusicService extends MediaBrowserService implements Playback.Callba
             }
 
         } else if (parentMediaId.startsWith(MEDIA_ID_MUSICS_BY_GENRE)) {
-            String genre = MediaIDHelper.getHierarchy(parentMediaId)[1];
+            String genre = MediaId.of(parentMediaId).getCategoryValue();
             LogHelper.d(TAG, "OnLoadChildren.SONGS_BY_GENRE  genre=", genre);
-            for (MediaMetadata track : mMusicProvider.getMusicsByGenre(genre)) {
-                // Since mediaMetadata fields are immutable, we need to create a copy, so we
-                // can set a hierarchy-aware mediaID. We will need to know the media hierarchy
-                // when we get a onPlayFromMusicID call, so we can create the proper queue based
-                // on where the music was selected from (by artist, by genre, random, etc)
-                String hierarchyAwareMediaID = MediaIDHelper.createMediaID(
-                        track.getDescription().getMediaId(), MEDIA_ID_MUSICS_BY_GENRE, genre);
-                MediaMetadata trackCopy = new MediaMetadata.Builder(track)
-                        .putString(MediaMetadata.METADATA_KEY_MEDIA_ID, hierarchyAwareMediaID)
-                        .build();
-                MediaBrowser.MediaItem bItem = new MediaBrowser.MediaItem(
-                        trackCopy.getDescription(), MediaItem.FLAG_PLAYABLE);
-                mediaItems.add(bItem);
+            addPlayableItems(mediaItems, mMusicProvider.getMusicsByGenre(genre),
+                    MEDIA_ID_MUSICS_BY_GENRE, genre);
+        } else if (MEDIA_ID_MUSICS_BY_ARTIST.equals(parentMediaId)) {
+            for (String artist : mMusicProvider.getArtists()) {
+                mediaItems.add(createBrowsableItem(
+                        createBrowseCategoryMediaID(MEDIA_ID_MUSICS_BY_ARTIST, artist), artist,
+                        getString(R.string.browse_musics_by_artist_subtitle, artist)));
+            }
+
+        } else if (parentMediaId.startsWith(MEDIA_ID_MUSICS_BY_ARTIST)) {
+            String artist = MediaId.of(parentMediaId).getCategoryValue();
+            mLoadedBrowsePages.add(parentMediaId);
+            addPlayableItems(mediaItems, mMusicProvider.getMusicsByArtist(artist),
+                    MEDIA_ID_MUSICS_BY_ARTIST, artist);
+
+        } else if (MEDIA_ID_MUSICS_BY_ALBUM.equals(parentMediaId)) {
+            for (String album : mMusicProvider.getAlbums()) {
+                mediaItems.add(createBrowsableItem(
+                        createBrowseCategoryMediaID(MEDIA_ID_MUSICS_BY_ALBUM, album), album,
+                        getString(R.string.browse_musics_by_album_subtitle, album)));
             }
+
+        } else if (parentMediaId.startsWith(MEDIA_ID_MUSICS_BY_ALBUM)) {
+            String album = MediaId.of(parentMediaId).getCategoryValue();
+            mLoadedBrowsePages.add(parentMediaId);
+            addPlayableItems(mediaItems, mMusicProvider.getMusicsByAlbum(album),
+                    MEDIA_ID_MUSICS_BY_ALBUM, album);
+
+        } else if (MEDIA_ID_TOP_TRACKS.equals(parentMediaId)) {
+            addPlayableItems(mediaItems, mMusicProvider.getTopTracks(), MEDIA_ID_TOP_TRACKS);
+
+        } else if (MEDIA_ID_FAVORITES.equals(parentMediaId)) {
+            addPlayableItems(mediaItems, mMusicProvider.getFavorites(), MEDIA_ID_FAVORITES);
+
+        } else if (MEDIA_ID_RECENTLY_PLAYED.equals(parentMediaId)) {
+            addPlayableItems(mediaItems, mMusicProvider.getRecentlyPlayed(),
+                    MEDIA_ID_RECENTLY_PLAYED);
+
+        } else if (MEDIA_ID_MOST_PLAYED.equals(parentMediaId)) {
+            addPlayableItems(mediaItems, mMusicProvider.getMostPlayed(), MEDIA_ID_MOST_PLAYED);
+
+        } else if (MEDIA_ID_MUSICS_BY_DURATION.equals(parentMediaId)) {
+            for (String bucket : mMusicProvider.getDurationBuckets()) {
+                mediaItems.add(createBrowsableItem(
+                        createBrowseCategoryMediaID(MEDIA_ID_MUSICS_BY_DURATION, bucket),
+                        getDurationBucketTitle(bucket), null));
+            }
+
+        } else if (parentMediaId.startsWith(MEDIA_ID_MUSICS_BY_DURATION)) {
+            String bucket = MediaId.of(parentMediaId).getCategoryValue();
+            addPlayableItems(mediaItems, mMusicProvider.getMusicsByDuration(bucket),
+                    MEDIA_ID_MUSICS_BY_DURATION, bucket);
+
         } else {
             LogHelper.w(TAG, "Skipping unmatched parentMediaId: ", parentMediaId);
         }
         LogHelper.d(TAG, "OnLoadChildren sending ", mediaItems.size(),
                 " results for ", parentMediaId);
         result.sendResult(mediaItems);
+
+        if (!mFirstChildrenSent) {
+            mFirstChildrenSent = true;
+            LogHelper.i(TAG, "Cold start to first onLoadChildren result: ",
+                    SystemClock.elapsedRealtime() - mCreatedAtMs, "ms, fromSnapshot=",
+                    mMusicProvider.isServingSnapshot(), " snapshotLoadTime=",
+                    mMusicProvider.getSnapshotLoadTimeMs(), "ms snapshotAge=",
+                    mMusicProvider.getSnapshotAgeMs(), "ms");
+        }
+    }
+
+    private MediaBrowser.MediaItem createBrowsableItem(String mediaId, String title,
+                                                      String subtitle) {
+        return new MediaBrowser.MediaItem(
+                new MediaDescription.Builder()
+                    .setMediaId(mediaId)
+                    .setTitle(title)
+                    .setSubtitle(subtitle)
+                    .build(), MediaBrowser.MediaItem.FLAG_BROWSABLE);
+    }
+
+    /**
+     * Add the tracks as playable items.
+     */
+    private void addPlayableItems(List<MediaBrowser.MediaItem> mediaItems,
+                                  Iterable<MediaMetadata> tracks, String... categories) {
+        for (MediaMetadata track : tracks) {
+            // Since mediaMetadata fields are immutable, we need to create a copy, so we
+            // can set a hierarchy-aware mediaID. We will need to know the media hierarchy
+            // when we get a onPlayFromMusicID call, so we can create the proper queue based
+            // on where the music was selected from (by artist, by genre, random, etc)
+            String hierarchyAwareMediaID = MediaIDHelper.createMediaID(
+                    track.getDescription().getMediaId(), categories);
+            MediaMetadata trackCopy = new MediaMetadata.Builder(track)
+                    .putString(MediaMetadata.METADATA_KEY_MEDIA_ID, hierarchyAwareMediaID)
+                    .build();
+            mediaItems.add(new MediaBrowser.MediaItem(
+                    trackCopy.getDescription(), MediaItem.FLAG_PLAYABLE));
+        }
+    }
+
+    private String getDurationBucketTitle(String bucket) {
+        if (BrowseIndex.DURATION_SHORT.equals(bucket)) {
+            return getString(R.string.browse_duration_short);
+        } else if (BrowseIndex.DURATION_MEDIUM.equals(bucket)) {
+            return getString(R.string.browse_duration_medium);
+        }
+        return getString(R.string.browse_duration_long);
+    }
+
+    /**
+     * @return the title of the queue played from the category of a media ID.
+     */
+    private String getQueueTitle(MediaId mediaId) {
+        String value = mediaId.getCategoryValue();
+        if (mediaId.isCategory(MEDIA_ID_MUSICS_BY_ARTIST)) {
+            return getString(R.string.browse_musics_by_artist_subtitle, value);
+        } else if (mediaId.isCategory(MEDIA_ID_MUSICS_BY_ALBUM)) {
+            return getString(R.string.browse_musics_by_album_subtitle, value);
+        } else if (mediaId.isCategory(MEDIA_ID_MUSICS_BY_DURATION)) {
+            return getDurationBucketTitle(value);
+        } else if (mediaId.isCategory(MEDIA_ID_FAVORITES)) {
+            return getString(R.string.browse_favorites);
+        } else if (mediaId.isCategory(MEDIA_ID_RECENTLY_PLAYED)) {
+            return getString(R.string.browse_recently_played);
+        } else if (mediaId.isCategory(MEDIA_ID_MOST_PLAYED)) {
+            return getString(R.string.browse_most_played);
+        } else if (mediaId.isCategory(MEDIA_ID_TOP_TRACKS) || value == null) {
+            return getString(R.string.browse_top_tracks);
+        }
+        // Genres, and search results titled by their query.
+        return getString(R.string.browse_musics_by_genre_subtitle, value);
     }
 
     private final class MediaSessionCallback extends MediaSession.Callback {
@@ -428,10 +637,10 @@ public class MusicService extends MediaBrowserService implements Playback.Callba
 
             if (mPlayingQueue == null || mPlayingQueue.isEmpty()) {
                 mPlayingQueue = QueueHelper.getRandomQueue(mMusicProvider);
-                mSession.setQueue(mPlayingQueue);
-                mSession.setQueueTitle(getString(R.string.random_queue_title));
                 // start playing from the beginning of the queue
                 mCurrentIndexOnQueue = 0;
+                updateSessionQueue();
+                mSession.setQueueTitle(getString(R.string.random_queue_title));
             }
 
             if (mPlayingQueue != null && !mPlayingQueue.isEmpty()) {
@@ -445,7 +654,7 @@ public class MusicService extends MediaBrowserService implements Playback.Callba
 
             if (mPlayingQueue != null && !mPlayingQueue.isEmpty()) {
                 // set the current index on queue from the music Id:
-                mCurrentIndexOnQueue = QueueHelper.getMusicIndexOnQueue(mPlayingQueue, queueId);
+                mCurrentIndexOnQueue = mPlayingQueue.indexOfQueueId(queueId);
                 // play the music
                 handlePlayRequest();
             }
@@ -467,15 +676,13 @@ public class MusicService extends MediaBrowserService implements Playback.Callba
             // so we can build the correct playing queue, based on where the track was
             // selected from.
             mPlayingQueue = QueueHelper.getPlayingQueue(mediaId, mMusicProvider);
-            mSession.setQueue(mPlayingQueue);
-            String queueTitle = getString(R.string.browse_musics_by_genre_subtitle,
-                    MediaIDHelper.extractBrowseCategoryValueFromMediaID(mediaId));
-            mSession.setQueueTitle(queueTitle);
+            // set the current index on queue from the media Id:
+            mCurrentIndexOnQueue = mPlayingQueue != null
+                    ? mPlayingQueue.indexOfMediaId(mediaId) : -1;
+            updateSessionQueue();
+            mSession.setQueueTitle(getQueueTitle(MediaId.of(mediaId)));
 
             if (mPlayingQueue != null && !mPlayingQueue.isEmpty()) {
-                // set the current index on queue from the media Id:
-                mCurrentIndexOnQueue = QueueHelper.getMusicIndexOnQueue(mPlayingQueue, mediaId);
-
                 if (mCurrentIndexOnQueue < 0) {
                     LogHelper.e(TAG, "playFromMediaId: media ID ", mediaId,
                             " could not be found on queue. Ignoring.");
@@ -584,12 +791,11 @@ public class MusicService extends MediaBrowserService implements Playback.Callba
                         mMusicProvider);
 
                     LogHelper.d(TAG, "playFromSearch  playqueue.length=" + mPlayingQueue.size());
-                    mSession.setQueue(mPlayingQueue);
+                    // immediately start playing from the beginning of the search results
+                    mCurrentIndexOnQueue = 0;
+                    updateSessionQueue();
 
                     if (mPlayingQueue != null && !mPlayingQueue.isEmpty()) {
-                        // immediately start playing from the beginning of the search results
-                        mCurrentIndexOnQueue = 0;
-
                         handlePlayRequest();
                     } else {
                         // if nothing was found, we need to warn the user and stop playing
@@ -621,9 +827,55 @@ public class MusicService extends MediaBrowserService implements Playback.Callba
         }
 
         if (QueueHelper.isIndexPlayable(mCurrentIndexOnQueue, mPlayingQueue)) {
+            // A random queue gets its next tracks before it runs out.
+            QueueHelper.extendShuffledQueue(mPlayingQueue, mCurrentIndexOnQueue);
+            updateSessionQueue();
             updateMetadata();
-            mPlayback.play(mPlayingQueue.get(mCurrentIndexOnQueue));
+            MediaSession.QueueItem item = mPlayingQueue.get(mCurrentIndexOnQueue);
+            String mediaId = item.getDescription().getMediaId();
+            // Resuming a paused track is not a new play.
+            if (mPlayback.getState() != PlaybackState.STATE_PAUSED
+                    || !TextUtils.equals(mediaId, mPlayback.getCurrentMediaId())) {
+                mMusicProvider.recordPlay(MediaIDHelper.extractMusicIDFromMediaID(mediaId));
+            }
+            mPlayback.play(item);
+            prepareNextItems();
+        }
+    }
+
+    /**
+     * Let the playback prepare the item played next, and prefetch the start of the items after
+     * the current one. Called when the current item or the queue changes.
+     */
+    private void prepareNextItems() {
+        mPlayback.setNextQueueItem(getNextQueueItem());
+        if (!(mPlayback instanceof LocalPlayback) || mPlayingQueue == null) {
+            // A cast receiver loads the tracks itself.
+            mPrefetcher.cancel();
+            return;
+        }
+        List<MediaMetadata> tracks = new ArrayList<>(Prefetcher.MAX_TRACKS);
+        for (int i = 1; i <= Prefetcher.MAX_TRACKS && i < mPlayingQueue.size(); i++) {
+            int index = (mCurrentIndexOnQueue + i) % mPlayingQueue.size();
+            MediaMetadata track = mMusicProvider.getMusic(MediaIDHelper.extractTrackIdFromMediaID(
+                    mPlayingQueue.get(index).getDescription().getMediaId()));
+            if (track != null) {
+                tracks.add(track);
+            }
+        }
+        mPrefetcher.prefetch(tracks);
+    }
+
+    /**
+     * @return the item played when the current one completes, or null.
+     */
+    private MediaSession.QueueItem getNextQueueItem() {
+        if (mPlayingQueue == null || mPlayingQueue.isEmpty()) {
+            return null;
         }
+        // Like onCompletion, the queue restarts when it gets to the end.
+        int next = mCurrentIndexOnQueue + 1;
+        return mPlayingQueue.get(next < mPlayingQueue.size() ? next : 0);
     }
 
     /**
@@ -643,6 +895,7 @@ public class MusicService extends MediaBrowserService implements Playback.Callba
     private void handleStopRequest(String withError) {
         LogHelper.d(TAG, "handleStopRequest: mState=" + mPlayback.getState() + " error=", withError);
         mPlayback.stop(true);
+        mPrefetcher.cancel();
         // reset the delayed stop handler.
         mDelayedStopHandler.removeCallbacksAndMessages(null);
         mDelayedStopHandler.sendEmptyMessageDelayed(0, STOP_DELAY);
@@ -661,14 +914,14 @@ public class MusicService extends MediaBrowserService implements Playback.Callba
             return;
         }
         MediaSession.QueueItem queueItem = mPlayingQueue.get(mCurrentIndexOnQueue);
-        String musicId = MediaIDHelper.extractMusicIDFromMediaID(
+        long musicId = MediaIDHelper.extractTrackIdFromMediaID(
                 queueItem.getDescription().getMediaId());
         MediaMetadata track = mMusicProvider.getMusic(musicId);
         if (track == null) {
             throw new IllegalArgumentException("Invalid musicId " + musicId);
         }
-        final String trackId = track.getString(MediaMetadata.METADATA_KEY_MEDIA_ID);
-        if (!TextUtils.equals(musicId, trackId)) {
+        final long trackId = TrackId.parse(track.getString(MediaMetadata.METADATA_KEY_MEDIA_ID));
+        if (musicId != trackId) {
             IllegalStateException e = new IllegalStateException("track ID should match musicId.");
             LogHelper.e(TAG, "track ID should match musicId.",
                 " musicId=", musicId, " trackId=", trackId,
@@ -676,7 +929,6 @@ public class MusicService extends MediaBrowserService implements Playback.Callba
                 " title from queueItem=", queueItem.getDescription().getTitle(),
                 " mediaId from track=", track.getDescription().getMediaId(),
                 " title from track=", track.getDescription().getTitle(),
-                " source.hashcode from track=", track.getString(MusicProvider.CUSTOM_METADATA_TRACK_SOURCE).hashCode(),
                 e);
             throw e;
         }
@@ -709,9 +961,9 @@ public class MusicService extends MediaBrowserService implements Playback.Callba
                     mMusicProvider.updateMusic(trackId, track);
 
                     // If we are still playing the same music
-                    String currentPlayingId = MediaIDHelper.extractMusicIDFromMediaID(
+                    long currentPlayingId = MediaIDHelper.extractTrackIdFromMediaID(
                         queueItem.getDescription().getMediaId());
-                    if (trackId.equals(currentPlayingId)) {
+                    if (trackId == currentPlayingId) {
                         mSession.setMetadata(track);
                     }
                 }
@@ -779,6 +1031,16 @@ public class MusicService extends MediaBrowserService implements Playback.Callba
         }
     }
 
+    /**
+     * Set the part of the playing queue around the current item on the session, if the session
+     * does not show it already.
+     */
+    private void updateSessionQueue() {
+        if (mQueueWindow.update(mPlayingQueue, mCurrentIndexOnQueue)) {
+            mSession.setQueue(mQueueWindow.getItems());
+        }
+    }
+
     private long getAvailableActions() {
         long actions = PlaybackState.ACTION_PLAY | PlaybackState.ACTION_PLAY_FROM_MEDIA_ID |
                 PlaybackState.ACTION_PLAY_FROM_SEARCH;
@@ -804,7 +1066,7 @@ public class MusicService extends MediaBrowserService implements Playback.Callba
                 LogHelper.d(TAG, "getCurrentPlayingMusic for musicId=",
                         item.getDescription().getMediaId());
                 return mMusicProvider.getMusic(
-                        MediaIDHelper.extractMusicIDFromMediaID(item.getDescription().getMediaId()));
+                        MediaIDHelper.extractTrackIdFromMediaID(item.getDescription().getMediaId()));
             }
         }
         return null;
@@ -843,12 +1105,14 @@ public class MusicService extends MediaBrowserService implements Playback.Callba
     @Override
     public void onMetadataChanged(String mediaId) {
         LogHelper.d(TAG, "onMetadataChanged", mediaId);
-        List<MediaSession.QueueItem> queue = QueueHelper.getPlayingQueue(mediaId, mMusicProvider);
-        int index = QueueHelper.getMusicIndexOnQueue(queue, mediaId);
+        PlayingQueue queue = QueueHelper.getPlayingQueue(mediaId, mMusicProvider);
+        int index = queue != null ? queue.indexOfMediaId(mediaId) : -1;
         if (index > -1) {
             mCurrentIndexOnQueue = index;
             mPlayingQueue = queue;
+            updateSessionQueue();
             updateMetadata();
+            prepareNextItems();
         }
     }
 
@@ -880,6 +1144,7 @@ public class MusicService extends MediaBrowserService implements Playback.Callba
             case PlaybackState.STATE_PLAYING:
                 if (resumePlaying && QueueHelper.isIndexPlayable(mCurrentIndexOnQueue, mPlayingQueue)) {
                     mPlayback.play(mPlayingQueue.get(mCurrentIndexOnQueue));
+                    prepareNextItems();
                 } else if (!resumePlaying) {
                     mPlayback.pause();
                 } else {
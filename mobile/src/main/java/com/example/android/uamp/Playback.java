@@ -81,6 +81,14 @@ public interface Playback {
      */
     void play(QueueItem item);
 
+    /**
+     * Set the item that will be played after the current one completes, so it can be
+     * prepared ahead and started without a gap.
+     *
+     * @param item to play next, or null if there is none.
+     */
+    void setNextQueueItem(QueueItem item);
+
     /**
      * Pause the current playing item
      */
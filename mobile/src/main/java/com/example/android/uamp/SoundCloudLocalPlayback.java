@@ -29,7 +29,7 @@ import android.os.Build;
 import android.os.PowerManager;
 import android.text.TextUtils;
 
-import com.example.android.uamp.model.SoundColudMusicProvider;
+import com.example.android.uamp.model.MusicProvider;
 import com.example.android.uamp.utils.LogHelper;
 import com.example.android.uamp.utils.MediaIDHelper;
 
@@ -68,7 +68,7 @@ public class SoundCloudLocalPlayback implements SoundCloudPlayback, AudioManager
     private int mState;
     private boolean mPlayOnFocusGain;
     private Callback mCallback;
-    private final SoundColudMusicProvider mSoundColudMusicProvider;
+    private final MusicProvider mMusicProvider;
     private volatile boolean mAudioNoisyReceiverRegistered;
     private volatile int mCurrentPosition;
     private volatile String mCurrentMediaId;
@@ -96,9 +96,9 @@ public class SoundCloudLocalPlayback implements SoundCloudPlayback, AudioManager
         }
     };
 
-    public SoundCloudLocalPlayback(SoundCloudMusicService service, SoundColudMusicProvider musicProvider) {
+    public SoundCloudLocalPlayback(SoundCloudMusicService service, MusicProvider musicProvider) {
         this.mSoundCloudMusicService = service;
-        this.mSoundColudMusicProvider = musicProvider;
+        this.mMusicProvider = musicProvider;
         this.mAudioManager = (AudioManager) service.getSystemService(Context.AUDIO_SERVICE);
         // Create the Wifi lock (this does not acquire the lock, this just creates it)
         this.mWifiLock = ((WifiManager) service.getSystemService(Context.WIFI_SERVICE))
@@ -176,10 +176,10 @@ public class SoundCloudLocalPlayback implements SoundCloudPlayback, AudioManager
         } else {
             mState = PlaybackState.STATE_STOPPED;
             relaxResources(false); // release everything except MediaPlayer
-            MediaMetadata track = mSoundColudMusicProvider.getMusic(
+            MediaMetadata track = mMusicProvider.getMusic(
                     MediaIDHelper.extractMusicIDFromMediaID(item.getDescription().getMediaId()));
 
-            String source = track.getString(SoundColudMusicProvider.CUSTOM_METADATA_TRACK_SOURCE);
+            String source = track.getString(MusicProvider.CUSTOM_METADATA_TRACK_SOURCE);
 
             try {
                 createMediaPlayerIfNeeded();
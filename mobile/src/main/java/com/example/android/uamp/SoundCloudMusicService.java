@@ -41,11 +41,11 @@ import android.support.v7.media.MediaRouter;
 import android.text.TextUtils;
 
 import com.example.android.uamp.model.MusicProvider;
-import com.example.android.uamp.model.SoundColudMusicProvider;
 import com.example.android.uamp.ui.NowPlayingActivity;
 import com.example.android.uamp.utils.CarHelper;
 import com.example.android.uamp.utils.LogHelper;
 import com.example.android.uamp.utils.MediaIDHelper;
+import com.example.android.uamp.utils.MediaId;
 
 import com.example.android.uamp.utils.SoundCloudQueueHelper;
 import com.example.android.uamp.utils.WearHelper;
@@ -144,7 +144,7 @@ public class SoundCloudMusicService extends MediaBrowserService implements Sound
     private static final int STOP_DELAY = 30000;
 
     // Music catalog manager
-    private SoundColudMusicProvider mMusicProvider;
+    private MusicProvider mMusicProvider;
     private MediaSession mSession;
     // "Now playing" queue:
     private List<MediaSession.QueueItem> mPlayingQueue;
@@ -212,7 +212,7 @@ public class SoundCloudMusicService extends MediaBrowserService implements Sound
         LogHelper.d(TAG, "onCreate");
 
         mPlayingQueue = new ArrayList<>();
-        mMusicProvider = new SoundColudMusicProvider();
+        mMusicProvider = MusicProvider.getInstance(this);
         mPackageValidator = new PackageValidator(this);
 
         // Start a new MediaSession
@@ -343,7 +343,7 @@ public class SoundCloudMusicService extends MediaBrowserService implements Sound
             // Use result.detach to allow calling result.sendResult from another thread:
             result.detach();
 
-            mMusicProvider.retrieveMediaAsync(new SoundColudMusicProvider.Callback() {
+            mMusicProvider.retrieveMediaAsync(new MusicProvider.Callback() {
                 @Override
                 public void onMusicCatalogReady(boolean success) {
                     if (success) {
@@ -397,7 +397,7 @@ public class SoundCloudMusicService extends MediaBrowserService implements Sound
             }
 
         } else if (parentMediaId.startsWith(MEDIA_ID_MUSICS_BY_GENRE)) {
-            String genre = MediaIDHelper.getHierarchy(parentMediaId)[1];
+            String genre = MediaId.of(parentMediaId).getCategoryValue();
             LogHelper.d(TAG, "OnLoadChildren.SONGS_BY_GENRE  genre=", genre);
             for (MediaMetadata track : mMusicProvider.getMusicsByGenre(genre)) {
                 // Since mediaMetadata fields are immutable, we need to create a copy, so we
@@ -577,7 +577,7 @@ public class SoundCloudMusicService extends MediaBrowserService implements Sound
 
             mPlayback.setState(PlaybackState.STATE_CONNECTING);
 
-            mMusicProvider.retrieveMediaAsync(new SoundColudMusicProvider.Callback() {
+            mMusicProvider.retrieveMediaAsync(new MusicProvider.Callback() {
                 @Override
                 public void onMusicCatalogReady(boolean success) {
                     mPlayingQueue = SoundCloudQueueHelper.getPlayingQueueFromSearch(query, extras,
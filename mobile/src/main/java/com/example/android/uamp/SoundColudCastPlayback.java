@@ -22,7 +22,7 @@ import android.os.Build;
 import android.text.TextUtils;
 
 
-import com.example.android.uamp.model.SoundColudMusicProvider;
+import com.example.android.uamp.model.MusicProvider;
 import com.example.android.uamp.utils.LogHelper;
 import com.example.android.uamp.utils.MediaIDHelper;
 import com.google.android.gms.cast.MediaInfo;
@@ -51,7 +51,7 @@ public class SoundColudCastPlayback implements SoundCloudPlayback {
     private static final String MIME_TYPE_AUDIO_MPEG = "audio/mpeg";
     private static final String ITEM_ID = "itemId";
 
-    private final SoundColudMusicProvider mSondColudMusicProvider;
+    private final MusicProvider mMusicProvider;
     private final VideoCastConsumerImpl mCastConsumer = new VideoCastConsumerImpl() {
 
         @Override
@@ -75,8 +75,8 @@ public class SoundColudCastPlayback implements SoundCloudPlayback {
     private volatile int mCurrentPosition;
     private volatile String mCurrentMediaId;
 
-    public SoundColudCastPlayback(SoundColudMusicProvider soundColudMusicProvider) {
-        this.mSondColudMusicProvider = soundColudMusicProvider;
+    public SoundColudCastPlayback(MusicProvider musicProvider) {
+        this.mMusicProvider = musicProvider;
     }
 
     @Override
@@ -221,7 +221,7 @@ public class SoundColudCastPlayback implements SoundCloudPlayback {
     private void loadMedia(String mediaId, boolean autoPlay) throws
             TransientNetworkDisconnectionException, NoConnectionException, JSONException {
         String musicId = MediaIDHelper.extractMusicIDFromMediaID(mediaId);
-        android.media.MediaMetadata track = mSondColudMusicProvider.getMusic(musicId);
+        android.media.MediaMetadata track = mMusicProvider.getMusic(musicId);
         if (track == null) {
             throw new IllegalArgumentException("Invalid mediaId " + mediaId);
         }
@@ -266,7 +266,7 @@ public class SoundColudCastPlayback implements SoundCloudPlayback {
         // when the cast dialog is clicked.
         mediaMetadata.addImage(image);
 
-        return new MediaInfo.Builder(track.getString(SoundColudMusicProvider.CUSTOM_METADATA_TRACK_SOURCE))
+        return new MediaInfo.Builder(track.getString(MusicProvider.CUSTOM_METADATA_TRACK_SOURCE))
                 .setContentType(MIME_TYPE_AUDIO_MPEG)
                 .setStreamType(MediaInfo.STREAM_TYPE_BUFFERED)
                 .setMetadata(mediaMetadata)
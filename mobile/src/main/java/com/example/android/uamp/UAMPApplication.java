@@ -18,6 +18,7 @@ package com.example.android.uamp;
 import android.app.Application;
 
 import com.example.android.uamp.ui.FullScreenPlayerActivity;
+import com.example.android.uamp.utils.HttpHelper;
 import com.google.android.libraries.cast.companionlibrary.cast.VideoCastManager;
 
 import static com.google.android.libraries.cast.companionlibrary.cast.BaseCastManager.FEATURE_DEBUGGING;
@@ -31,6 +32,7 @@ public class UAMPApplication extends Application {
     @Override
     public void onCreate() {
         super.onCreate();
+        HttpHelper.init(this);
         String applicationId = getResources().getString(R.string.cast_application_id);
         VideoCastManager castManager = VideoCastManager.initialize(
                 getApplicationContext(), applicationId, FullScreenPlayerActivity.class, null);
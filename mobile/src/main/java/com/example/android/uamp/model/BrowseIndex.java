@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.model;
+
+import android.annotation.TargetApi;
+import android.media.MediaMetadata;
+import android.os.Build;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Secondary indexes used to browse the catalog by artist, album, length and popularity.
+ *
+ * Everything is precomputed when the catalog is loaded as arrays of track ordinals: tracks by
+ * decreasing likes, tracks by increasing duration, and for artists and albums a sorted array of
+ * names with the ordinals of each name stored contiguously (most liked first). Lookups are a
+ * binary search at most, and the returned lists are views over those arrays, so serving a
+ * browse node never scans the catalog. Instances are immutable.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public final class BrowseIndex {
+
+    public static final String DURATION_SHORT = "short";
+    public static final String DURATION_MEDIUM = "medium";
+    public static final String DURATION_LONG = "long";
+
+    // Upper bounds (exclusive, in ms) of the short and medium duration buckets.
+    private static final long SHORT_TRACK_MAX_MS = 3 * 60 * 1000;
+    private static final long MEDIUM_TRACK_MAX_MS = 6 * 60 * 1000;
+
+    private static final String[] DURATION_BUCKETS = {
+            DURATION_SHORT, DURATION_MEDIUM, DURATION_LONG
+    };
+
+    // Names are listed case insensitively, with an exact tie break so lookups are stable.
+    private static final Comparator<String> NAME_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String lhs, String rhs) {
+            int result = String.CASE_INSENSITIVE_ORDER.compare(lhs, rhs);
+            return result != 0 ? result : lhs.compareTo(rhs);
+        }
+    };
+
+    private static final BrowseIndex EMPTY = build(
+            Collections.<MutableMediaMetadata>emptyList());
+
+    private final MutableMediaMetadata[] mTracks;
+    private final int[] mByLikes;
+    private final int[] mByDuration;
+    // Start of each duration bucket in mByDuration, plus the end of the last one.
+    private final int[] mDurationBucketStart;
+    private final Grouping mByArtist;
+    private final Grouping mByAlbum;
+
+    private BrowseIndex(MutableMediaMetadata[] tracks) {
+        mTracks = tracks;
+        mByLikes = sortedOrdinals(tracks, MediaMetadata.METADATA_KEY_NUM_TRACKS, true);
+        mByDuration = sortedOrdinals(tracks, MediaMetadata.METADATA_KEY_DURATION, false);
+        mDurationBucketStart = new int[] {
+                0,
+                firstAtLeast(SHORT_TRACK_MAX_MS),
+                firstAtLeast(MEDIUM_TRACK_MAX_MS),
+                mByDuration.length
+        };
+        mByArtist = new Grouping(tracks, mByLikes, MediaMetadata.METADATA_KEY_ARTIST);
+        mByAlbum = new Grouping(tracks, mByLikes, MediaMetadata.METADATA_KEY_ALBUM);
+    }
+
+    /**
+     * @return the index with no tracks, used before a catalog is loaded.
+     */
+    public static BrowseIndex empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Index the given tracks. Runs in O(n log n) and must not be called on the main thread
+     * for large catalogs.
+     */
+    public static BrowseIndex build(Collection<MutableMediaMetadata> tracks) {
+        return new BrowseIndex(tracks.toArray(new MutableMediaMetadata[tracks.size()]));
+    }
+
+    /**
+     * @return the most liked tracks, most liked first.
+     */
+    public List<MediaMetadata> getTopTracks(int limit) {
+        return new TrackList(mTracks, mByLikes, 0, Math.min(limit, mByLikes.length));
+    }
+
+    /**
+     * @return the names of the duration buckets, shortest first.
+     */
+    public List<String> getDurationBuckets() {
+        return Arrays.asList(DURATION_BUCKETS);
+    }
+
+    /**
+     * @param bucket one of {@link #DURATION_SHORT}, {@link #DURATION_MEDIUM} or
+     *               {@link #DURATION_LONG}.
+     * @return the tracks of the bucket, shortest first.
+     */
+    public List<MediaMetadata> getTracksByDuration(String bucket) {
+        int index = Arrays.asList(DURATION_BUCKETS).indexOf(bucket);
+        if (index < 0) {
+            return Collections.emptyList();
+        }
+        return new TrackList(mTracks, mByDuration, mDurationBucketStart[index],
+                mDurationBucketStart[index + 1]);
+    }
+
+    /**
+     * @return artist names, in alphabetical order.
+     */
+    public List<String> getArtists() {
+        return mByArtist.getNames();
+    }
+
+    /**
+     * @return tracks of the artist, most liked first.
+     */
+    public List<MediaMetadata> getTracksByArtist(String artist) {
+        return mByArtist.getTracks(mTracks, artist);
+    }
+
+    /**
+     * @return album names, in alphabetical order.
+     */
+    public List<String> getAlbums() {
+        return mByAlbum.getNames();
+    }
+
+    /**
+     * @return tracks of the album, most liked first.
+     */
+    public List<MediaMetadata> getTracksByAlbum(String album) {
+        return mByAlbum.getTracks(mTracks, album);
+    }
+
+    private int firstAtLeast(long durationMs) {
+        int low = 0;
+        int high = mByDuration.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (duration(mTracks[mByDuration[mid]]) < durationMs) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static long duration(MutableMediaMetadata track) {
+        return track.getLong(MediaMetadata.METADATA_KEY_DURATION);
+    }
+
+    private static int[] sortedOrdinals(MutableMediaMetadata[] tracks, String key,
+                                        final boolean descending) {
+        final long[] values = new long[tracks.length];
+        Integer[] ordinals = new Integer[tracks.length];
+        for (int i = 0; i < tracks.length; i++) {
+            values[i] = tracks[i].getLong(key);
+            ordinals[i] = i;
+        }
+        Arrays.sort(ordinals, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                long a = values[lhs];
+                long b = values[rhs];
+                int result = a < b ? -1 : (a == b ? 0 : 1);
+                if (descending) {
+                    result = -result;
+                }
+                // Ties keep the catalog order.
+                return result != 0 ? result : lhs - rhs;
+            }
+        });
+        int[] result = new int[ordinals.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ordinals[i];
+        }
+        return result;
+    }
+
+    /**
+     * Tracks grouped by the value of one field: sorted names, and for the name at index i the
+     * ordinals mOrdinals[mStart[i]] to mOrdinals[mStart[i + 1]] in the order of the ordinals
+     * the grouping was built from.
+     */
+    private static final class Grouping {
+        private final String[] mNames;
+        private final int[] mStart;
+        private final int[] mOrdinals;
+
+        Grouping(MutableMediaMetadata[] tracks, int[] order, String key) {
+            Map<String, Integer> counts = new HashMap<>();
+            for (MutableMediaMetadata track : tracks) {
+                String name = track.getString(key);
+                if (name != null) {
+                    Integer count = counts.get(name);
+                    counts.put(name, count == null ? 1 : count + 1);
+                }
+            }
+            mNames = counts.keySet().toArray(new String[counts.size()]);
+            Arrays.sort(mNames, NAME_ORDER);
+            mStart = new int[mNames.length + 1];
+            for (int i = 0; i < mNames.length; i++) {
+                mStart[i + 1] = mStart[i] + counts.get(mNames[i]);
+            }
+            mOrdinals = new int[mStart[mNames.length]];
+            int[] next = Arrays.copyOf(mStart, mNames.length);
+            for (int ordinal : order) {
+                String name = tracks[ordinal].getString(key);
+                if (name != null) {
+                    int index = Arrays.binarySearch(mNames, name, NAME_ORDER);
+                    mOrdinals[next[index]++] = ordinal;
+                }
+            }
+        }
+
+        List<String> getNames() {
+            return Collections.unmodifiableList(Arrays.asList(mNames));
+        }
+
+        List<MediaMetadata> getTracks(MutableMediaMetadata[] tracks, String name) {
+            int index = name == null ? -1 : Arrays.binarySearch(mNames, name, NAME_ORDER);
+            if (index < 0) {
+                return Collections.emptyList();
+            }
+            return new TrackList(tracks, mOrdinals, mStart[index], mStart[index + 1]);
+        }
+    }
+
+    /**
+     * Read only view over a range of an ordinal array.
+     */
+    private static final class TrackList extends AbstractList<MediaMetadata> {
+        private final MutableMediaMetadata[] mTracks;
+        private final int[] mOrdinals;
+        private final int mFrom;
+        private final int mTo;
+
+        TrackList(MutableMediaMetadata[] tracks, int[] ordinals, int from, int to) {
+            mTracks = tracks;
+            mOrdinals = ordinals;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        public MediaMetadata get(int location) {
+            if (location < 0 || location >= size()) {
+                throw new IndexOutOfBoundsException("Invalid index " + location
+                        + ", size is " + size());
+            }
+            return mTracks[mOrdinals[mFrom + location]].getMetadata();
+        }
+
+        @Override
+        public int size() {
+            return mTo - mFrom;
+        }
+    }
+}
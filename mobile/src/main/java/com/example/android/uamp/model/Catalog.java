@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.model;
+
+import android.annotation.TargetApi;
+import android.media.MediaMetadata;
+import android.os.Build;
+
+import com.example.android.uamp.utils.LongMap;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * One version of the catalog served by the {@link MusicProvider}.
+ *
+ * A version never changes once built: the provider publishes each change as a new version
+ * through a single volatile reference, so a reader that took the reference once sees the state,
+ * the tracks and every index of the same version, without locking. Versions are numbered in
+ * the order they were published, so results derived from the catalog can be cached until the
+ * number changes.
+ *
+ * Tracks are shared between versions. Only their displayed metadata (like album art) can be
+ * replaced in place, and such a change is still published as a new version. Any other change
+ * replaces the track by a new holder in the next version, so the versions already published
+ * keep the metadata their indexes were built from.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+final class Catalog {
+
+    static final Catalog EMPTY = new Builder(null).build(0);
+
+    final long version;
+    final MusicProvider.State state;
+    // Normalized search keyword the catalog was fetched for, or null.
+    final String query;
+    // True if the tracks come from the snapshot and not from the network.
+    final boolean fromSnapshot;
+    // True if the tracks are older than the cache TTL and a fresh copy is fetched.
+    final boolean stale;
+    final LongMap<MutableMediaMetadata> tracksById;
+    final SearchIndex searchIndex;
+    final Map<String, List<MediaMetadata>> tracksByGenre;
+    final Map<String, FuzzyIndex> fuzzyIndexes;
+    final BrowseIndex browseIndex;
+
+    private Catalog(long version, Builder builder) {
+        this.version = version;
+        state = builder.mState;
+        query = builder.mQuery;
+        fromSnapshot = builder.mFromSnapshot;
+        stale = builder.mStale;
+        tracksById = builder.mFrozenTracks;
+        searchIndex = builder.mFrozenSearch;
+        tracksByGenre = builder.mFrozenGenres;
+        fuzzyIndexes = builder.mFuzzyIndexes;
+        browseIndex = builder.mBrowseIndex;
+    }
+
+    /**
+     * The catalog being written, from which versions are built. Not thread safe: the provider
+     * only uses it while holding its lock, or before publishing it.
+     *
+     * Building a version freezes the tracks and the indexes that changed since the previous
+     * one, and shares the others with it.
+     */
+    static final class Builder {
+        private final String mQuery;
+        private MusicProvider.State mState = MusicProvider.State.NON_INITIALIZED;
+        private boolean mFromSnapshot;
+        private boolean mStale;
+        private LongMap<MutableMediaMetadata> mTracksById = new LongMap<>();
+        private final SearchIndex mSearchIndex = new SearchIndex();
+        private final GenreIndex mGenreIndex = new GenreIndex();
+        private Map<String, FuzzyIndex> mFuzzyIndexes = Collections.emptyMap();
+        private BrowseIndex mBrowseIndex = BrowseIndex.empty();
+
+        // Frozen parts of the last version, or null if they changed since.
+        private LongMap<MutableMediaMetadata> mFrozenTracks;
+        private SearchIndex mFrozenSearch;
+        private Map<String, List<MediaMetadata>> mFrozenGenres;
+
+        Builder(String query) {
+            mQuery = query;
+        }
+
+        String getQuery() {
+            return mQuery;
+        }
+
+        MusicProvider.State getState() {
+            return mState;
+        }
+
+        void setState(MusicProvider.State state) {
+            mState = state;
+        }
+
+        void setFromSnapshot(boolean fromSnapshot) {
+            mFromSnapshot = fromSnapshot;
+        }
+
+        void setStale(boolean stale) {
+            mStale = stale;
+        }
+
+        /**
+         * Set the lookup structures that are only rebuilt when a whole catalog is loaded.
+         */
+        void setDerivedIndexes(Map<String, FuzzyIndex> fuzzyIndexes, BrowseIndex browseIndex) {
+            mFuzzyIndexes = fuzzyIndexes;
+            mBrowseIndex = browseIndex;
+        }
+
+        boolean contains(long trackId) {
+            return mTracksById.containsKey(trackId);
+        }
+
+        MutableMediaMetadata get(long trackId) {
+            return mTracksById.get(trackId);
+        }
+
+        int size() {
+            return mTracksById.size();
+        }
+
+        /**
+         * @return a copy of the tracks, in the order they were added. An updated track keeps
+         * its place.
+         */
+        List<MutableMediaMetadata> getTracks() {
+            return mSearchIndex.getTracks();
+        }
+
+        /**
+         * @return the genres having at least one track.
+         */
+        Set<String> getGenres() {
+            return mGenreIndex.getGenres();
+        }
+
+        /**
+         * Add a track to the lookups and the search index. Call {@link #addToGenres} once the
+         * whole batch was added.
+         *
+         * @return false if a track with the same id is already in the catalog.
+         */
+        boolean add(MutableMediaMetadata track) {
+            if (mTracksById.putIfAbsent(track.id, track) != null) {
+                return false;
+            }
+            mSearchIndex.add(track);
+            mFrozenTracks = null;
+            mFrozenSearch = null;
+            return true;
+        }
+
+        /**
+         * @return the genres that changed.
+         */
+        Set<String> addToGenres(Collection<MutableMediaMetadata> tracks) {
+            Set<String> changedGenres = mGenreIndex.addAll(tracks);
+            if (!changedGenres.isEmpty()) {
+                mFrozenGenres = null;
+            }
+            return changedGenres;
+        }
+
+        /**
+         * Replace a track by a new holder of its new metadata, and re-index it. The versions
+         * already built keep the old holder.
+         *
+         * @return the genres whose list changed.
+         */
+        Set<String> update(MutableMediaMetadata track, MediaMetadata metadata) {
+            MutableMediaMetadata replacement = track.withMetadata(metadata);
+            mTracksById.put(track.id, replacement);
+            mFrozenTracks = null;
+            if (mSearchIndex.replace(track, replacement)) {
+                mFrozenSearch = null;
+            }
+            Set<String> changedGenres = mGenreIndex.replace(track, replacement);
+            if (!changedGenres.isEmpty()) {
+                mFrozenGenres = null;
+            }
+            return changedGenres;
+        }
+
+        /**
+         * Replace the displayed metadata of a track in place, in this version and the ones
+         * already built. Only for changes that no index depends on, like album art.
+         */
+        void updateInPlace(MutableMediaMetadata track, MediaMetadata metadata) {
+            track.setMetadata(metadata);
+        }
+
+        /**
+         * @return the genres that changed.
+         */
+        Set<String> removeAll(Collection<MutableMediaMetadata> tracks) {
+            LongMap<MutableMediaMetadata> removed = new LongMap<>(tracks.size());
+            for (MutableMediaMetadata track : tracks) {
+                removed.put(track.id, track);
+            }
+            // The map has no removal, so the remaining tracks go to a new one.
+            LongMap<MutableMediaMetadata> remaining = new LongMap<>(mTracksById.size());
+            for (MutableMediaMetadata track : mTracksById.values()) {
+                if (!removed.containsKey(track.id)) {
+                    remaining.put(track.id, track);
+                }
+            }
+            Set<String> changedGenres = new HashSet<>();
+            for (MutableMediaMetadata track : removed.values()) {
+                mSearchIndex.remove(track);
+                changedGenres.addAll(mGenreIndex.remove(track));
+            }
+            mTracksById = remaining;
+            mFrozenTracks = null;
+            mFrozenSearch = null;
+            mFrozenGenres = null;
+            return changedGenres;
+        }
+
+        Catalog build(long version) {
+            if (mFrozenTracks == null) {
+                mFrozenTracks = mTracksById.copy();
+            }
+            if (mFrozenSearch == null) {
+                mFrozenSearch = mSearchIndex.freeze();
+            }
+            if (mFrozenGenres == null) {
+                mFrozenGenres = mGenreIndex.snapshot();
+            }
+            return new Catalog(version, this);
+        }
+    }
+}
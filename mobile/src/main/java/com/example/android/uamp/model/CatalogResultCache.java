@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.model;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.LruCache;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Catalogs fetched for the last few search keywords, so switching back to a recent search
+ * does not need a network round trip.
+ *
+ * Entries are keyed by normalized query and bounded by their estimated size in bytes. An entry
+ * older than the TTL is still returned, marked as stale, so it can be served while a fresh
+ * copy is fetched; entries past the max stale age are dropped, except the one read from the
+ * snapshot: whatever its age, it beats an empty browse tree while the network answers.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class CatalogResultCache {
+
+    private final LruCache<String, Entry> mCache;
+    private final long mTtlMs;
+    private final long mMaxStaleMs;
+
+    private final AtomicInteger mHits = new AtomicInteger();
+    private final AtomicInteger mStaleHits = new AtomicInteger();
+    private final AtomicInteger mMisses = new AtomicInteger();
+
+    /**
+     * A cached catalog.
+     */
+    public final class Entry {
+        public final TrackStore tracks;
+        public final long fetchedAt;
+        public final boolean fromSnapshot;
+        final int bytes;
+
+        Entry(TrackStore tracks, long fetchedAt, boolean fromSnapshot) {
+            this.tracks = tracks;
+            this.fetchedAt = fetchedAt;
+            this.fromSnapshot = fromSnapshot;
+            this.bytes = (int) Math.min(Integer.MAX_VALUE, tracks.estimateBytes());
+        }
+
+        /**
+         * @return true if the entry is older than the TTL and should be refreshed.
+         */
+        public boolean isStale() {
+            return System.currentTimeMillis() - fetchedAt > mTtlMs;
+        }
+    }
+
+    /**
+     * @param maxBytes max estimated size of all the entries.
+     * @param ttlMs age after which an entry is stale.
+     * @param maxStaleMs age after which an entry is not served at all, unless it was read
+     * from the snapshot.
+     */
+    public CatalogResultCache(int maxBytes, long ttlMs, long maxStaleMs) {
+        mTtlMs = ttlMs;
+        mMaxStaleMs = maxStaleMs;
+        mCache = new LruCache<String, Entry>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Entry value) {
+                return value.bytes;
+            }
+        };
+    }
+
+    /**
+     * Key used for a search keyword: trimmed, lower case, with single spaces.
+     */
+    public static String normalizeQuery(String query) {
+        if (query == null) {
+            return "";
+        }
+        return query.trim().replaceAll("\\s+", " ").toLowerCase(Locale.US);
+    }
+
+    /**
+     * @param query a normalized query.
+     * @return the cached catalog, possibly stale, or null. A catalog read from the snapshot is
+     * returned whatever its age.
+     */
+    public Entry get(String query) {
+        Entry entry = mCache.get(query);
+        if (entry != null && !entry.fromSnapshot
+                && System.currentTimeMillis() - entry.fetchedAt > mMaxStaleMs) {
+            mCache.remove(query);
+            entry = null;
+        }
+        if (entry == null) {
+            mMisses.incrementAndGet();
+        } else if (entry.isStale()) {
+            mStaleHits.incrementAndGet();
+        } else {
+            mHits.incrementAndGet();
+        }
+        return entry;
+    }
+
+    /**
+     * @param query a normalized query.
+     * @param tracks the catalog fetched for it; no rows must be added afterwards.
+     * @param fetchedAt wall clock time at which the catalog was fetched.
+     * @param fromSnapshot true if the catalog was read from the on disk snapshot.
+     */
+    public void put(String query, TrackStore tracks, long fetchedAt,
+                    boolean fromSnapshot) {
+        mCache.put(query, new Entry(tracks, fetchedAt, fromSnapshot));
+    }
+
+    /**
+     * @return hit, stale hit, miss and eviction counters, for logging.
+     */
+    public String getStats() {
+        return "hits=" + mHits + " staleHits=" + mStaleHits + " misses=" + mMisses
+                + " evictions=" + mCache.evictionCount() + " size=" + mCache.size() / 1024
+                + "KB/" + mCache.maxSize() / 1024 + "KB";
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.model;
+
+import android.annotation.TargetApi;
+import android.media.MediaMetadata;
+import android.os.Build;
+import android.os.SystemClock;
+
+import com.example.android.uamp.utils.LogHelper;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collection;
+
+/**
+ * Compact, versioned binary snapshot of the music catalog.
+ *
+ * The snapshot is written after every successful network load and memory-mapped on the next
+ * cold start, so the browse tree can be served before the network answers. The layout is:
+ *
+ * <pre>
+ *   int magic | int version | long savedAt | length-prefixed UTF-8 query | int trackCount
+ *   trackCount * (8 length-prefixed UTF-8 strings, 3 longs)
+ * </pre>
+ *
+ * Files with an unknown magic or version are ignored, so bumping {@link #VERSION} is enough to
+ * invalidate snapshots written by older builds.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public final class CatalogSnapshot {
+
+    private static final String TAG = LogHelper.makeLogTag(CatalogSnapshot.class);
+
+    private static final String FILE_NAME = "catalog.snapshot";
+    private static final int MAGIC = 0x55414d50; // "UAMP"
+    private static final int VERSION = 4; // 3: music IDs are TrackIds, 4: track origin
+    private static final int NULL_STRING = -1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // String and long fields, in the order they are stored for each track.
+    private static final String[] STRING_KEYS = {
+            MediaMetadata.METADATA_KEY_MEDIA_ID,
+            MusicProvider.CUSTOM_METADATA_TRACK_SOURCE,
+            MediaMetadata.METADATA_KEY_ALBUM,
+            MediaMetadata.METADATA_KEY_ARTIST,
+            MediaMetadata.METADATA_KEY_GENRE,
+            MediaMetadata.METADATA_KEY_ALBUM_ART_URI,
+            MediaMetadata.METADATA_KEY_TITLE,
+            MusicProvider.CUSTOM_METADATA_TRACK_ORIGIN
+    };
+    private static final String[] LONG_KEYS = {
+            MediaMetadata.METADATA_KEY_DURATION,
+            MediaMetadata.METADATA_KEY_TRACK_NUMBER,
+            MediaMetadata.METADATA_KEY_NUM_TRACKS
+    };
+
+    private final String mQuery;
+    private final TrackStore mTracks;
+    private final long mSavedAt;
+    private final long mLoadTimeMs;
+
+    private CatalogSnapshot(String query, TrackStore tracks, long savedAt,
+                            long loadTimeMs) {
+        mQuery = query;
+        mTracks = tracks;
+        mSavedAt = savedAt;
+        mLoadTimeMs = loadTimeMs;
+    }
+
+    /**
+     * @return the normalized search keyword the catalog was fetched for.
+     */
+    public String getQuery() {
+        return mQuery;
+    }
+
+    /**
+     * @return the tracks stored in the snapshot, in the order they were written.
+     */
+    public TrackStore getTracks() {
+        return mTracks;
+    }
+
+    /**
+     * @return wall clock time (in ms since epoch) at which the snapshot was written.
+     */
+    public long getSavedAt() {
+        return mSavedAt;
+    }
+
+    /**
+     * @return how long it took to map and decode the snapshot, in milliseconds.
+     */
+    public long getLoadTimeMs() {
+        return mLoadTimeMs;
+    }
+
+    /**
+     * Memory-map and decode the snapshot stored in the given directory.
+     *
+     * @param dir directory the snapshot was written to.
+     * @return the decoded snapshot, or null if there is no usable snapshot.
+     */
+    public static CatalogSnapshot load(File dir) {
+        File file = new File(dir, FILE_NAME);
+        if (!file.isFile()) {
+            return null;
+        }
+        long start = SystemClock.elapsedRealtime();
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                LogHelper.w(TAG, "Ignoring snapshot with unknown format: ", file);
+                return null;
+            }
+            long savedAt = buffer.getLong();
+            byte[] scratch = new byte[256];
+            String query = readString(buffer, scratch);
+            int count = buffer.getInt();
+            if (query == null || count < 0) {
+                throw new IOException("Corrupt snapshot header");
+            }
+            TrackStore tracks = new TrackStore();
+            for (int i = 0; i < count; i++) {
+                // Straight to the columns, in the order of STRING_KEYS and LONG_KEYS.
+                long id = TrackId.parse(readString(buffer, scratch));
+                String source = readString(buffer, scratch);
+                String album = readString(buffer, scratch);
+                String artist = readString(buffer, scratch);
+                String genre = readString(buffer, scratch);
+                String artUri = readString(buffer, scratch);
+                String title = readString(buffer, scratch);
+                String origin = readString(buffer, scratch);
+                long duration = buffer.getLong();
+                long trackNumber = buffer.getLong();
+                long likes = buffer.getLong();
+                tracks.add(id, source, title, artUri, artist, album, genre, origin, duration,
+                        trackNumber, likes);
+            }
+            long loadTime = SystemClock.elapsedRealtime() - start;
+            LogHelper.d(TAG, "Loaded ", count, " tracks from snapshot in ", loadTime, "ms");
+            return new CatalogSnapshot(query, tracks, savedAt, loadTime);
+        } catch (IOException | RuntimeException e) {
+            // A truncated or corrupt file: it is overwritten by the next save.
+            LogHelper.w(TAG, e, "Could not read catalog snapshot");
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the given tracks as a new snapshot. The snapshot is first written to a temporary
+     * file and then renamed over the previous one, so a crash while saving never leaves a
+     * truncated snapshot behind.
+     *
+     * This does disk I/O and must not be called from the main thread. Saves to the same
+     * directory share the temporary file, so the caller runs them one at a time.
+     *
+     * @param dir directory to write the snapshot to.
+     * @param query normalized search keyword the tracks were fetched for.
+     * @param tracks tracks to store.
+     */
+    public static void save(File dir, String query, Collection<MediaMetadata> tracks) {
+        File file = new File(dir, FILE_NAME);
+        File tmp = new File(dir, FILE_NAME + ".tmp");
+        DataOutputStream out = null;
+        try {
+            FileOutputStream fos = new FileOutputStream(tmp);
+            out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            writeString(out, query);
+            out.writeInt(tracks.size());
+            for (MediaMetadata track : tracks) {
+                for (String key : STRING_KEYS) {
+                    writeString(out, track.getString(key));
+                }
+                for (String key : LONG_KEYS) {
+                    out.writeLong(track.getLong(key));
+                }
+            }
+            out.flush();
+            fos.getFD().sync();
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                LogHelper.w(TAG, "Could not rename catalog snapshot to ", file);
+                return;
+            }
+            LogHelper.d(TAG, "Saved ", tracks.size(), " tracks to snapshot ", file);
+        } catch (IOException e) {
+            LogHelper.w(TAG, e, "Could not write catalog snapshot");
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private static String readString(MappedByteBuffer buffer, byte[] scratch)
+            throws IOException {
+        int length = buffer.getInt();
+        if (length == NULL_STRING) {
+            return null;
+        }
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Corrupt string length " + length);
+        }
+        byte[] bytes = length > scratch.length ? new byte[length] : scratch;
+        buffer.get(bytes, 0, length);
+        return new String(bytes, 0, length, UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(NULL_STRING);
+        } else {
+            byte[] bytes = value.getBytes(UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.model;
+
+import android.media.MediaMetadata;
+
+import com.squareup.okhttp.Call;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A place tracks of the catalog come from, like a web API or a folder on the device.
+ *
+ * {@link MusicProvider} fetches all its sources in parallel and merges their tracks into a
+ * single catalog as they arrive, so a slow source does not hold back the others.
+ */
+public interface CatalogSource {
+
+    /**
+     * Receives the tracks of a source as they are fetched. May be called from any thread.
+     */
+    interface Sink {
+        void onTracks(List<MediaMetadata> tracks);
+
+        /**
+         * Called before a network request is sent, so the load can cancel it.
+         */
+        void onRequestStarted(Call call);
+
+        /**
+         * @return true if the load was canceled and the source should stop.
+         */
+        boolean isCancelled();
+    }
+
+    /**
+     * What a {@link #refresh} found.
+     */
+    enum Change {
+        /** Nothing changed since the last fetch, no tracks were reported. */
+        NONE,
+        /** All the tracks of the source were reported; the ones that were not are gone. */
+        FULL,
+        /** Only the tracks added or changed since the last fetch were reported. */
+        INCREMENTAL
+    }
+
+    /**
+     * @return a short name, for logging. Stored as the
+     * {@link MusicProvider#CUSTOM_METADATA_TRACK_ORIGIN} of the tracks of the source.
+     */
+    String getName();
+
+    /**
+     * Fetch the tracks matching a search keyword, blocking until they were all reported.
+     * Called on a background thread.
+     *
+     * @param query normalized search keyword, empty for all tracks.
+     * @throws IOException if the source could not be read; the tracks already reported are
+     *                     kept.
+     */
+    void fetch(String query, Sink sink) throws IOException;
+
+    /**
+     * Report what changed since the last fetch or refresh of the same keyword, using
+     * conditional requests where the server supports them, so an unchanged source costs a
+     * single request and no parsing. Without a previous fetch, all the tracks are reported.
+     * Called on a background thread.
+     *
+     * @param query normalized search keyword, empty for all tracks.
+     * @throws IOException if the source could not be read; its tracks are left as they were.
+     */
+    Change refresh(String query, Sink sink) throws IOException;
+}
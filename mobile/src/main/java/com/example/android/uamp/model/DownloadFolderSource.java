@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.model;
+
+import android.annotation.TargetApi;
+import android.media.MediaMetadata;
+import android.media.MediaMetadataRetriever;
+import android.os.Build;
+
+import com.example.android.uamp.save.DownloadIndex;
+import com.example.android.uamp.utils.LogHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static com.example.android.uamp.model.MusicProvider.CUSTOM_METADATA_TRACK_ORIGIN;
+import static com.example.android.uamp.model.MusicProvider.CUSTOM_METADATA_TRACK_SOURCE;
+
+/**
+ * Songs saved to the download folder, read from the tags of the files. Files without tags are
+ * listed under their file name.
+ *
+ * A file downloaded from the catalog is reported under the {@link TrackId} of the track it was
+ * saved for, found in the {@link DownloadIndex}, so it merges with the listing of the track
+ * when both are in the catalog. Other files get an id derived from their path.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class DownloadFolderSource implements CatalogSource {
+
+    private static final String TAG = LogHelper.makeLogTag(DownloadFolderSource.class);
+
+    // Also the origin of the tracks, see MusicProvider#CUSTOM_METADATA_TRACK_ORIGIN.
+    static final String NAME = "downloads";
+
+    private static final String[] AUDIO_EXTENSIONS = {
+            ".mp3", ".m4a", ".aac", ".ogg", ".wav", ".flac"
+    };
+
+    // Reading tags is slow, so matching files are reported a few at a time.
+    private static final int BATCH_SIZE = 10;
+
+    private final File mDir;
+    private final DownloadIndex mDownloads;
+
+    // Fingerprint of the files listed by the last scan, and its keyword. Guarded by this.
+    private String mScannedQuery;
+    private long mFingerprint;
+
+    public DownloadFolderSource(File dir, DownloadIndex downloads) {
+        mDir = dir;
+        mDownloads = downloads;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void fetch(String query, Sink sink) throws IOException {
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            LogHelper.d(TAG, "No download folder at ", mDir);
+            return;
+        }
+        scan(files, query, sink);
+    }
+
+    @Override
+    public Change refresh(String query, Sink sink) throws IOException {
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            files = new File[0];
+        }
+        synchronized (this) {
+            // Reading tags is the slow part, so the folder is only scanned again when a file
+            // was added, removed or rewritten.
+            if (query.equals(mScannedQuery) && fingerprint(files) == mFingerprint) {
+                return Change.NONE;
+            }
+        }
+        scan(files, query, sink);
+        return Change.FULL;
+    }
+
+    private void scan(File[] files, String query, Sink sink) throws IOException {
+        Map<String, Long> trackIds;
+        try {
+            trackIds = mDownloads.getTrackIdsByPath();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        }
+        List<MediaMetadata> batch = new ArrayList<>(BATCH_SIZE);
+        for (File file : files) {
+            if (sink.isCancelled()) {
+                throw new IOException("Canceled");
+            }
+            if (!file.isFile() || !isAudioFile(file.getName())) {
+                continue;
+            }
+            MediaMetadata track = readTrack(file, trackIds.get(file.getAbsolutePath()));
+            if (!SearchIndex.matches(track, query)) {
+                continue;
+            }
+            batch.add(track);
+            if (batch.size() == BATCH_SIZE) {
+                sink.onTracks(batch);
+                batch = new ArrayList<>(BATCH_SIZE);
+            }
+        }
+        if (!batch.isEmpty()) {
+            sink.onTracks(batch);
+        }
+        synchronized (this) {
+            mScannedQuery = query;
+            mFingerprint = fingerprint(files);
+        }
+    }
+
+    /**
+     * Combine the name, size and modification time of the audio files, in any order.
+     */
+    private static long fingerprint(File[] files) {
+        long fingerprint = 0;
+        for (File file : files) {
+            if (file.isFile() && isAudioFile(file.getName())) {
+                long hash = file.getName().hashCode();
+                hash = 31 * hash + file.length();
+                hash = 31 * hash + file.lastModified();
+                fingerprint += hash * 0x9e3779b97f4a7c15L;
+            }
+        }
+        return fingerprint;
+    }
+
+    private static boolean isAudioFile(String name) {
+        String lowerCase = name.toLowerCase(Locale.US);
+        for (String extension : AUDIO_EXTENSIONS) {
+            if (lowerCase.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param trackId the track the file was downloaded for, or null.
+     */
+    private static MediaMetadata readTrack(File file, Long trackId) {
+        String path = file.getAbsolutePath();
+        String name = file.getName();
+        String title = name.substring(0, name.lastIndexOf('.'));
+        String album = null;
+        String artist = null;
+        String genre = null;
+        long duration = 0;
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(path);
+            title = orDefault(retriever.extractMetadata(
+                    MediaMetadataRetriever.METADATA_KEY_TITLE), title);
+            album = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ALBUM);
+            artist = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ARTIST);
+            genre = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_GENRE);
+            String durationMs = retriever.extractMetadata(
+                    MediaMetadataRetriever.METADATA_KEY_DURATION);
+            if (durationMs != null) {
+                duration = Long.parseLong(durationMs);
+            }
+        } catch (RuntimeException e) {
+            // Unreadable tags, the file is still listed under its name.
+            LogHelper.w(TAG, "Could not read tags of ", path, ": ", e);
+        } finally {
+            retriever.release();
+        }
+
+        return new MediaMetadata.Builder()
+                .putString(MediaMetadata.METADATA_KEY_MEDIA_ID,
+                        Long.toString(trackId != null ? trackId : TrackId.fromSource(path)))
+                .putString(CUSTOM_METADATA_TRACK_SOURCE, path)
+                .putString(CUSTOM_METADATA_TRACK_ORIGIN, NAME)
+                .putString(MediaMetadata.METADATA_KEY_ALBUM, orDefault(album, title))
+                .putString(MediaMetadata.METADATA_KEY_ARTIST, orDefault(artist, title))
+                .putLong(MediaMetadata.METADATA_KEY_DURATION, duration)
+                .putString(MediaMetadata.METADATA_KEY_GENRE, genre)
+                .putString(MediaMetadata.METADATA_KEY_TITLE, title)
+                .putLong(MediaMetadata.METADATA_KEY_TRACK_NUMBER, 1)
+                .putLong(MediaMetadata.METADATA_KEY_NUM_TRACKS, 1)
+                .build();
+    }
+
+    private static String orDefault(String value, String defaultValue) {
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.model;
+
+import android.annotation.TargetApi;
+import android.media.MediaMetadata;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Typo tolerant index over the distinct values of one metadata field, used when a voice search
+ * ("enia", "madona") has no exact match.
+ *
+ * Candidates are the values sharing the most trigrams with the query; only those are verified
+ * with an edit distance bounded by the query length. Trigrams shared by a large part of the
+ * values are left out of the count, so the cost of a lookup does not grow with the size of the
+ * catalog. Each value is compared as a whole and, for single word queries, word by word. The
+ * index is immutable and built once per catalog load.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class FuzzyIndex {
+
+    // Max number of candidate values verified with the edit distance.
+    private static final int MAX_CANDIDATES = 64;
+    // Trigrams of more values than this, like the padded first letter of common words, tell
+    // little about a value and are not counted.
+    private static final int MAX_POSTINGS = 2048;
+
+    private static final FuzzyIndex EMPTY = new FuzzyIndex(new String[0],
+            new List[0], new HashMap<String, int[]>());
+
+    private final String[] mValues;
+    private final List<MutableMediaMetadata>[] mTracks;
+    private final Map<String, int[]> mTrigrams;
+
+    private FuzzyIndex(String[] values, List<MutableMediaMetadata>[] tracks,
+                       Map<String, int[]> trigrams) {
+        mValues = values;
+        mTracks = tracks;
+        mTrigrams = trigrams;
+    }
+
+    /**
+     * A track matched by {@link #search}. Lower distances are better.
+     */
+    public static final class Match {
+        public final MutableMediaMetadata track;
+        public final int distance;
+
+        Match(MutableMediaMetadata track, int distance) {
+            this.track = track;
+            this.distance = distance;
+        }
+    }
+
+    /**
+     * Orders matches by distance, then by popularity.
+     */
+    public static final Comparator<Match> BEST_FIRST = new Comparator<Match>() {
+        @Override
+        public int compare(Match lhs, Match rhs) {
+            if (lhs.distance != rhs.distance) {
+                return lhs.distance < rhs.distance ? -1 : 1;
+            }
+            long lhsLikes = lhs.track.getLong(MediaMetadata.METADATA_KEY_NUM_TRACKS);
+            long rhsLikes = rhs.track.getLong(MediaMetadata.METADATA_KEY_NUM_TRACKS);
+            return lhsLikes == rhsLikes ? 0 : (lhsLikes > rhsLikes ? -1 : 1);
+        }
+    };
+
+    /**
+     * Index the distinct values of metadataField among the given tracks.
+     */
+    @SuppressWarnings("unchecked")
+    public static FuzzyIndex build(Collection<MutableMediaMetadata> tracks, String metadataField) {
+        Map<String, Integer> valueIds = new HashMap<>();
+        List<String> values = new ArrayList<>();
+        List<List<MutableMediaMetadata>> tracksByValue = new ArrayList<>();
+        for (MutableMediaMetadata track : tracks) {
+            String value = track.getString(metadataField);
+            if (value == null) {
+                continue;
+            }
+            String key = toKey(value);
+            if (key.isEmpty()) {
+                continue;
+            }
+            Integer id = valueIds.get(key);
+            if (id == null) {
+                id = values.size();
+                valueIds.put(key, id);
+                values.add(key);
+                tracksByValue.add(new ArrayList<MutableMediaMetadata>(1));
+            }
+            tracksByValue.get(id).add(track);
+        }
+        if (values.isEmpty()) {
+            return EMPTY;
+        }
+
+        Map<String, List<Integer>> postings = new HashMap<>();
+        for (int id = 0; id < values.size(); id++) {
+            for (String trigram : trigrams(values.get(id))) {
+                List<Integer> list = postings.get(trigram);
+                if (list == null) {
+                    list = new ArrayList<>();
+                    postings.put(trigram, list);
+                }
+                if (list.isEmpty() || list.get(list.size() - 1) != id) {
+                    list.add(id);
+                }
+            }
+        }
+        Map<String, int[]> trigrams = new HashMap<>(postings.size() * 4 / 3 + 1);
+        for (Map.Entry<String, List<Integer>> entry : postings.entrySet()) {
+            List<Integer> list = entry.getValue();
+            int[] ids = new int[list.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = list.get(i);
+            }
+            trigrams.put(entry.getKey(), ids);
+        }
+        return new FuzzyIndex(values.toArray(new String[values.size()]),
+                tracksByValue.toArray(new List[tracksByValue.size()]), trigrams);
+    }
+
+    /**
+     * @return the empty index, used before a catalog is loaded.
+     */
+    public static FuzzyIndex empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Find the tracks whose value is within a few edits of the query.
+     *
+     * @param query the (possibly misspelled) query.
+     * @param deadlineNanos {@link System#nanoTime()} after which verification stops and the
+     *                      matches found so far are returned.
+     * @return matches, best first.
+     */
+    public List<Match> search(String query, long deadlineNanos) {
+        String key = toKey(query);
+        if (key.isEmpty() || mValues.length == 0) {
+            return Collections.emptyList();
+        }
+        int maxDistance = maxDistance(key);
+
+        // Candidate generation: count shared trigrams per value, for the rarer trigrams.
+        List<int[]> postings = new ArrayList<>();
+        int[] rarest = null;
+        int total = 0;
+        for (String trigram : trigrams(key)) {
+            int[] ids = mTrigrams.get(trigram);
+            if (ids == null) {
+                continue;
+            }
+            if (ids.length > MAX_POSTINGS) {
+                if (rarest == null || ids.length < rarest.length) {
+                    rarest = ids;
+                }
+                continue;
+            }
+            postings.add(ids);
+            total += ids.length;
+        }
+        if (postings.isEmpty() && rarest != null) {
+            // Only common trigrams: count the first values of the rarest one.
+            postings.add(rarest);
+            total = MAX_POSTINGS;
+        }
+        // Only the values sharing the most trigrams with the query are verified.
+        int[] candidates = selectCandidates(postings, total, deadlineNanos);
+
+        boolean singleWord = key.indexOf(' ') < 0;
+        List<Match> matches = new ArrayList<>();
+        for (int id : candidates) {
+            if (System.nanoTime() > deadlineNanos) {
+                break;
+            }
+            String value = mValues[id];
+            int distance = boundedDistance(key, value, maxDistance);
+            if (singleWord && distance > maxDistance) {
+                // Single word queries may name one word of a longer value.
+                for (String word : value.split(" ")) {
+                    distance = Math.min(distance, boundedDistance(key, word, maxDistance));
+                }
+            }
+            if (distance <= maxDistance) {
+                for (MutableMediaMetadata track : mTracks[id]) {
+                    matches.add(new Match(track, distance));
+                }
+            }
+        }
+        Collections.sort(matches, BEST_FIRST);
+        return matches;
+    }
+
+    /**
+     * @return the ids of the values found most often in the given posting lists, most often
+     * first. Counting stops at the deadline.
+     */
+    private static int[] selectCandidates(List<int[]> postings, int total, long deadlineNanos) {
+        // Open addressing table of the counted ids and their counts, at most half full.
+        int capacity = 16;
+        while (capacity < total * 2) {
+            capacity <<= 1;
+        }
+        int mask = capacity - 1;
+        int[] ids = new int[capacity];
+        int[] counts = new int[capacity];
+        Arrays.fill(ids, -1);
+        for (int[] list : postings) {
+            if (System.nanoTime() > deadlineNanos) {
+                break;
+            }
+            int end = Math.min(list.length, MAX_POSTINGS);
+            for (int i = 0; i < end; i++) {
+                int id = list[i];
+                int slot = (id * 0x9e3779b1) & mask;
+                while (ids[slot] != id && ids[slot] != -1) {
+                    slot = (slot + 1) & mask;
+                }
+                ids[slot] = id;
+                counts[slot]++;
+            }
+        }
+
+        // Bounded min-heap of the best candidates, the least counted at the root.
+        int[] heapIds = new int[MAX_CANDIDATES];
+        int[] heapCounts = new int[MAX_CANDIDATES];
+        int size = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            if (ids[slot] == -1) {
+                continue;
+            }
+            if (size < MAX_CANDIDATES) {
+                int i = size++;
+                while (i > 0 && heapCounts[(i - 1) / 2] > counts[slot]) {
+                    heapIds[i] = heapIds[(i - 1) / 2];
+                    heapCounts[i] = heapCounts[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                heapIds[i] = ids[slot];
+                heapCounts[i] = counts[slot];
+            } else if (counts[slot] > heapCounts[0]) {
+                siftDown(heapIds, heapCounts, size, ids[slot], counts[slot]);
+            }
+        }
+        // Take the least counted out first, filling the result from the end.
+        int[] result = new int[size];
+        while (size > 0) {
+            result[size - 1] = heapIds[0];
+            size--;
+            siftDown(heapIds, heapCounts, size, heapIds[size], heapCounts[size]);
+        }
+        return result;
+    }
+
+    /**
+     * Put an id at the root of the heap, in place of the root, and move it down to its place.
+     */
+    private static void siftDown(int[] heapIds, int[] heapCounts, int size, int id, int count) {
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heapCounts[child + 1] < heapCounts[child]) {
+                child++;
+            }
+            if (heapCounts[child] >= count) {
+                break;
+            }
+            heapIds[i] = heapIds[child];
+            heapCounts[i] = heapCounts[child];
+            i = child;
+        }
+        if (size > 0) {
+            heapIds[i] = id;
+            heapCounts[i] = count;
+        }
+    }
+
+    /**
+     * Number of edits tolerated for a query: none for very short queries, then one edit per
+     * four characters, up to three.
+     */
+    private static int maxDistance(String key) {
+        if (key.length() <= 2) {
+            return 0;
+        }
+        return Math.min(3, Math.max(1, key.length() / 4));
+    }
+
+    private static String toKey(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        for (String token : SearchIndex.tokenize(value)) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(token);
+        }
+        return sb.toString();
+    }
+
+    private static List<String> trigrams(String key) {
+        String padded = "  " + key + " ";
+        List<String> result = new ArrayList<>(padded.length());
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            result.add(padded.substring(i, i + 3));
+        }
+        return result;
+    }
+
+    /**
+     * Levenshtein distance between a and b, or max + 1 as soon as it is known to exceed max.
+     */
+    static int boundedDistance(String a, String b, int max) {
+        if (Math.abs(a.length() - b.length()) > max) {
+            return max + 1;
+        }
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            char ca = a.charAt(i - 1);
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = ca == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1),
+                        previous[j - 1] + cost);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > max) {
+                return max + 1;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return Math.min(previous[b.length()], max + 1);
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.model;
+
+import android.annotation.TargetApi;
+import android.media.MediaMetadata;
+import android.os.Build;
+
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tracks grouped by genre, maintained incrementally.
+ *
+ * Each genre is an insertion ordered bucket, so adding, moving or removing a track is a hash
+ * map operation that keeps the order of the other tracks, and the genres are never rebuilt
+ * from the whole catalog. Readers never see the buckets: {@link #snapshot()} hands out
+ * immutable array views, which can be read without locking. A view costs the size of its
+ * genre to build, so only the genres changed since the previous snapshot are rebuilt, once
+ * however many of their tracks changed. Views resolve the current
+ * {@link MutableMediaMetadata#getMetadata()} on access, so metadata updates that keep the
+ * genre (like album art being fetched) need no new view at all.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class GenreIndex {
+
+    private static final String UNKNOWN_GENRE = "Mix Genere";
+
+    // Guarded by this.
+    private final Map<String, LinkedHashMap<Long, MutableMediaMetadata>> mBuckets =
+            new HashMap<>();
+    private final Map<MutableMediaMetadata, String> mGenreByTrack = new HashMap<>();
+
+    private final Map<String, List<MediaMetadata>> mViews = new HashMap<>();
+    // Genres changed since the last snapshot.
+    private final Set<String> mChangedGenres = new HashSet<>();
+
+    /**
+     * @return the genre a track is listed under.
+     */
+    public static String getGenreKey(MediaMetadata metadata) {
+        return toGenreKey(metadata.getString(MediaMetadata.METADATA_KEY_GENRE));//METADATA_KEY_YEAR--METADATA_KEY_GENRE
+    }
+
+    /**
+     * @return the genre a track is listed under.
+     */
+    public static String getGenreKey(MutableMediaMetadata track) {
+        return toGenreKey(track.getString(MediaMetadata.METADATA_KEY_GENRE));
+    }
+
+    private static String toGenreKey(String genre) {
+        if (genre == null || genre.length() <= 1) {
+            genre = UNKNOWN_GENRE;
+        }
+        return genre;
+    }
+
+    /**
+     * @return a copy of the genres having at least one track.
+     */
+    public synchronized Set<String> getGenres() {
+        return new HashSet<>(mBuckets.keySet());
+    }
+
+    /**
+     * @return the tracks of every genre having at least one, as immutable lists. Later changes
+     * of the index do not affect the result.
+     */
+    public synchronized Map<String, List<MediaMetadata>> snapshot() {
+        publish(mChangedGenres);
+        mChangedGenres.clear();
+        return Collections.unmodifiableMap(new HashMap<>(mViews));
+    }
+
+    /**
+     * Append tracks to their genre.
+     *
+     * @return the genres that changed.
+     */
+    public synchronized Set<String> addAll(Iterable<MutableMediaMetadata> tracks) {
+        Set<String> touched = new HashSet<>();
+        for (MutableMediaMetadata track : tracks) {
+            String genre = getGenreKey(track);
+            if (mGenreByTrack.containsKey(track)) {
+                continue;
+            }
+            bucket(genre).put(track.id, track);
+            mGenreByTrack.put(track, genre);
+            touched.add(genre);
+        }
+        mChangedGenres.addAll(touched);
+        return touched;
+    }
+
+    /**
+     * Replace a track by a new holder of its changed metadata, in the bucket of its current
+     * genre. The track keeps its place if the genre is the same.
+     *
+     * @return the genres whose list changed, empty if the track was not indexed.
+     */
+    public synchronized Set<String> replace(MutableMediaMetadata track,
+                                            MutableMediaMetadata replacement) {
+        String oldGenre = mGenreByTrack.remove(track);
+        Set<String> touched = new HashSet<>();
+        if (oldGenre == null) {
+            return touched;
+        }
+        String newGenre = getGenreKey(replacement);
+        if (!oldGenre.equals(newGenre)) {
+            LinkedHashMap<Long, MutableMediaMetadata> oldBucket = mBuckets.get(oldGenre);
+            oldBucket.remove(track.id);
+            if (oldBucket.isEmpty()) {
+                mBuckets.remove(oldGenre);
+            }
+        }
+        bucket(newGenre).put(replacement.id, replacement);
+        mGenreByTrack.put(replacement, newGenre);
+        touched.add(oldGenre);
+        touched.add(newGenre);
+        mChangedGenres.addAll(touched);
+        return touched;
+    }
+
+    /**
+     * Remove a track from its genre.
+     *
+     * @return the genres that changed, empty if the track was not indexed.
+     */
+    public synchronized Set<String> remove(MutableMediaMetadata track) {
+        String genre = mGenreByTrack.remove(track);
+        Set<String> touched = new HashSet<>();
+        if (genre == null) {
+            return touched;
+        }
+        LinkedHashMap<Long, MutableMediaMetadata> bucket = mBuckets.get(genre);
+        bucket.remove(track.id);
+        if (bucket.isEmpty()) {
+            mBuckets.remove(genre);
+        }
+        touched.add(genre);
+        mChangedGenres.addAll(touched);
+        return touched;
+    }
+
+    private LinkedHashMap<Long, MutableMediaMetadata> bucket(String genre) {
+        LinkedHashMap<Long, MutableMediaMetadata> bucket = mBuckets.get(genre);
+        if (bucket == null) {
+            bucket = new LinkedHashMap<>();
+            mBuckets.put(genre, bucket);
+        }
+        return bucket;
+    }
+
+    private void publish(Set<String> genres) {
+        for (String genre : genres) {
+            LinkedHashMap<Long, MutableMediaMetadata> bucket = mBuckets.get(genre);
+            if (bucket == null) {
+                mViews.remove(genre);
+            } else {
+                mViews.put(genre, new GenreView(
+                        bucket.values().toArray(new MutableMediaMetadata[bucket.size()])));
+            }
+        }
+    }
+
+    /**
+     * Read only list over a frozen array of tracks.
+     */
+    private static final class GenreView extends AbstractList<MediaMetadata> {
+        private final MutableMediaMetadata[] mTracks;
+
+        GenreView(MutableMediaMetadata[] tracks) {
+            mTracks = tracks;
+        }
+
+        @Override
+        public MediaMetadata get(int location) {
+            return mTracks[location].getMetadata();
+        }
+
+        @Override
+        public int size() {
+            return mTracks.length;
+        }
+    }
+}
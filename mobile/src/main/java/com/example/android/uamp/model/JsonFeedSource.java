@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.model;
+
+import android.annotation.TargetApi;
+import android.media.MediaMetadata;
+import android.os.Build;
+
+import com.example.android.uamp.utils.HttpHelper;
+import com.example.android.uamp.utils.LogHelper;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.squareup.okhttp.Call;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.example.android.uamp.model.MusicProvider.CUSTOM_METADATA_TRACK_ORIGIN;
+import static com.example.android.uamp.model.MusicProvider.CUSTOM_METADATA_TRACK_SOURCE;
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
+
+/**
+ * Tracks of a static music.json feed, like the sample catalog of the original uAmp. The feed
+ * is not searchable, so its tracks are matched against the keyword locally.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class JsonFeedSource implements CatalogSource {
+
+    private static final String TAG = LogHelper.makeLogTag(JsonFeedSource.class);
+
+    private static final String NAME = "feed";
+
+    private static final String JSON_MUSIC = "music";
+    private static final String JSON_TITLE = "title";
+    private static final String JSON_ALBUM = "album";
+    private static final String JSON_ARTIST = "artist";
+    private static final String JSON_GENRE = "genre";
+    private static final String JSON_SOURCE = "source";
+    private static final String JSON_IMAGE = "image";
+    private static final String JSON_TRACK_NUMBER = "trackNumber";
+    private static final String JSON_TOTAL_TRACK_COUNT = "totalTrackCount";
+    private static final String JSON_DURATION = "duration";
+
+    private final String mUrl;
+
+    // Validators of the last response, and the keyword its tracks were matched against.
+    // Guarded by this.
+    private String mValidatedQuery;
+    private String mETag;
+    private String mLastModified;
+
+    /**
+     * @param url location of the music.json file; relative track and image paths are
+     *            resolved against it.
+     */
+    public JsonFeedSource(String url) {
+        mUrl = url;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void fetch(String query, Sink sink) throws IOException {
+        load(query, sink, false);
+    }
+
+    @Override
+    public Change refresh(String query, Sink sink) throws IOException {
+        return load(query, sink, true);
+    }
+
+    private Change load(String query, Sink sink, boolean conditional) throws IOException {
+        Request.Builder request = new Request.Builder().url(mUrl);
+        synchronized (this) {
+            // Conditional headers also make OkHttp skip its cache, so a 304 reaches us as is.
+            if (conditional && query.equals(mValidatedQuery)) {
+                if (mETag != null) {
+                    request.header("If-None-Match", mETag);
+                }
+                if (mLastModified != null) {
+                    request.header("If-Modified-Since", mLastModified);
+                }
+            }
+        }
+        Call call = HttpHelper.getCatalogClient().newCall(request.build());
+        sink.onRequestStarted(call);
+        Response response = call.execute();
+        if (response.code() == HTTP_NOT_MODIFIED) {
+            response.body().close();
+            LogHelper.d(TAG, mUrl, " not modified");
+            return Change.NONE;
+        }
+        if (!response.isSuccessful()) {
+            response.body().close();
+            throw new IOException("Could not retrieve " + mUrl + ", HTTP " + response.code());
+        }
+
+        String basePath = mUrl.substring(0, mUrl.lastIndexOf('/') + 1);
+        List<MediaMetadata> tracks = new ArrayList<>();
+        JsonReader reader = new JsonReader(response.body().charStream());
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!JSON_MUSIC.equals(reader.nextName())) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (sink.isCancelled()) {
+                        throw new IOException("Canceled");
+                    }
+                    MediaMetadata track = readTrack(reader, basePath);
+                    if (SearchIndex.matches(track, query)) {
+                        tracks.add(track);
+                    }
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        LogHelper.d(TAG, tracks.size(), " tracks of ", mUrl, " match '", query, "'");
+        if (!tracks.isEmpty()) {
+            sink.onTracks(tracks);
+        }
+        synchronized (this) {
+            mValidatedQuery = query;
+            mETag = response.header("ETag");
+            mLastModified = response.header("Last-Modified");
+        }
+        return Change.FULL;
+    }
+
+    private static MediaMetadata readTrack(JsonReader reader, String basePath)
+            throws IOException {
+        String title = null;
+        String album = null;
+        String artist = null;
+        String genre = null;
+        String source = "";
+        String iconUrl = "";
+        long trackNumber = 0;
+        long totalTrackCount = 0;
+        long duration = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+            } else if (JSON_TITLE.equals(name)) {
+                title = reader.nextString();
+            } else if (JSON_ALBUM.equals(name)) {
+                album = reader.nextString();
+            } else if (JSON_ARTIST.equals(name)) {
+                artist = reader.nextString();
+            } else if (JSON_GENRE.equals(name)) {
+                genre = reader.nextString();
+            } else if (JSON_SOURCE.equals(name)) {
+                source = reader.nextString();
+            } else if (JSON_IMAGE.equals(name)) {
+                iconUrl = reader.nextString();
+            } else if (JSON_TRACK_NUMBER.equals(name)) {
+                trackNumber = reader.nextLong();
+            } else if (JSON_TOTAL_TRACK_COUNT.equals(name)) {
+                totalTrackCount = reader.nextLong();
+            } else if (JSON_DURATION.equals(name)) {
+                duration = reader.nextLong() * 1000; // ms
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        // Media is stored relative to JSON file
+        if (!source.startsWith("http")) {
+            source = basePath + source;
+        }
+        if (!iconUrl.startsWith("http")) {
+            iconUrl = basePath + iconUrl;
+        }
+        // Since we don't have a unique ID in the server, we derive one from the music source.
+        long id = TrackId.fromSource(source);
+
+        return new MediaMetadata.Builder()
+                .putString(MediaMetadata.METADATA_KEY_MEDIA_ID, Long.toString(id))
+                .putString(CUSTOM_METADATA_TRACK_SOURCE, source)
+                .putString(CUSTOM_METADATA_TRACK_ORIGIN, NAME)
+                .putString(MediaMetadata.METADATA_KEY_ALBUM, album)
+                .putString(MediaMetadata.METADATA_KEY_ARTIST, artist)
+                .putLong(MediaMetadata.METADATA_KEY_DURATION, duration)
+                .putString(MediaMetadata.METADATA_KEY_GENRE, genre)
+                .putString(MediaMetadata.METADATA_KEY_ALBUM_ART_URI, iconUrl)
+                .putString(MediaMetadata.METADATA_KEY_TITLE, title)
+                .putLong(MediaMetadata.METADATA_KEY_TRACK_NUMBER, trackNumber)
+                .putLong(MediaMetadata.METADATA_KEY_NUM_TRACKS, totalTrackCount)
+                .build();
+    }
+}
@@ -17,103 +17,219 @@
 package com.example.android.uamp.model;
 
 import android.annotation.TargetApi;
+import android.content.Context;
 import android.media.MediaMetadata;
 import android.os.AsyncTask;
 import android.os.Build;
-import android.util.Log;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.text.TextUtils;
 
+import com.example.android.uamp.save.DownloadIndex;
+import com.example.android.uamp.save.MyDownloader;
 import com.example.android.uamp.ui.BaseActivity;
 import com.example.android.uamp.utils.LogHelper;
-import com.google.gson.annotations.SerializedName;
-import com.squareup.okhttp.Interceptor;
-import com.squareup.okhttp.OkHttpClient;
-import com.squareup.okhttp.Response;
+import com.example.android.uamp.utils.LongMap;
+import com.squareup.okhttp.Call;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.URL;
-import java.net.URLConnection;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-
-import retrofit.Call;
-import retrofit.GsonConverterFactory;
-import retrofit.Retrofit;
-import retrofit.http.GET;
-import retrofit.http.Query;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Utility class to get a list of MusicTrack's based on a server-side JSON
- * configuration.
+ * Utility class to get a list of MusicTrack's from the {@link CatalogSource}s of the app.
  */
 @TargetApi(Build.VERSION_CODES.LOLLIPOP)
 public class MusicProvider{
 
     private static final String TAG = LogHelper.makeLogTag(MusicProvider.class);
 
-    private static final String CATALOG_URL =
-            //"http://api.soundcloud.com/tracks.json?client_id=4f0b007dd6be94f1098f30bcd1e1a809&q=chicago&limit=50";
-            "http://api.soundcloud.com";
-    //"http://storage.googleapis.com/automotive-media/music.json";
+    private static final String MUSIC_FEED_URL =
+            "http://storage.googleapis.com/automotive-media/music.json";
+
+    // Time the callbacks of a catalog load wait for the first batch before failing.
+    private static final long LOAD_TIMEOUT_MS = 30 * 1000;
+
+    // Catalogs kept for recent search keywords: about 1.5KB per track, so a few searches.
+    private static final int RESULT_CACHE_MAX_BYTES = 1024 * 1024;
+    private static final long RESULT_CACHE_TTL_MS = 10 * 60 * 1000;
+    private static final long RESULT_CACHE_MAX_STALE_MS = 24 * 60 * 60 * 1000;
+
+    // Interval of the background refresh of the served catalog.
+    private static final long REFRESH_INTERVAL_MS = 15 * 60 * 1000;
+    // Longest delay before a loading catalog that did not double is published again.
+    private static final long PUBLISH_INTERVAL_MS = 1000;
+
+    // Number of tracks listed under the top tracks node.
+    private static final int TOP_TRACKS_LIMIT = 50;
+    // Number of tracks listed under the recently and most played nodes.
+    private static final int HISTORY_LIMIT = 50;
+
+    // Time a fuzzy search may spend verifying candidates, so voice queries stay responsive.
+    private static final long FUZZY_SEARCH_BUDGET_MS = 30;
+    // Fields compared to tell whether a refreshed track changed.
+    private static final String[] DELTA_STRING_KEYS = {
+            MusicProvider.CUSTOM_METADATA_TRACK_SOURCE,
+            MediaMetadata.METADATA_KEY_TITLE,
+            MediaMetadata.METADATA_KEY_ARTIST,
+            MediaMetadata.METADATA_KEY_ALBUM,
+            MediaMetadata.METADATA_KEY_GENRE,
+            MediaMetadata.METADATA_KEY_ALBUM_ART_URI
+    };
+    private static final String[] DELTA_LONG_KEYS = {
+            MediaMetadata.METADATA_KEY_DURATION,
+            MediaMetadata.METADATA_KEY_TRACK_NUMBER,
+            MediaMetadata.METADATA_KEY_NUM_TRACKS
+    };
+
+    private static final String[] FUZZY_FIELDS = {
+            MediaMetadata.METADATA_KEY_TITLE,
+            MediaMetadata.METADATA_KEY_ARTIST,
+            MediaMetadata.METADATA_KEY_ALBUM,
+            MediaMetadata.METADATA_KEY_GENRE
+    };
 
     public static final String CUSTOM_METADATA_TRACK_SOURCE = "__SOURCE__";
+    // Name of the CatalogSource a track came from.
+    public static final String CUSTOM_METADATA_TRACK_ORIGIN = "__ORIGIN__";
+
+    // The served catalog. Readers take the reference once and see a consistent version;
+    // writers, synchronized on this, change mBuilder and publish the next version.
+    private volatile Catalog mCatalog = Catalog.EMPTY;
+    // Guarded by this. The catalog being served, from which the next version is built.
+    private Catalog.Builder mBuilder = new Catalog.Builder(null);
+    private final CatalogResultCache mResultCache = new CatalogResultCache(
+            RESULT_CACHE_MAX_BYTES, RESULT_CACHE_TTL_MS, RESULT_CACHE_MAX_STALE_MS);
+    private boolean mSnapshotLoaded;
+
+    // Favorites and play history, stored next to the snapshot.
+    private final UserLibrary mLibrary;
+
+    // Directory holding the binary catalog snapshot, or null if snapshots are disabled.
+    private final File mSnapshotDir;
+    private volatile long mSnapshotLoadTimeMs = -1;
+    private volatile long mSnapshotSavedAt = -1;
+    private final List<OnCatalogChangedListener> mCatalogChangedListeners =
+            new CopyOnWriteArrayList<>();
+
+    // Main thread only.
+    private int mRefreshClients;
+    private CatalogRefreshTask mRefreshInFlight;
+    private final Runnable mRefreshTick = new Runnable() {
+        @Override
+        public void run() {
+            refreshAsync();
+            mHandler.postDelayed(this, REFRESH_INTERVAL_MS);
+        }
+    };
 
-    //private static final String JSON_MUSIC = "music";
-    private static final String JSON_TITLE = "title";//--
-    private static final String JSON_ALBUM = "permalink";//--
-    private static final String JSON_ARTIST = "permalink";//--
-    private static final String JSON_GENRE = "genre";//--
-    private static final String JSON_SOURCE = "stream_url";//--  remain
-    private static final String JSON_IMAGE = "artwork_url";//--
-    private static final String JSON_TRACK_NUMBER = "id"; //--
-    private static final String JSON_TOTAL_TRACK_COUNT = "likes_count";//--
-    private static final String JSON_DURATION = "duration";//--
-    retrofit.Response<List<GitResult>> mainResponse;
-    //retrofit.Response<List<GitResult>> responseRetriveMedia;
-    /*private static final String JSON_MUSIC = "music";
-    private static final String JSON_TITLE = "title";
-    private static final String JSON_ALBUM = "album";
-    private static final String JSON_ARTIST = "artist";
-    private static final String JSON_GENRE = "genre";
-    private static final String JSON_SOURCE = "source";
-    private static final String JSON_IMAGE = "image";
-    private static final String JSON_TRACK_NUMBER = "trackNumber";
-    private static final String JSON_TOTAL_TRACK_COUNT = "totalTrackCount";
-    private static final String JSON_DURATION = "duration";*/
-
-    // Categorized caches for music track data:
-    private ConcurrentMap<String, List<MediaMetadata>> mMusicListByGenre;
-    private final ConcurrentMap<String, MutableMediaMetadata> mMusicListById;
-    //SearchKeyword
-
-
-    private final Set<String> mFavoriteTracks;
+    private final List<CatalogSource> mSources;
+    // Sources are fetched in parallel, each on its own thread.
+    private final ExecutorService mSourceExecutor = Executors.newCachedThreadPool();
+    // Snapshots are written one at a time, in the order the catalogs were loaded.
+    private final ExecutorService mSnapshotExecutor = Executors.newSingleThreadExecutor();
 
+    // Catalog load callbacks run on the main thread; the timeout is posted there too.
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // Load of the current search keyword, if any. Only accessed on the main thread.
+    private CatalogLoadTask mLoadInFlight;
 
 
     enum State {
         NON_INITIALIZED, INITIALIZING, INITIALIZED
     }
 
-    private volatile State mCurrentState = State.NON_INITIALIZED;
-
     public interface Callback {
         void onMusicCatalogReady(boolean success);
     }
 
-    public MusicProvider() {
-        mMusicListByGenre = new ConcurrentHashMap<>();
-        mMusicListById = new ConcurrentHashMap<>();
-        mFavoriteTracks = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    /**
+     * Listener notified when an already served catalog changes: when a batch of streamed
+     * tracks is published, or when the network refresh replaces the snapshot that was served.
+     * Always called on the main thread.
+     */
+    public interface OnCatalogChangedListener {
+        /**
+         * @param changedGenres genres whose list of tracks changed.
+         * @param genresChanged true if genres may have been added or removed.
+         */
+        void onCatalogChanged(Set<String> changedGenres, boolean genresChanged);
+    }
+
+    private static MusicProvider sInstance;
+
+    /**
+     * @return the catalog shared by the music services. It merges the SoundCloud search
+     * results, the music.json feed and the songs in the download folder.
+     */
+    public static synchronized MusicProvider getInstance(Context context) {
+        if (sInstance == null) {
+            List<CatalogSource> sources = new ArrayList<>();
+            sources.add(new SoundCloudSource());
+            sources.add(new JsonFeedSource(MUSIC_FEED_URL));
+            sources.add(new DownloadFolderSource(MyDownloader.getDownloadDir(),
+                    DownloadIndex.getInstance(context)));
+            sInstance = new MusicProvider(context.getApplicationContext().getFilesDir(), sources);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param snapshotDir directory in app storage where the catalog snapshot is kept, or null
+     *                    to always wait for the network.
+     * @param sources where the tracks of the catalog come from.
+     */
+    private MusicProvider(File snapshotDir, List<CatalogSource> sources) {
+        mSnapshotDir = snapshotDir;
+        mSources = sources;
+        mLibrary = new UserLibrary(snapshotDir);
+    }
+
+    public void addOnCatalogChangedListener(OnCatalogChangedListener listener) {
+        mCatalogChangedListeners.add(listener);
+    }
+
+    public void removeOnCatalogChangedListener(OnCatalogChangedListener listener) {
+        mCatalogChangedListeners.remove(listener);
+    }
+
+    private void notifyCatalogChanged(Set<String> changedGenres, boolean genresChanged) {
+        for (OnCatalogChangedListener listener : mCatalogChangedListeners) {
+            listener.onCatalogChanged(changedGenres, genresChanged);
+        }
+    }
+
+    /**
+     * Refresh the served catalog in the background every {@link #REFRESH_INTERVAL_MS}, until
+     * every caller called {@link #stopPeriodicRefresh()}. Changes are reported through the
+     * {@link OnCatalogChangedListener}. Must be called on the main thread.
+     */
+    public void startPeriodicRefresh() {
+        if (mRefreshClients++ == 0) {
+            mHandler.postDelayed(mRefreshTick, REFRESH_INTERVAL_MS);
+        }
+    }
+
+    /**
+     * Must be called on the main thread.
+     */
+    public void stopPeriodicRefresh() {
+        if (mRefreshClients > 0 && --mRefreshClients == 0) {
+            mHandler.removeCallbacks(mRefreshTick);
+        }
     }
 
     /**
@@ -122,10 +238,11 @@ public class MusicProvider{
      * @return genres
      */
     public Iterable<String> getGenres() {
-        if (mCurrentState != State.INITIALIZED) {
+        Catalog catalog = mCatalog;
+        if (catalog.state != State.INITIALIZED) {
             return Collections.emptyList();
         }
-        return mMusicListByGenre.keySet();
+        return catalog.tracksByGenre.keySet();
     }
 
     /**
@@ -133,15 +250,93 @@ public class MusicProvider{
      *
      */
     public Iterable<MediaMetadata> getMusicsByGenre(String genre) {
-        if (mCurrentState != State.INITIALIZED || !mMusicListByGenre.containsKey(genre)) {
+        Catalog catalog = mCatalog;
+        List<MediaMetadata> tracks = catalog.tracksByGenre.get(genre);
+        if (catalog.state != State.INITIALIZED || tracks == null) {
+            return Collections.emptyList();
+        }
+        return tracks;
+    }
+
+    /**
+     * @return artist names, in alphabetical order.
+     */
+    public Iterable<String> getArtists() {
+        Catalog catalog = mCatalog;
+        if (catalog.state != State.INITIALIZED) {
+            return Collections.emptyList();
+        }
+        return catalog.browseIndex.getArtists();
+    }
+
+    /**
+     * Get music tracks of the given artist, most liked first.
+     */
+    public Iterable<MediaMetadata> getMusicsByArtist(String artist) {
+        Catalog catalog = mCatalog;
+        if (catalog.state != State.INITIALIZED) {
             return Collections.emptyList();
         }
-        return mMusicListByGenre.get(genre);
+        return catalog.browseIndex.getTracksByArtist(artist);
     }
 
     /**
-     * Very basic implementation of a search that filter music tracks with title containing
-     * the given query.
+     * @return album names, in alphabetical order.
+     */
+    public Iterable<String> getAlbums() {
+        Catalog catalog = mCatalog;
+        if (catalog.state != State.INITIALIZED) {
+            return Collections.emptyList();
+        }
+        return catalog.browseIndex.getAlbums();
+    }
+
+    /**
+     * Get music tracks of the given album, most liked first.
+     */
+    public Iterable<MediaMetadata> getMusicsByAlbum(String album) {
+        Catalog catalog = mCatalog;
+        if (catalog.state != State.INITIALIZED) {
+            return Collections.emptyList();
+        }
+        return catalog.browseIndex.getTracksByAlbum(album);
+    }
+
+    /**
+     * @return the names of the duration buckets, see {@link BrowseIndex#DURATION_SHORT}.
+     */
+    public Iterable<String> getDurationBuckets() {
+        Catalog catalog = mCatalog;
+        if (catalog.state != State.INITIALIZED) {
+            return Collections.emptyList();
+        }
+        return catalog.browseIndex.getDurationBuckets();
+    }
+
+    /**
+     * Get music tracks of the given duration bucket, shortest first.
+     */
+    public Iterable<MediaMetadata> getMusicsByDuration(String bucket) {
+        Catalog catalog = mCatalog;
+        if (catalog.state != State.INITIALIZED) {
+            return Collections.emptyList();
+        }
+        return catalog.browseIndex.getTracksByDuration(bucket);
+    }
+
+    /**
+     * Get the most liked music tracks.
+     */
+    public Iterable<MediaMetadata> getTopTracks() {
+        Catalog catalog = mCatalog;
+        if (catalog.state != State.INITIALIZED) {
+            return Collections.emptyList();
+        }
+        return catalog.browseIndex.getTopTracks(TOP_TRACKS_LIMIT);
+    }
+
+    /**
+     * Search music tracks with a title matching the given query.
      *
      */
     public Iterable<MediaMetadata> searchMusicBySongTitle(String query) {
@@ -149,8 +344,7 @@ public class MusicProvider{
     }
 
     /**
-     * Very basic implementation of a search that filter music tracks with album containing
-     * the given query.
+     * Search music tracks with an album matching the given query.
      *
      */
     public Iterable<MediaMetadata> searchMusicByAlbum(String query) {
@@ -158,8 +352,7 @@ public class MusicProvider{
     }
 
     /**
-     * Very basic implementation of a search that filter music tracks with artist containing
-     * the given query.
+     * Search music tracks with an artist matching the given query.
      *
      */
     public Iterable<MediaMetadata> searchMusicByArtist(String query) {
@@ -167,18 +360,65 @@ public class MusicProvider{
     }
 
 
+    /**
+     * Look the query up in the {@link SearchIndex}: a track matches when every word of the
+     * query is the start of a word of the field, ignoring case and accents.
+     */
     Iterable<MediaMetadata> searchMusic(String metadataField, String query) {
-        if (mCurrentState != State.INITIALIZED) {
+        Catalog catalog = mCatalog;
+        if (catalog.state != State.INITIALIZED) {
+            return Collections.emptyList();
+        }
+        List<MutableMediaMetadata> tracks = catalog.searchIndex.search(metadataField, query);
+        ArrayList<MediaMetadata> result = new ArrayList<>(tracks.size());
+        for (MutableMediaMetadata track : tracks) {
+            result.add(track.getMetadata());
+        }
+        return result;
+    }
+
+    /**
+     * Typo tolerant search on a single field, for queries that have no exact match.
+     *
+     * @param metadataField one of the title, artist, album or genre keys.
+     * @return matching tracks, closest and most popular first.
+     */
+    public Iterable<MediaMetadata> searchMusicFuzzy(String metadataField, String query) {
+        return searchMusicFuzzy(new String[] {metadataField}, query);
+    }
+
+    /**
+     * Typo tolerant search on title, artist, album and genre, for unstructured queries.
+     */
+    public Iterable<MediaMetadata> searchMusicFuzzy(String query) {
+        return searchMusicFuzzy(FUZZY_FIELDS, query);
+    }
+
+    private Iterable<MediaMetadata> searchMusicFuzzy(String[] metadataFields, String query) {
+        Catalog catalog = mCatalog;
+        if (catalog.state != State.INITIALIZED || query == null) {
             return Collections.emptyList();
         }
-        ArrayList<MediaMetadata> result = new ArrayList<>();
-        query = query.toLowerCase(Locale.US);
-        for (MutableMediaMetadata track : mMusicListById.values()) {
-            if (track.metadata.getString(metadataField).toLowerCase(Locale.US)
-                    .contains(query)) {
-                result.add(track.metadata);
+        long start = System.nanoTime();
+        long deadline = start + FUZZY_SEARCH_BUDGET_MS * 1000000;
+        Map<String, FuzzyIndex> indexes = catalog.fuzzyIndexes;
+        List<FuzzyIndex.Match> matches = new ArrayList<>();
+        for (String field : metadataFields) {
+            FuzzyIndex index = indexes.get(field);
+            if (index != null) {
+                matches.addAll(index.search(query, deadline));
+            }
+        }
+        Collections.sort(matches, FuzzyIndex.BEST_FIRST);
+        LongMap<FuzzyIndex.Match> seen = new LongMap<>(matches.size());
+        List<MediaMetadata> result = new ArrayList<>(matches.size());
+        for (FuzzyIndex.Match match : matches) {
+            if (seen.putIfAbsent(match.track.id, match) == null) {
+                result.add(match.track.getMetadata());
             }
         }
+        LogHelper.d(TAG, "Fuzzy search for '", query, "' found ", result.size(), " tracks in ",
+                (System.nanoTime() - start) / 1000, "us");
         return result;
     }
 
@@ -189,447 +429,930 @@ public class MusicProvider{
      * @param musicId The unique, non-hierarchical music ID.
      */
     public MediaMetadata getMusic(String musicId) {
-        return mMusicListById.containsKey(musicId) ? mMusicListById.get(musicId).metadata : null;
+        return getMusic(TrackId.parse(musicId));
+    }
+
+    /**
+     * Return the MediaMetadata for the given {@link TrackId}.
+     */
+    public MediaMetadata getMusic(long trackId) {
+        MutableMediaMetadata track = mCatalog.tracksById.get(trackId);
+        return track != null ? track.getMetadata() : null;
+    }
+
+    public void updateMusic(String musicId, MediaMetadata metadata) {
+        updateMusic(TrackId.parse(musicId), metadata);
     }
 
-    public synchronized void updateMusic(String musicId, MediaMetadata metadata) {
-        MutableMediaMetadata track = mMusicListById.get(musicId);
+    public synchronized void updateMusic(long trackId, MediaMetadata metadata) {
+        MutableMediaMetadata track = mBuilder.get(trackId);
         if (track == null) {
             return;
         }
-
-        String oldGenre = track.metadata.getString(MediaMetadata.METADATA_KEY_GENRE);
-        String newGenre = metadata.getString(MediaMetadata.METADATA_KEY_GENRE);
-
-        track.metadata = metadata;
-
-        // if genre has changed, we need to rebuild the list by genre
-        if (!oldGenre.equals(newGenre)) {
-            buildListsByGenre();
+        if (hasChanged(track, metadata)) {
+            mBuilder.update(track, metadata);
+        } else {
+            // Only the album art bitmaps were added.
+            mBuilder.updateInPlace(track, metadata);
         }
+        publish();
     }
 
     public void setFavorite(String musicId, boolean favorite) {
-        if (favorite) {
-            mFavoriteTracks.add(musicId);
-        } else {
-            mFavoriteTracks.remove(musicId);
+        long trackId = TrackId.parse(musicId);
+        if (trackId != TrackId.NONE) {
+            mLibrary.setFavorite(trackId, favorite);
         }
     }
 
     public boolean isFavorite(String musicId) {
-        return mFavoriteTracks.contains(musicId);
+        return mLibrary.isFavorite(TrackId.parse(musicId));
     }
 
+    /**
+     * Add a play of the track to the history.
+     */
+    public void recordPlay(String musicId) {
+        long trackId = TrackId.parse(musicId);
+        if (trackId != TrackId.NONE) {
+            mLibrary.recordPlay(trackId);
+        }
+    }
+
+    /**
+     * Get the favorite music tracks that are in the catalog, most recently added first.
+     */
+    public Iterable<MediaMetadata> getFavorites() {
+        return getLibraryTracks(mLibrary.getFavorites());
+    }
+
+    /**
+     * Get the last played music tracks that are in the catalog, most recent first.
+     */
+    public Iterable<MediaMetadata> getRecentlyPlayed() {
+        return getLibraryTracks(mLibrary.getRecentlyPlayed(HISTORY_LIMIT));
+    }
+
+    /**
+     * Get the most played music tracks that are in the catalog, most played first.
+     */
+    public Iterable<MediaMetadata> getMostPlayed() {
+        return getLibraryTracks(mLibrary.getMostPlayed(HISTORY_LIMIT));
+    }
+
+    public void addOnLibraryChangedListener(UserLibrary.OnLibraryChangedListener listener) {
+        mLibrary.addOnLibraryChangedListener(listener);
+    }
+
+    public void removeOnLibraryChangedListener(UserLibrary.OnLibraryChangedListener listener) {
+        mLibrary.removeOnLibraryChangedListener(listener);
+    }
+
+    private Iterable<MediaMetadata> getLibraryTracks(long[] trackIds) {
+        Catalog catalog = mCatalog;
+        if (catalog.state != State.INITIALIZED) {
+            return Collections.emptyList();
+        }
+        // Tracks that are not in the current catalog, like results of another search, are
+        // kept in the library but not listed.
+        LongMap<MutableMediaMetadata> tracksById = catalog.tracksById;
+        List<MediaMetadata> tracks = new ArrayList<>(trackIds.length);
+        for (long trackId : trackIds) {
+            MutableMediaMetadata track = tracksById.get(trackId);
+            if (track != null) {
+                tracks.add(track.getMetadata());
+            }
+        }
+        return tracks;
+    }
+
+    /**
+     * @return true if the catalog served is the one for the current search keyword. When it
+     * is not, {@link #retrieveMediaAsync} switches to it.
+     */
     public boolean isInitialized() {
-        return mCurrentState == State.INITIALIZED;
+        Catalog catalog = mCatalog;
+        return catalog.state == State.INITIALIZED && getCurrentQuery().equals(catalog.query);
+    }
+
+    /**
+     * @return the sequence number of the catalog version being served. It changes whenever
+     * the catalog does, so results derived from the catalog can be kept until it changes.
+     */
+    public long getCatalogVersion() {
+        return mCatalog.version;
+    }
+
+    /**
+     * @return a random order of the tracks of the catalog being served, which does not change
+     * when the catalog does.
+     */
+    public Shuffle newShuffle(long seed, Shuffle.Spread spread) {
+        return new Shuffle(mCatalog.searchIndex, seed, spread);
+    }
+
+    /**
+     * @return hit, miss and eviction counters of the search result cache.
+     */
+    public String getResultCacheStats() {
+        return mResultCache.getStats();
+    }
+
+    private static String getCurrentQuery() {
+        return CatalogResultCache.normalizeQuery(BaseActivity.SEARCH_KEYWORD);
+    }
+
+    /**
+     * @return true if the catalog currently served was loaded from the snapshot and the
+     * network refresh has not completed yet.
+     */
+    public boolean isServingSnapshot() {
+        return mCatalog.fromSnapshot;
+    }
+
+    /**
+     * @return time it took to map and decode the catalog snapshot in ms, or -1 if no
+     * snapshot was loaded.
+     */
+    public long getSnapshotLoadTimeMs() {
+        return mSnapshotLoadTimeMs;
+    }
+
+    /**
+     * @return age of the loaded catalog snapshot in ms, or -1 if no snapshot was loaded.
+     */
+    public long getSnapshotAgeMs() {
+        long savedAt = mSnapshotSavedAt;
+        return savedAt < 0 ? -1 : System.currentTimeMillis() - savedAt;
     }
 
     /**
      * Get the list of music tracks from a server and caches the track information
      * for future reference, keying tracks by musicId and grouping by genre.
+     *
+     * The catalog is the result of a search for {@link BaseActivity#SEARCH_KEYWORD}. Catalogs
+     * of recent keywords are cached: a cached catalog is served right away, and refetched in
+     * the background if it is stale. Otherwise tracks are ingested as they arrive off the
+     * socket. Either way the callback is called as soon as the first batch (or the cached
+     * catalog) is available, and later changes are reported through the
+     * {@link OnCatalogChangedListener}.
      */
     public void retrieveMediaAsync(final Callback callback) {
         LogHelper.d(TAG, "retrieveMediaAsync called");
-        if (mCurrentState == State.INITIALIZED) {
+        if (isInitialized()) {
             // Nothing to do, execute callback immediately
             callback.onMusicCatalogReady(true);
             return;
         }
 
+        String query = getCurrentQuery();
+        List<Callback> callbacks = new ArrayList<>();
+        if (mLoadInFlight != null) {
+            if (mLoadInFlight.mQuery.equals(query)) {
+                // A load for the same catalog is running: wait for it instead of fetching again.
+                mLoadInFlight.addCallback(callback);
+                return;
+            }
+            // The search keyword changed while loading, the old catalog is not needed anymore.
+            // Its callbacks wait for the new one.
+            callbacks.addAll(mLoadInFlight.cancelLoad());
+        }
+        callbacks.add(callback);
+
         // Asynchronously load the music catalog in a separate thread
-        new AsyncTask<Void, Void, State>() {
-            @Override
-            protected State doInBackground(Void... params) {
+        mLoadInFlight = new CatalogLoadTask(query);
+        for (Callback pending : callbacks) {
+            mLoadInFlight.addCallback(pending);
+        }
+        mLoadInFlight.execute();
+    }
+
+    /**
+     * Receives the genres touched by each batch of streamed tracks. Called on the thread doing
+     * the ingestion.
+     */
+    private interface IngestListener {
+        void onBatchIngested(Set<String> changedGenres);
 
+        /**
+         * Called before a catalog request is sent, so it can be canceled.
+         */
+        void onRequestStarted(Call call);
 
-                mainResponse =  run(CATALOG_URL);
+        boolean isCancelled();
+    }
 
-                return mCurrentState;
-            }
+    /**
+     * Loads the catalog of one search keyword. There is at most one in flight, and every
+     * {@link #retrieveMediaAsync} call for that keyword waits on it: all their callbacks fire
+     * together when the first batch is ready, or when the load fails, is canceled or times out.
+     * The callback list and {@link #mLoadInFlight} are only touched on the main thread.
+     */
+    private class CatalogLoadTask extends AsyncTask<Void, Set<String>, State>
+            implements IngestListener {
+
+        private final String mQuery;
+        private final List<Callback> mCallbacks = new ArrayList<>();
+        private boolean mCallbacksDone;
+        private final List<Call> mCalls = new CopyOnWriteArrayList<>();
 
+        private final Runnable mTimeout = new Runnable() {
             @Override
-            protected void onPostExecute(State current) {
-                if (callback != null) {
-                    callback.onMusicCatalogReady(current == State.INITIALIZED);
+            public void run() {
+                LogHelper.w(TAG, "Catalog for '", mQuery, "' not ready after ",
+                        LOAD_TIMEOUT_MS, "ms, giving up");
+                for (Callback callback : cancelLoad()) {
+                    callback.onMusicCatalogReady(false);
                 }
             }
-        }.execute();
-    }
-
-    private synchronized void buildListsByGenre() {
-        ConcurrentMap<String, List<MediaMetadata>> newMusicListByGenre = new ConcurrentHashMap<>();
+        };
 
-        for (MutableMediaMetadata m : mMusicListById.values()) {
-            String genre = m.metadata.getString(MediaMetadata.METADATA_KEY_GENRE);//METADATA_KEY_YEAR--METADATA_KEY_GENRE
-            if(genre != null && genre.length() > 1)
-            {
+        CatalogLoadTask(String query) {
+            mQuery = query;
+        }
 
+        void addCallback(Callback callback) {
+            if (mCallbacksDone) {
+                // The catalog is already served, and a refresh may still be running.
+                callback.onMusicCatalogReady(true);
+                return;
             }
-            else
-            {
-                genre = "Mix Genere";
+            if (mCallbacks.isEmpty()) {
+                mHandler.postDelayed(mTimeout, LOAD_TIMEOUT_MS);
+            } else {
+                LogHelper.d(TAG, "Joining catalog load for '", mQuery, "', ",
+                        mCallbacks.size() + 1, " callbacks waiting");
             }
-            List<MediaMetadata> list = newMusicListByGenre.get(genre);
-            if (list == null) {
-                list = new ArrayList<>();
-                newMusicListByGenre.put(genre, list);
-            }
-            list.add(m.metadata);
+            mCallbacks.add(callback);
         }
-        mMusicListByGenre = newMusicListByGenre;
-    }
 
-    private synchronized void retrieveMedia() {
-        try {
-            if (mCurrentState == State.NON_INITIALIZED) {
-                mCurrentState = State.INITIALIZING;
-
-                Log.e("=====retrieveMedia=","---======url=======>>>"+CATALOG_URL);
-
-
-
-                Log.e("=====retrieveMedia=","---======response==========>>>"+mainResponse);
+        /**
+         * Stop the load and abort its request.
+         *
+         * @return the callbacks that were still waiting; they will not be called by this task.
+         */
+        List<Callback> cancelLoad() {
+            if (mLoadInFlight == this) {
+                mLoadInFlight = null;
+            }
+            cancel(false);
+            for (Call call : mCalls) {
+                call.cancel();
+            }
+            mHandler.removeCallbacks(mTimeout);
+            List<Callback> pending = new ArrayList<>(mCallbacks);
+            mCallbacks.clear();
+            return pending;
+        }
 
-                if(mainResponse !=null )
-                {
-                    Log.e("=====retrieveMedia=","---======responseRetriveMedia=----Not null==");
+        private void fireCallbacks(boolean success) {
+            mCallbacksDone = true;
+            mHandler.removeCallbacks(mTimeout);
+            // Callbacks may start another load, so iterate over a copy.
+            List<Callback> callbacks = new ArrayList<>(mCallbacks);
+            mCallbacks.clear();
+            for (Callback callback : callbacks) {
+                callback.onMusicCatalogReady(success);
+            }
+        }
 
-                    if (mainResponse != null) {
-                        for (int j = 0; j < mainResponse.body().size(); j++) {
-                            MediaMetadata item = buildFromJSON(mainResponse.body().get(j), "");
-                            String musicId = item.getString(MediaMetadata.METADATA_KEY_MEDIA_ID);
-                            Log.e("=====retrieveMedia="+j,"-------musicId-->"+musicId);
-                            mMusicListById.put(musicId, new MutableMediaMetadata(musicId, item));
-                        }
-                        buildListsByGenre();
-                    }
-                    mCurrentState = State.INITIALIZED;
-                }
-                if (mainResponse == null) {
-                    Log.e("=====retrieveMedia=","---======responseRetriveMedia=---- null==");
-                    return;
+        @Override
+        protected State doInBackground(Void... params) {
+            // The last catalog saved to disk joins the cache, so a cold start for the same
+            // keyword is served right away.
+            loadSnapshot();
+            if (isCancelled()) {
+                return mCatalog.state;
+            }
+            Catalog catalog = mCatalog;
+            boolean serving = catalog.state == State.INITIALIZED && mQuery.equals(catalog.query);
+            if (!serving) {
+                CatalogResultCache.Entry cached = mResultCache.get(mQuery);
+                if (cached != null) {
+                    onBatchIngested(installCatalog(mQuery, cached));
+                    serving = true;
                 }
-
+                LogHelper.d(TAG, "Catalog for '", mQuery, "' cached=", cached != null,
+                        " stale=", mCatalog.stale, " ", mResultCache.getStats());
             }
-        } catch (JSONException e) {
-            LogHelper.e(TAG, e, "Could not retrieve music list");
-        } finally {
-            if (mCurrentState != State.INITIALIZED) {
-                // Something bad happened, so we reset state to NON_INITIALIZED to allow
-                // retries (eg if the network connection is temporary unavailable)
-                mCurrentState = State.NON_INITIALIZED;
+            if (!serving || mCatalog.stale) {
+                retrieveMedia(this, mQuery);
             }
+            return mCatalog.state;
         }
-    }
 
-    private MediaMetadata buildFromJSON(GitResult  json, String basePath) throws JSONException { //JSONObject json
-        /*String title = json.getString(JSON_TITLE);
-        String album = json.getString(JSON_ALBUM);
-        String artist = json.getString(JSON_ARTIST);
-        String genre = json.getString(JSON_GENRE);
-        String source = json.getString(JSON_SOURCE);
-        String iconUrl = json.getString(JSON_IMAGE);
-        int trackNumber = json.getInt(JSON_TRACK_NUMBER);
-        int totalTrackCount = json.getInt(JSON_TOTAL_TRACK_COUNT);
-        int duration = json.getInt(JSON_DURATION) * 1000; // ms*/
-
-
-        String title = json.getTitle();
-        String album = json.getPermalink();
-        String artist = json.getPermalink();
-        String genre = json.getGenre();
-        String source = json.getStream_url();
-        String iconUrl = json.getArtwork_url();
-
-        int trackNumber = 1,totalTrackCount = 1,duration = 1;
-        if( json.getId() !=null)
-        {
-             trackNumber = Integer.parseInt( json.getId());
+        @Override
+        public void onBatchIngested(Set<String> changedGenres) {
+            publishProgress(changedGenres);
         }
-        if( json.getLikes_count() !=null)
-        {
-             totalTrackCount = Integer.parseInt( json.getLikes_count());
+
+        @Override
+        public void onRequestStarted(Call call) {
+            mCalls.add(call);
+            if (isCancelled()) {
+                call.cancel();
+            }
         }
-        if( json.getDuration() !=null)
-        {
-             duration = (Integer.parseInt( json.getDuration()) ); // for milisec; * 1000
+
+        @Override
+        protected void onProgressUpdate(Set<String>... changedGenres) {
+            if (!mCallbacksDone) {
+                // The first batch is delivered through the callbacks, which makes the waiting
+                // onLoadChildren calls send their results.
+                fireCallbacks(true);
+            }
+            if (!changedGenres[0].isEmpty()) {
+                notifyCatalogChanged(changedGenres[0], true);
+            }
         }
 
+        @Override
+        protected void onPostExecute(State current) {
+            if (mLoadInFlight == this) {
+                mLoadInFlight = null;
+            }
+            if (!mCallbacksDone) {
+                fireCallbacks(current == State.INITIALIZED);
+            }
+        }
 
+        @Override
+        protected void onCancelled(State current) {
+            LogHelper.d(TAG, "Catalog load for '", mQuery, "' canceled");
+        }
+    }
 
+    private void refreshAsync() {
+        String query = mCatalog.query;
+        if (!isInitialized() || query == null || mLoadInFlight != null
+                || mRefreshInFlight != null) {
+            // A load fetches everything anyway, and a refresh can wait for the next tick.
+            return;
+        }
+        mRefreshInFlight = new CatalogRefreshTask(query);
+        mRefreshInFlight.execute();
+    }
 
-        LogHelper.d(TAG, "Found music track: ", json);
+    /**
+     * Refreshes the served catalog. Runs on the AsyncTask serial executor, like the loads, so
+     * the two never overlap.
+     */
+    private class CatalogRefreshTask extends AsyncTask<Void, Void, CatalogDelta> {
+        private final String mQuery;
 
-        // Media is stored relative to JSON file
-        if (source==null || !source.startsWith("http") ) {
-            //source = source +"?client_id=4f0b007dd6be94f1098f30bcd1e1a809";
-          // source="https://api.soundcloud.com/tracks/135948945/stream?client_id=4f0b007dd6be94f1098f30bcd1e1a809";
-          source ="http://storage.googleapis.com/automotive-media/Jazz_In_Paris.mp3";
+        CatalogRefreshTask(String query) {
+            mQuery = query;
         }
-        if (iconUrl==null || !iconUrl.startsWith("http")) {
-            iconUrl = "https://i1.sndcdn.com/artworks-000071463904-nhv9da-large.jpg";
+
+        @Override
+        protected CatalogDelta doInBackground(Void... params) {
+            return refreshCatalog(mQuery);
         }
-        else
-        {
-            if(iconUrl.contains("large.jpg"))
-            {
 
-                iconUrl = iconUrl.replaceAll("large.jpg","crop.jpg");
+        @Override
+        protected void onPostExecute(CatalogDelta delta) {
+            if (mRefreshInFlight == this) {
+                mRefreshInFlight = null;
             }
+            if (delta != null) {
+                notifyCatalogChanged(delta.changedGenres, delta.genresChanged);
+            }
+        }
+    }
 
+    /**
+     * What a refresh changed in the served catalog.
+     */
+    private static final class CatalogDelta {
+        final Set<String> changedGenres;
+        final boolean genresChanged;
+
+        CatalogDelta(Set<String> changedGenres, boolean genresChanged) {
+            this.changedGenres = changedGenres;
+            this.genresChanged = genresChanged;
         }
+    }
+
+    /**
+     * Collects the tracks reported by a refresh, which are only applied once the source
+     * succeeded.
+     */
+    private static final class CollectingSink implements CatalogSource.Sink {
+        final List<MediaMetadata> mTracks = new ArrayList<>();
 
-//        source ="http://storage.googleapis.com/automotive-media/Jazz_In_Paris.mp3";
+        @Override
+        public void onTracks(List<MediaMetadata> tracks) {
+            mTracks.addAll(tracks);
+        }
 
-       /* if (!iconUrl.startsWith("http")) {
-            iconUrl = iconUrl;
-        }*/
-        // Since we don't have a unique ID in the server, we fake one using the hashcode of
-        // the music source. In a real world app, this could come from the server.
-        String id = String.valueOf(source+"?client_id=4f0b007dd6be94f1098f30bcd1e1a809".hashCode());
+        @Override
+        public void onRequestStarted(Call call) {
+        }
 
-        Log.e("===source==="+source,"====id=="+id);
-        // Adding the music source to the MediaMetadata (and consequently using it in the
-        // mediaSession.setMetadata) is not a good idea for a real world music app, because
-        // the session metadata can be accessed by notification listeners. This is done in this
-        // sample for convenience only.
-        return new MediaMetadata.Builder()
-                .putString(MediaMetadata.METADATA_KEY_MEDIA_ID, id)
-                .putString(CUSTOM_METADATA_TRACK_SOURCE, source+"?client_id=4f0b007dd6be94f1098f30bcd1e1a809")
-                .putString(MediaMetadata.METADATA_KEY_ALBUM, album)
-                .putString(MediaMetadata.METADATA_KEY_ARTIST, artist)
-                .putLong(MediaMetadata.METADATA_KEY_DURATION, duration)
-                .putString(MediaMetadata.METADATA_KEY_GENRE, genre)
-                .putString(MediaMetadata.METADATA_KEY_ALBUM_ART_URI, iconUrl)
-                .putString(MediaMetadata.METADATA_KEY_TITLE, title)
-                .putLong(MediaMetadata.METADATA_KEY_TRACK_NUMBER, trackNumber)
-                .putLong(MediaMetadata.METADATA_KEY_NUM_TRACKS, totalTrackCount)
-                .build();
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
     }
 
     /**
-     * Download a JSON file from a server, parse the content and return the JSON
-     * object.
+     * Ask every source what changed since the catalog was fetched and apply the changes to
+     * the served catalog. Sources are asked one after the other, since nobody waits on a
+     * refresh.
      *
-     * @return result JSONObject containing the parsed representation.
+     * @return what changed, or null if nothing did.
      */
-    private JSONArray fetchJSONFromUrl(String urlString) {
-        BufferedReader reader = null;
-        try {
-            URLConnection urlConnection = new URL(urlString).openConnection();
-            reader = new BufferedReader(new InputStreamReader(
-                    urlConnection.getInputStream(), "iso-8859-1"));
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                sb.append(line);
-            }
-            LogHelper.e(TAG, "---sucess----",sb.toString());
-
-            return new JSONArray(sb.toString());
-        } catch (Exception e) {
-            LogHelper.e(TAG, "Failed to parse the json for media list", e);
-            return null;
-        } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException e) {
-                    // ignore
+    private CatalogDelta refreshCatalog(String query) {
+        List<MediaMetadata> fetched = new ArrayList<>();
+        Set<String> fullOrigins = new HashSet<>();
+        boolean changed = false;
+        for (CatalogSource source : mSources) {
+            CollectingSink sink = new CollectingSink();
+            try {
+                CatalogSource.Change change = source.refresh(query, sink);
+                LogHelper.d(TAG, "Refresh of ", source.getName(), " for '", query, "': ",
+                        change, ", ", sink.mTracks.size(), " tracks");
+                if (change == CatalogSource.Change.FULL) {
+                    fullOrigins.add(source.getName());
                 }
+                changed |= change != CatalogSource.Change.NONE;
+                fetched.addAll(sink.mTracks);
+            } catch (IOException | RuntimeException e) {
+                // Its tracks stay as they are until the next refresh.
+                LogHelper.w(TAG, e, "Could not refresh ", source.getName());
             }
         }
+        if (!changed) {
+            return null;
+        }
+        return applyDelta(query, fetched, fullOrigins);
     }
 
+    /**
+     * Diff the refreshed tracks against the served catalog and apply the adds, removes and
+     * updates in place. Only the diff is made under the lock: like after a load, the lookups
+     * built from the whole catalog are rebuilt outside of it, and the catalog is published
+     * once they are set.
+     *
+     * @param fetched tracks reported by the sources that changed.
+     * @param fullOrigins sources that reported all their tracks: their other tracks are
+     *                    removed.
+     * @return what changed, or null if nothing did.
+     */
+    private CatalogDelta applyDelta(String query, List<MediaMetadata> fetched,
+                                    Set<String> fullOrigins) {
+        Catalog.Builder builder;
+        Set<String> genresBefore;
+        Set<String> changedGenres = new HashSet<>();
+        List<MutableMediaMetadata> tracks;
+        synchronized (this) {
+            builder = mBuilder;
+            if (builder.getState() != State.INITIALIZED || !query.equals(builder.getQuery())) {
+                // Another keyword was loaded meanwhile.
+                return null;
+            }
+            LongMap<MediaMetadata> seen = new LongMap<>(fetched.size());
+            TrackStore addedStore = new TrackStore();
+            List<MutableMediaMetadata> added = new ArrayList<>();
+            List<MutableMediaMetadata> updated = new ArrayList<>();
+            List<MediaMetadata> updates = new ArrayList<>();
+            for (MediaMetadata item : fetched) {
+                long id = acceptedId(item);
+                if (id == TrackId.NONE || seen.putIfAbsent(id, item) != null) {
+                    // Like a load, the first source to report a track wins.
+                    continue;
+                }
+                MutableMediaMetadata track = builder.get(id);
+                if (track == null) {
+                    added.add(new MutableMediaMetadata(addedStore, addedStore.add(item)));
+                } else if (replacesDownload(item.getString(CUSTOM_METADATA_TRACK_ORIGIN),
+                        track.getString(CUSTOM_METADATA_TRACK_ORIGIN))) {
+                    // The listing of the track stays, its download is still played.
+                    continue;
+                } else if (hasChanged(track, item)) {
+                    updated.add(track);
+                    updates.add(item);
+                }
+            }
+            List<MutableMediaMetadata> removed = new ArrayList<>();
+            if (!fullOrigins.isEmpty()) {
+                for (MutableMediaMetadata track : builder.getTracks()) {
+                    if (fullOrigins.contains(track.getString(CUSTOM_METADATA_TRACK_ORIGIN))
+                            && !seen.containsKey(track.id)) {
+                        removed.add(track);
+                    }
+                }
+            }
+            LogHelper.i(TAG, "Refresh of '", query, "': ", added.size(), " added, ",
+                    removed.size(), " removed, ", updated.size(), " updated");
+            if (added.isEmpty() && removed.isEmpty() && updated.isEmpty()) {
+                return null;
+            }
 
+            genresBefore = builder.getGenres();
+            for (int i = 0; i < updated.size(); i++) {
+                MutableMediaMetadata track = updated.get(i);
+                // Includes the genre of the track when it stays the same, since its list
+                // shows the new title or artist.
+                changedGenres.addAll(builder.update(track, updates.get(i)));
+            }
+            if (!removed.isEmpty()) {
+                changedGenres.addAll(builder.removeAll(removed));
+            }
+            for (MutableMediaMetadata track : added) {
+                builder.add(track);
+            }
+            changedGenres.addAll(builder.addToGenres(added));
+            tracks = builder.getTracks();
+        }
 
-    retrofit.Response<List<GitResult>> run(String strurl)  {
-       final String strResponse="";
-
-       try
-
-       {
-
-
-
-           OkHttpClient okClient = new OkHttpClient();
-           okClient.interceptors().add(new Interceptor() {
-               @Override
-               public Response intercept(Chain chain) throws IOException {
-                   Response response = chain.proceed(chain.request());
-                   Log.v("====Response===",response.toString());
-
-                   return response;
-               }
-           });
-
-           //tracks.json?client_id=4f0b007dd6be94f1098f30bcd1e1a809&q=chicago&limit=50
-
-           Retrofit client = new Retrofit.Builder()
-                   .baseUrl(CATALOG_URL)
-                   .client(okClient)
-                   .addConverterFactory(GsonConverterFactory.create())
-                   .build();
-
-           // http://api.soundcloud.com/tracks.json?client_id=4f0b007dd6be94f1098f30bcd1e1a809&q=chicago&limit=50
-
-           GitApiInterface service = client.create(GitApiInterface.class);
-
-           Log.e("=====Search keyword====","------BaseActivity.SEARCH_KEYWORD-------"+BaseActivity.SEARCH_KEYWORD);
-           Call<List<GitResult>> call = service.getUsersNamedTom("4f0b007dd6be94f1098f30bcd1e1a809",""+ BaseActivity.SEARCH_KEYWORD,"195");
-
-
-           call.enqueue(new retrofit.Callback<List<GitResult>>() {
-
-
-               @Override
-               public void onResponse(retrofit.Response<List<GitResult>> response) {
-                   if (response.isSuccess()) {
-                       // request successful (status code 200, 201)
-                       mainResponse = response;
-                       Log.e("=====onResponse====","------Sucess--1--"+response.body());
-
-                       //GitResult result = response.body();
-                       Log.e("=====onResponse====","------Sucess2--"+response.body().size());
-                       for(int i=0; i < response.body().size(); i++)
-                       {
-                           Log.e("=====onResponse====","------title---"+response.body().get(i).getTitle());
-                       }
-
-
-                    //   responseRetriveMedia = response;
-                    //String ss=   new Gson().toJson(result).toString();
-
-                   }
-                   else
-                   {
-                       //request not successful (like 400,401,403 etc)
-                       //Handle errors
-                       Log.e("=====onResponse====","------Fail-Else--->"+response.body());
-                   }
-
-                   retrieveMedia();
-
-               }
-
-               @Override
-               public void onFailure(Throwable t) {
-                Log.e("=====onFailure====","------Fail--");
-               }
-           });
-           return mainResponse;
-       }
-       catch (Exception e)
-       {
-           e.printStackTrace();
-           return null;
-       }
+        onCatalogLoaded(builder, tracks);
+        boolean genresChanged;
+        synchronized (this) {
+            if (mBuilder != builder) {
+                // Replaced by another catalog meanwhile.
+                return null;
+            }
+            builder.setFromSnapshot(false);
+            builder.setStale(false);
+            publish();
+            genresChanged = !genresBefore.equals(builder.getGenres());
+        }
+        cacheRefreshedAsync(query, tracks);
+        return new CatalogDelta(changedGenres, genresChanged);
     }
 
-
-
-    public interface GitApiInterface {
-
-        @GET("/tracks.json")
-        Call<List<GitResult>> getUsersNamedTom(@Query("client_id") String client_id,@Query("q") String searchKey,@Query("limit") String strLimit);
-
-        /*@POST("/user/create")
-        Call<Item> createUser(@Body String name, @Body String email);
-
-        @PUT("/user/{id}/update")
-        Call<Item> updateUser(@Path("id") String id , @Body Item user);*/
+    /**
+     * Replace the cached catalog and the snapshot of a keyword by its refreshed tracks. The
+     * tracks are spread over the stores of several loads and refreshes, so they are copied to
+     * a single one, on the snapshot thread.
+     */
+    private void cacheRefreshedAsync(final String query,
+                                     final List<MutableMediaMetadata> tracks) {
+        mSnapshotExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                TrackStore store = new TrackStore();
+                for (MutableMediaMetadata track : tracks) {
+                    track.copyTo(store);
+                }
+                mResultCache.put(query, store, System.currentTimeMillis(), false);
+                if (mSnapshotDir != null) {
+                    CatalogSnapshot.save(mSnapshotDir, query, store.asList());
+                }
+            }
+        });
     }
 
-    public class GitResult
-    {
-            @SerializedName("title")
-            String title;
-
-        @SerializedName("permalink")
-        String permalink;
-
-        @SerializedName("genre")
-        String genre;
-
-        @SerializedName("stream_url")
-        String stream_url;
-
-        @SerializedName("artwork_url")
-        String artwork_url;
-
-        @SerializedName("id")
-        String id;
-
-        @SerializedName("likes_count")
-        String likes_count;
-
+    /**
+     * @return the id a track reported by a source is added to the catalog under, or
+     * {@link TrackId#NONE} if it cannot be added. Loads and refreshes both keep the first
+     * track reported with an id, unless it is a download, see {@link #replacesDownload}.
+     */
+    private static long acceptedId(MediaMetadata item) {
+        long id = TrackId.parse(item.getString(MediaMetadata.METADATA_KEY_MEDIA_ID));
+        if (id == TrackId.NONE) {
+            LogHelper.w(TAG, "Ignoring track without a valid id: ",
+                    item.getString(CUSTOM_METADATA_TRACK_SOURCE));
+        }
+        return id;
+    }
 
-        @SerializedName("duration")
-        String duration;
+    /**
+     * @return true if a track reported from one origin replaces the track with the same id
+     * from another origin: the listing a file was downloaded from replaces the file, which has
+     * neither the art nor a source a cast receiver can read. The file is still played, through
+     * the {@link DownloadIndex}.
+     */
+    private static boolean replacesDownload(String origin, String existingOrigin) {
+        return DownloadFolderSource.NAME.equals(existingOrigin)
+                && !DownloadFolderSource.NAME.equals(origin);
+    }
 
-        public void setPermalink(String permalink) {
-            this.permalink = permalink;
+    private static boolean hasChanged(MutableMediaMetadata track, MediaMetadata metadata) {
+        for (String key : DELTA_STRING_KEYS) {
+            if (!TextUtils.equals(track.getString(key), metadata.getString(key))) {
+                return true;
+            }
         }
-
-        public String getPermalink() {
-            return permalink;
+        for (String key : DELTA_LONG_KEYS) {
+            if (track.getLong(key) != metadata.getLong(key)) {
+                return true;
+            }
         }
+        return false;
+    }
 
-        public void setGenre(String genre) {
-            this.genre = genre;
+    private synchronized void loadSnapshot() {
+        if (mSnapshotDir == null || mSnapshotLoaded) {
+            return;
         }
-
-        public String getGenre() {
-            return genre;
+        mSnapshotLoaded = true;
+        CatalogSnapshot snapshot = CatalogSnapshot.load(mSnapshotDir);
+        if (snapshot == null || snapshot.getTracks().size() == 0) {
+            return;
         }
+        mSnapshotLoadTimeMs = snapshot.getLoadTimeMs();
+        mSnapshotSavedAt = snapshot.getSavedAt();
+        mResultCache.put(snapshot.getQuery(), snapshot.getTracks(), snapshot.getSavedAt(), true);
+        LogHelper.i(TAG, "Loaded ", snapshot.getTracks().size(), " tracks for '",
+                snapshot.getQuery(), "' from catalog snapshot in ", mSnapshotLoadTimeMs,
+                "ms, age=", getSnapshotAgeMs(), "ms");
+    }
 
-        public void setStream_url(String stream_url) {
-            this.stream_url = stream_url;
+    /**
+     * Serve a cached catalog.
+     *
+     * @return the genres that changed.
+     */
+    private Set<String> installCatalog(String query, CatalogResultCache.Entry cached) {
+        // The cached store is shared, the catalog only holds handles to its rows.
+        TrackStore store = cached.tracks;
+        // The row kept for each track: the first one, unless a load replaced a download by its
+        // listing, stored after it.
+        LongMap<Integer> rows = new LongMap<>(store.size());
+        for (int row = 0; row < store.size(); row++) {
+            long id = store.getId(row);
+            Integer first = id != TrackId.NONE ? rows.putIfAbsent(id, row) : null;
+            if (first != null && replacesDownload(
+                    store.getString(row, CUSTOM_METADATA_TRACK_ORIGIN),
+                    store.getString(first, CUSTOM_METADATA_TRACK_ORIGIN))) {
+                rows.put(id, row);
+            }
         }
-
-        public String getStream_url() {
-            return stream_url;
+        Catalog.Builder builder = new Catalog.Builder(query);
+        List<MutableMediaMetadata> tracks = new ArrayList<>(rows.size());
+        for (int row = 0; row < store.size(); row++) {
+            Integer kept = rows.get(store.getId(row));
+            if (kept != null && kept == row) {
+                MutableMediaMetadata track = new MutableMediaMetadata(store, row);
+                builder.add(track);
+                tracks.add(track);
+            }
         }
+        Set<String> changedGenres = builder.addToGenres(tracks);
+        onCatalogLoaded(builder, tracks);
+        builder.setFromSnapshot(cached.fromSnapshot);
+        builder.setStale(cached.isStale());
+        builder.setState(State.INITIALIZED);
+        synchronized (this) {
+            changedGenres.addAll(mBuilder.getGenres());
+            mBuilder = builder;
+            publish();
+        }
+        return changedGenres;
+    }
 
-        public void setArtwork_url(String artwork_url) {
-            this.artwork_url = artwork_url;
+    /**
+     * Publish the current state of {@link #mBuilder} as the next catalog version. Must be
+     * called while holding the lock of the provider.
+     */
+    private void publish() {
+        mCatalog = mBuilder.build(mCatalog.version + 1);
+    }
+
+    /**
+     * Precompute the lookup structures that are only rebuilt when a whole catalog is loaded.
+     * Called on the thread that loaded the catalog.
+     */
+    private void onCatalogLoaded(Catalog.Builder builder,
+                                 Collection<MutableMediaMetadata> tracks) {
+        Map<String, FuzzyIndex> fuzzyIndexes = new HashMap<>();
+        for (String field : FUZZY_FIELDS) {
+            fuzzyIndexes.put(field, FuzzyIndex.build(tracks, field));
         }
+        BrowseIndex browseIndex = BrowseIndex.build(tracks);
+        synchronized (this) {
+            // The builder may already be served, and written by updateMusic.
+            builder.setDerivedIndexes(fuzzyIndexes, browseIndex);
+        }
+        SearchSuggestions.getInstance().setCatalog(tracks);
+    }
 
-        public String getArtwork_url() {
-            return artwork_url;
+    private void saveSnapshotAsync(final String query, final TrackStore tracks) {
+        if (mSnapshotDir == null) {
+            return;
         }
+        mSnapshotExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                CatalogSnapshot.save(mSnapshotDir, query, tracks.asList());
+            }
+        });
+    }
 
-        public void setId(String id) {
-            this.id = id;
+    /**
+     * Fetch the catalog from all the sources in parallel, turning each track into a catalog
+     * entry as soon as its source reports it.
+     *
+     * When loading a new keyword, tracks go straight into the live catalog and each batch
+     * reported by a source is published to the listener, whichever source finishes first.
+     * When refreshing a stale catalog already served for the same keyword, tracks are staged
+     * and swapped in at the end, only if every source succeeded, so clients never see a half
+     * empty catalog.
+     *
+     * This is not synchronized, so updateMusic is not blocked for the duration of the
+     * download; load tasks run one at a time on the AsyncTask serial executor.
+     */
+    private void retrieveMedia(IngestListener listener, final String query) {
+        Catalog.Builder builder = new Catalog.Builder(query);
+        boolean refreshing;
+        // Genres of the previous keyword, which the first batch replaces.
+        Set<String> replacedGenres = new HashSet<>();
+        synchronized (this) {
+            refreshing = mBuilder.getState() == State.INITIALIZED
+                    && query.equals(mBuilder.getQuery());
+            if (!refreshing) {
+                replacedGenres.addAll(mBuilder.getGenres());
+                builder.setState(State.INITIALIZING);
+                mBuilder = builder;
+                publish();
+            }
         }
+        final Ingestion ingestion = new Ingestion(listener, builder, refreshing, replacedGenres);
+        final CountDownLatch done = new CountDownLatch(mSources.size());
+        final AtomicInteger failures = new AtomicInteger();
+        try {
+            for (final CatalogSource source : mSources) {
+                mSourceExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        long start = System.currentTimeMillis();
+                        try {
+                            source.fetch(query, ingestion);
+                            LogHelper.d(TAG, "Source ", source.getName(), " fetched in ",
+                                    System.currentTimeMillis() - start, "ms");
+                        } catch (IOException | RuntimeException e) {
+                            failures.incrementAndGet();
+                            LogHelper.e(TAG, e, "Could not fetch source ", source.getName());
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                });
+            }
+            done.await();
+
+            boolean complete = failures.get() == 0 && !listener.isCancelled();
+            if (listener.isCancelled() || failures.get() == mSources.size()
+                    || (refreshing && !complete)) {
+                LogHelper.w(TAG, "Catalog for '", query, "' not loaded, ", failures.get(),
+                        " sources failed");
+                return;
+            }
 
-        public String getId() {
-            return id;
+            // No source writes to the catalog anymore, and the lookups built from it are
+            // computed before taking the lock.
+            onCatalogLoaded(builder, builder.getTracks());
+            Set<String> changedGenres;
+            synchronized (this) {
+                if (refreshing) {
+                    changedGenres = builder.getGenres();
+                    changedGenres.addAll(mBuilder.getGenres());
+                    mBuilder = builder;
+                } else if (mBuilder == builder) {
+                    changedGenres = ingestion.takeUnpublishedGenres();
+                } else {
+                    // Replaced by another catalog meanwhile.
+                    return;
+                }
+                builder.setFromSnapshot(false);
+                builder.setStale(false);
+                builder.setState(State.INITIALIZED);
+                publish();
+            }
+            LogHelper.d(TAG, "Fetched ", builder.size(), " tracks for '", query,
+                    "', catalog version ", mCatalog.version);
+            if (complete) {
+                // A partial catalog is served, but not cached: the next load retries.
+                TrackStore fetched = ingestion.getFetched();
+                mResultCache.put(query, fetched, System.currentTimeMillis(), false);
+                saveSnapshotAsync(query, fetched);
+            }
+            listener.onBatchIngested(changedGenres);
+        } catch (InterruptedException e) {
+            LogHelper.e(TAG, e, "Interrupted while fetching the catalog");
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (this) {
+                if (mBuilder == builder && builder.getState() != State.INITIALIZED) {
+                    // Something bad happened, so we reset state to NON_INITIALIZED to allow
+                    // retries (eg if the network connection is temporary unavailable)
+                    builder.setState(State.NON_INITIALIZED);
+                    publish();
+                }
+            }
         }
+    }
 
-        public void setLikes_count(String likes_count) {
-            this.likes_count = likes_count;
+    /**
+     * Merges the tracks reported by the sources of one load. Tracks are deduplicated by
+     * {@link TrackId}: the first source to report a track wins, except that a downloaded file
+     * gives way to the listing it was downloaded from, see {@link #replacesDownload}. Sources
+     * without their own ids derive them from the stream URL, so the same stream listed twice
+     * has one id, while distinct SoundCloud tracks sharing the fallback stream are all kept.
+     *
+     * Batches are added to the catalog under the lock of the provider. When the catalog is
+     * being served, the first batch is published as a new version right away, and the next
+     * ones once the catalog doubled or {@link #PUBLISH_INTERVAL_MS} went by: building a
+     * version copies the whole catalog, so publishing every batch would make a load quadratic
+     * in its number of tracks.
+     */
+    private final class Ingestion implements CatalogSource.Sink {
+        private final IngestListener mListener;
+        private final Catalog.Builder mBuilder;
+        private final boolean mRefreshing;
+        // Guarded by the provider. Genres changed since the last published version, starting
+        // with those of the previous keyword, which the first version replaces.
+        private final Set<String> mUnpublishedGenres;
+        // Guarded by the provider. Size and time of the last published version.
+        private int mPublishedSize;
+        private long mPublishedAt;
+        // Tracks of this load, in the order they were accepted.
+        private final TrackStore mFetched = new TrackStore();
+
+        Ingestion(IngestListener listener, Catalog.Builder builder, boolean refreshing,
+                  Set<String> replacedGenres) {
+            mListener = listener;
+            mBuilder = builder;
+            mRefreshing = refreshing;
+            mUnpublishedGenres = replacedGenres;
         }
 
-        public String getLikes_count() {
-            return likes_count;
+        @Override
+        public void onTracks(List<MediaMetadata> tracks) {
+            List<MediaMetadata> accepted = new ArrayList<>(tracks.size());
+            for (MediaMetadata item : tracks) {
+                if (acceptedId(item) != TrackId.NONE) {
+                    accepted.add(item);
+                }
+            }
+            Set<String> changedGenres;
+            synchronized (MusicProvider.this) {
+                List<MutableMediaMetadata> batch = new ArrayList<>(accepted.size());
+                boolean replaced = false;
+                for (MediaMetadata item : accepted) {
+                    long id = TrackId.parse(item.getString(MediaMetadata.METADATA_KEY_MEDIA_ID));
+                    // Checked before adding the row, so a duplicate is never stored.
+                    MutableMediaMetadata existing = mBuilder.get(id);
+                    if (existing == null) {
+                        MutableMediaMetadata track =
+                                new MutableMediaMetadata(mFetched, mFetched.add(item));
+                        mBuilder.add(track);
+                        batch.add(track);
+                    } else if (replacesDownload(item.getString(CUSTOM_METADATA_TRACK_ORIGIN),
+                            existing.getString(CUSTOM_METADATA_TRACK_ORIGIN))) {
+                        // Stored after the download, which installCatalog replaces again.
+                        mFetched.add(item);
+                        mUnpublishedGenres.addAll(mBuilder.update(existing, item));
+                        replaced = true;
+                    }
+                }
+                if (batch.isEmpty() && !replaced) {
+                    return;
+                }
+                mUnpublishedGenres.addAll(mBuilder.addToGenres(batch));
+                if (mRefreshing || MusicProvider.this.mBuilder != mBuilder) {
+                    // Staged until every source is done, or replaced by another catalog.
+                    return;
+                }
+                long now = SystemClock.elapsedRealtime();
+                if (mPublishedSize > 0 && mBuilder.size() < 2 * mPublishedSize
+                        && now - mPublishedAt < PUBLISH_INTERVAL_MS) {
+                    // Published with a later batch, or when every source is done.
+                    return;
+                }
+                mPublishedSize = mBuilder.size();
+                mPublishedAt = now;
+                changedGenres = takeUnpublishedGenres();
+                mBuilder.setState(State.INITIALIZED);
+                publish();
+            }
+            mListener.onBatchIngested(changedGenres);
         }
 
-        public void setDuration(String duration) {
-            this.duration = duration;
+        @Override
+        public void onRequestStarted(Call call) {
+            mListener.onRequestStarted(call);
         }
 
-        public String getDuration() {
-            return duration;
+        @Override
+        public boolean isCancelled() {
+            return mListener.isCancelled();
         }
 
-        public void setTitle(String title) {
-            this.title = title;
+        TrackStore getFetched() {
+            return mFetched;
         }
 
-        public String getTitle() {
-            return title;
+        /**
+         * @return the genres changed since the last published version. Must be called while
+         * holding the lock of the provider.
+         */
+        Set<String> takeUnpublishedGenres() {
+            Set<String> genres = new HashSet<>(mUnpublishedGenres);
+            mUnpublishedGenres.clear();
+            return genres;
         }
     }
 }
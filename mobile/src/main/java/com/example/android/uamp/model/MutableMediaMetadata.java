@@ -16,21 +16,81 @@
 
 package com.example.android.uamp.model;
 
+import android.annotation.TargetApi;
 import android.media.MediaMetadata;
-import android.text.TextUtils;
+import android.os.Build;
 
 /**
- * Holder class that encapsulates a MediaMetadata and allows the actual metadata to be modified
- * without requiring to rebuild the collections the metadata is in.
+ * Holder class for a track of the catalog. The fields of the track are read from a row of a
+ * {@link TrackStore}, and its MediaMetadata is only built when it is needed. The metadata can
+ * be replaced without requiring to rebuild the collections the track is in.
  */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
 public class MutableMediaMetadata {
 
-    public MediaMetadata metadata;
-    public final String trackId;
+    // TrackId of the track.
+    public final long id;
+    // Position of the track in the SearchIndex it was added to, or -1.
+    int ordinal = -1;
 
-    public MutableMediaMetadata(String trackId, MediaMetadata metadata) {
-        this.metadata = metadata;
-        this.trackId = trackId;
+    private final TrackStore mStore;
+    private final int mRow;
+    // Set when the metadata was replaced, for instance to add the album art.
+    private volatile MediaMetadata mMetadata;
+
+    public MutableMediaMetadata(TrackStore store, int row) {
+        this.id = store.getId(row);
+        mStore = store;
+        mRow = row;
+    }
+
+    private MutableMediaMetadata(MutableMediaMetadata from, MediaMetadata metadata) {
+        this.id = from.id;
+        ordinal = from.ordinal;
+        mStore = from.mStore;
+        mRow = from.mRow;
+        mMetadata = metadata;
+    }
+
+    /**
+     * @return a new holder of the same track with other metadata, leaving this one as it is
+     * for the collections that still hold it.
+     */
+    public MutableMediaMetadata withMetadata(MediaMetadata metadata) {
+        return new MutableMediaMetadata(this, metadata);
+    }
+
+    /**
+     * @return the metadata of the track. Unless it was replaced, a new instance is built on
+     * each call, so prefer {@link #getString} and {@link #getLong} for reading single fields.
+     */
+    public MediaMetadata getMetadata() {
+        MediaMetadata metadata = mMetadata;
+        return metadata != null ? metadata : mStore.toMediaMetadata(mRow);
+    }
+
+    public void setMetadata(MediaMetadata metadata) {
+        mMetadata = metadata;
+    }
+
+    public String getString(String key) {
+        MediaMetadata metadata = mMetadata;
+        return metadata != null ? metadata.getString(key) : mStore.getString(mRow, key);
+    }
+
+    public long getLong(String key) {
+        MediaMetadata metadata = mMetadata;
+        return metadata != null ? metadata.getLong(key) : mStore.getLong(mRow, key);
+    }
+
+    /**
+     * Append the current fields of the track to a store.
+     *
+     * @return the row of the copy.
+     */
+    int copyTo(TrackStore store) {
+        MediaMetadata metadata = mMetadata;
+        return metadata != null ? store.add(metadata) : store.add(mStore, mRow);
     }
 
     @Override
@@ -44,11 +104,11 @@ public class MutableMediaMetadata {
 
         MutableMediaMetadata that = (MutableMediaMetadata) o;
 
-        return TextUtils.equals(trackId, that.trackId);
+        return id == that.id;
     }
 
     @Override
     public int hashCode() {
-        return trackId.hashCode();
+        return (int) (id ^ (id >>> 32));
     }
 }
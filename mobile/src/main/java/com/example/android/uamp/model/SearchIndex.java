@@ -0,0 +1,483 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.model;
+
+import android.annotation.TargetApi;
+import android.media.MediaMetadata;
+import android.os.Build;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Per-field inverted index over the catalog, used instead of scanning every track on each
+ * search.
+ *
+ * Field values are split into normalized tokens (lower case, accents stripped, split on
+ * anything that is not a letter or a digit) and each token maps to a sorted posting list of
+ * track ordinals. A query matches the tracks where every query token is a prefix of some token
+ * of the field, so "beat" finds "The Beatles" and "let it" finds "Let It Be".
+ *
+ * The index is filled while the catalog is ingested and kept up to date by
+ * {@link #replace(MutableMediaMetadata, MutableMediaMetadata)}. Searches run on frozen copies made by
+ * {@link #freeze()}, which never change and need no locking. Freezing shares the posting
+ * lists, and the index copies a shared list before changing it.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class SearchIndex {
+
+    private static final String[] FIELD_KEYS = {
+            MediaMetadata.METADATA_KEY_TITLE,
+            MediaMetadata.METADATA_KEY_ALBUM,
+            MediaMetadata.METADATA_KEY_ARTIST,
+            MediaMetadata.METADATA_KEY_GENRE
+    };
+
+    private final FieldIndex[] mFields = new FieldIndex[FIELD_KEYS.length];
+    private MutableMediaMetadata[] mTracks;
+    private int mTrackCount;
+    private final boolean mFrozen;
+
+    public SearchIndex() {
+        for (int i = 0; i < mFields.length; i++) {
+            mFields[i] = new FieldIndex();
+        }
+        mTracks = new MutableMediaMetadata[64];
+        mFrozen = false;
+    }
+
+    private SearchIndex(SearchIndex from) {
+        for (int i = 0; i < mFields.length; i++) {
+            mFields[i] = from.mFields[i].freeze();
+        }
+        mTracks = Arrays.copyOf(from.mTracks, from.mTrackCount);
+        mTrackCount = from.mTrackCount;
+        mFrozen = true;
+    }
+
+    /**
+     * @return true if the given metadata key is indexed.
+     */
+    public static boolean isIndexed(String metadataField) {
+        return fieldIndexOf(metadataField) >= 0;
+    }
+
+    /**
+     * Match a single track against a query, for sources that filter their tracks before they
+     * are indexed. Like {@link #search}, every word of the query must start a word of the
+     * track, but the words may come from any of the indexed fields.
+     *
+     * @return true if the track matches, or if the query is empty.
+     */
+    public static boolean matches(MediaMetadata metadata, String query) {
+        List<String> words = new ArrayList<>();
+        for (String field : FIELD_KEYS) {
+            Collections.addAll(words, tokenize(metadata.getString(field)));
+        }
+        for (String token : tokenize(query)) {
+            boolean found = false;
+            for (int i = 0; i < words.size() && !found; i++) {
+                found = words.get(i).startsWith(token);
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of tracks added to the index, including removed ones.
+     */
+    public synchronized int size() {
+        return mTrackCount;
+    }
+
+    /**
+     * @return the tracks of the index, in the order they were added.
+     */
+    public synchronized List<MutableMediaMetadata> getTracks() {
+        List<MutableMediaMetadata> tracks = new ArrayList<>(mTrackCount);
+        for (int i = 0; i < mTrackCount; i++) {
+            if (mTracks[i] != null) {
+                tracks.add(mTracks[i]);
+            }
+        }
+        return tracks;
+    }
+
+    /**
+     * @return an immutable copy of the index as it is now, which can be searched from any
+     * thread.
+     */
+    public synchronized SearchIndex freeze() {
+        return mFrozen ? this : new SearchIndex(this);
+    }
+
+    /**
+     * Add a track to the index and assign it the next ordinal.
+     */
+    public synchronized void add(MutableMediaMetadata track) {
+        checkNotFrozen();
+        if (mTrackCount == mTracks.length) {
+            mTracks = Arrays.copyOf(mTracks, mTrackCount * 2);
+        }
+        int ordinal = mTrackCount++;
+        mTracks[ordinal] = track;
+        track.ordinal = ordinal;
+        for (int i = 0; i < FIELD_KEYS.length; i++) {
+            mFields[i].add(ordinal, track.getString(FIELD_KEYS[i]));
+        }
+    }
+
+    /**
+     * Replace a track by a new holder of its changed metadata, which keeps its ordinal, and
+     * re-index the fields that changed. Frozen copies keep the old holder.
+     *
+     * @return false if the track is not in the index.
+     */
+    public synchronized boolean replace(MutableMediaMetadata track,
+                                        MutableMediaMetadata replacement) {
+        checkNotFrozen();
+        int ordinal = track.ordinal;
+        if (ordinal < 0 || ordinal >= mTrackCount || mTracks[ordinal] != track) {
+            return false;
+        }
+        mTracks[ordinal] = replacement;
+        replacement.ordinal = ordinal;
+        for (int i = 0; i < FIELD_KEYS.length; i++) {
+            String oldValue = track.getString(FIELD_KEYS[i]);
+            String newValue = replacement.getString(FIELD_KEYS[i]);
+            if (oldValue == null ? newValue != null : !oldValue.equals(newValue)) {
+                mFields[i].remove(ordinal, oldValue);
+                mFields[i].add(ordinal, newValue);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Remove a track from the index. Its ordinal is not reused.
+     */
+    public synchronized void remove(MutableMediaMetadata track) {
+        checkNotFrozen();
+        int ordinal = track.ordinal;
+        if (ordinal < 0 || ordinal >= mTrackCount || mTracks[ordinal] != track) {
+            return;
+        }
+        for (int i = 0; i < FIELD_KEYS.length; i++) {
+            mFields[i].remove(ordinal, track.getString(FIELD_KEYS[i]));
+        }
+        mTracks[ordinal] = null;
+        track.ordinal = -1;
+    }
+
+    /**
+     * Find the tracks whose metadataField matches the query. Only frozen copies can be
+     * searched.
+     *
+     * @param metadataField one of the indexed {@link MediaMetadata} keys.
+     * @param query free text query.
+     * @return matching tracks, in ingestion order.
+     */
+    public List<MutableMediaMetadata> search(String metadataField, String query) {
+        if (!mFrozen) {
+            throw new IllegalStateException("Only a frozen index can be searched");
+        }
+        int field = fieldIndexOf(metadataField);
+        if (field < 0) {
+            throw new IllegalArgumentException("Field is not indexed: " + metadataField);
+        }
+        String[] tokens = tokenize(query);
+        List<MutableMediaMetadata> result;
+        if (tokens.length == 0) {
+            // An empty query matches everything, like the substring search it replaces.
+            result = new ArrayList<>(mTrackCount);
+            for (int i = 0; i < mTrackCount; i++) {
+                if (mTracks[i] != null) {
+                    result.add(mTracks[i]);
+                }
+            }
+            return result;
+        }
+        IntList matches = mFields[field].match(tokens[0], mTrackCount);
+        for (int i = 1; i < tokens.length && matches.size > 0; i++) {
+            matches = matches.intersect(mFields[field].match(tokens[i], mTrackCount));
+        }
+        result = new ArrayList<>(matches.size);
+        for (int i = 0; i < matches.size; i++) {
+            result.add(mTracks[matches.values[i]]);
+        }
+        return result;
+    }
+
+    /**
+     * @param ordinal between 0 and {@link #size()}.
+     * @return the track of a frozen index with the given ordinal, or null if it was removed.
+     */
+    public MutableMediaMetadata getTrack(int ordinal) {
+        if (!mFrozen) {
+            throw new IllegalStateException("Only a frozen index can be read");
+        }
+        return mTracks[ordinal];
+    }
+
+    private void checkNotFrozen() {
+        if (mFrozen) {
+            throw new IllegalStateException("A frozen index cannot be changed");
+        }
+    }
+
+    private static int fieldIndexOf(String metadataField) {
+        for (int i = 0; i < FIELD_KEYS.length; i++) {
+            if (FIELD_KEYS[i].equals(metadataField)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Normalize a string for matching: strip accents and lower case it.
+     */
+    static String normalize(String value) {
+        String normalized = Normalizer.normalize(value, Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(normalized.length());
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                sb.append(c);
+            }
+        }
+        return sb.toString().toLowerCase(Locale.US);
+    }
+
+    /**
+     * Split a value into normalized tokens.
+     */
+    static String[] tokenize(String value) {
+        if (value == null) {
+            return new String[0];
+        }
+        String normalized = normalize(value);
+        List<String> tokens = new ArrayList<>(4);
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean tokenChar = i < normalized.length()
+                    && Character.isLetterOrDigit(normalized.charAt(i));
+            if (tokenChar && start < 0) {
+                start = i;
+            } else if (!tokenChar && start >= 0) {
+                tokens.add(normalized.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens.toArray(new String[tokens.size()]);
+    }
+
+    /**
+     * Token to posting list map for a single field. The sorted token array used for prefix
+     * lookups is built by the first query on a frozen copy, and shared with the next copy if
+     * the set of tokens did not change.
+     */
+    private static final class FieldIndex {
+        private final Map<String, IntList> mPostings;
+        // Frozen copies only. Built by the first query.
+        private volatile String[] mSortedTokens;
+
+        // Index being filled only. Lists created before the last freeze are shared with the
+        // frozen copies.
+        private int mGeneration;
+        private FieldIndex mLastFrozen;
+        private boolean mTokensChanged;
+
+        FieldIndex() {
+            mPostings = new HashMap<>();
+        }
+
+        private FieldIndex(Map<String, IntList> postings, String[] sortedTokens) {
+            mPostings = postings;
+            mSortedTokens = sortedTokens;
+        }
+
+        FieldIndex freeze() {
+            String[] sortedTokens = mTokensChanged || mLastFrozen == null ? null
+                    : mLastFrozen.mSortedTokens;
+            mLastFrozen = new FieldIndex(new HashMap<>(mPostings), sortedTokens);
+            mTokensChanged = false;
+            mGeneration++;
+            return mLastFrozen;
+        }
+
+        void add(int ordinal, String value) {
+            for (String token : tokenize(value)) {
+                IntList postings = mPostings.get(token);
+                if (postings == null) {
+                    postings = new IntList(2);
+                    postings.generation = mGeneration;
+                    mPostings.put(token, postings);
+                    mTokensChanged = true;
+                } else {
+                    postings = writable(token, postings);
+                }
+                postings.addSorted(ordinal);
+            }
+        }
+
+        void remove(int ordinal, String value) {
+            for (String token : tokenize(value)) {
+                IntList postings = mPostings.get(token);
+                if (postings != null) {
+                    postings = writable(token, postings);
+                    postings.remove(ordinal);
+                    if (postings.size == 0) {
+                        mPostings.remove(token);
+                        mTokensChanged = true;
+                    }
+                }
+            }
+        }
+
+        private IntList writable(String token, IntList postings) {
+            if (postings.generation == mGeneration) {
+                return postings;
+            }
+            IntList copy = postings.copy();
+            copy.generation = mGeneration;
+            mPostings.put(token, copy);
+            return copy;
+        }
+
+        /**
+         * @param ordinalCount upper bound of the ordinals in the index.
+         * @return ordinals of the tracks having a token starting with the given prefix.
+         */
+        IntList match(String prefix, int ordinalCount) {
+            String[] sortedTokens = mSortedTokens;
+            if (sortedTokens == null) {
+                // Concurrent queries may both sort, and get the same result.
+                sortedTokens = mPostings.keySet().toArray(new String[mPostings.size()]);
+                Arrays.sort(sortedTokens);
+                mSortedTokens = sortedTokens;
+            }
+            int from = Arrays.binarySearch(sortedTokens, prefix);
+            if (from < 0) {
+                from = -from - 1;
+            }
+            int to = from;
+            while (to < sortedTokens.length && sortedTokens[to].startsWith(prefix)) {
+                to++;
+            }
+            if (to - from <= 1) {
+                return to == from ? IntList.EMPTY : mPostings.get(sortedTokens[from]);
+            }
+            // A short prefix matches many tokens: their lists are marked in one bitset over
+            // the ordinals, then read back in order, instead of being merged pairwise.
+            long[] hits = new long[(ordinalCount + 63) >>> 6];
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                IntList postings = mPostings.get(sortedTokens[i]);
+                for (int j = 0; j < postings.size; j++) {
+                    int ordinal = postings.values[j];
+                    long bit = 1L << ordinal;
+                    if ((hits[ordinal >>> 6] & bit) == 0) {
+                        hits[ordinal >>> 6] |= bit;
+                        count++;
+                    }
+                }
+            }
+            IntList result = new IntList(count);
+            for (int word = 0; word < hits.length; word++) {
+                long bits = hits[word];
+                while (bits != 0) {
+                    result.values[result.size++] = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Sorted list of primitive ints. Instances returned by {@link FieldIndex#match} may be
+     * the posting lists themselves, so set operations always return new instances.
+     */
+    private static final class IntList {
+        static final IntList EMPTY = new IntList(0);
+
+        int[] values;
+        int size;
+        // Generation of the FieldIndex that created the list.
+        int generation;
+
+        IntList(int capacity) {
+            values = new int[capacity];
+        }
+
+        IntList copy() {
+            IntList copy = new IntList(values.length);
+            System.arraycopy(values, 0, copy.values, 0, size);
+            copy.size = size;
+            return copy;
+        }
+
+        void addSorted(int value) {
+            int pos = Arrays.binarySearch(values, 0, size, value);
+            if (pos >= 0) {
+                return;
+            }
+            pos = -pos - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.max(4, size * 2));
+            }
+            System.arraycopy(values, pos, values, pos + 1, size - pos);
+            values[pos] = value;
+            size++;
+        }
+
+        void remove(int value) {
+            int pos = Arrays.binarySearch(values, 0, size, value);
+            if (pos >= 0) {
+                System.arraycopy(values, pos + 1, values, pos, size - pos - 1);
+                size--;
+            }
+        }
+
+        IntList intersect(IntList other) {
+            IntList result = new IntList(Math.min(size, other.size));
+            int i = 0, j = 0;
+            while (i < size && j < other.size) {
+                if (values[i] < other.values[j]) {
+                    i++;
+                } else if (values[i] > other.values[j]) {
+                    j++;
+                } else {
+                    result.values[result.size++] = values[i];
+                    i++;
+                    j++;
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,449 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.model;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.media.MediaMetadata;
+import android.os.AsyncTask;
+import android.os.Build;
+
+import com.example.android.uamp.utils.LogHelper;
+import com.example.android.uamp.utils.PrefUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Typeahead engine for the search box.
+ *
+ * Completions come from the titles, artists and genres of the catalog plus the queries the user
+ * submitted before. They are kept in a path compressed prefix trie where every node stores its
+ * best {@link #MAX_SUGGESTIONS} completions, so a lookup only walks the typed prefix and never
+ * visits the subtree below it. Terms are also reachable from the start of each of their words,
+ * so "beat" completes "The Beatles".
+ *
+ * A chain of nodes with a single child is merged into one edge, labeled by a range of the key
+ * of a term rather than a copy of it, and shares one list of completions. A node is only made
+ * where keys branch or end, so the trie holds at most two nodes per inserted key, whatever its
+ * length.
+ *
+ * The trie is immutable and rebuilt in the background when the catalog or the history changes;
+ * {@link #suggest(String)} can be called from the main thread on every keystroke.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class SearchSuggestions {
+
+    private static final String TAG = LogHelper.makeLogTag(SearchSuggestions.class);
+
+    public static final int MAX_SUGGESTIONS = 8;
+    // Max number of past queries remembered.
+    private static final int MAX_HISTORY = 50;
+    // Max number of words of a term that can start a completion.
+    private static final int MAX_WORD_STARTS = 4;
+    // Past queries are ranked above any catalog term, most recent first.
+    private static final long HISTORY_WEIGHT = Long.MAX_VALUE / 2;
+
+    public static final int TYPE_HISTORY = 0;
+    public static final int TYPE_TITLE = 1;
+    public static final int TYPE_ARTIST = 2;
+    public static final int TYPE_GENRE = 3;
+
+    private static final SearchSuggestions sInstance = new SearchSuggestions();
+
+    private final Object mLock = new Object();
+    // Catalog and history terms the current trie was built from; guarded by mLock.
+    private List<Term> mCatalogTerms = Collections.emptyList();
+    private final List<String> mHistory = new ArrayList<>();
+    private boolean mHistoryLoaded;
+
+    private volatile Trie mTrie = new Trie(new ArrayList<Term>());
+
+    public static SearchSuggestions getInstance() {
+        return sInstance;
+    }
+
+    private SearchSuggestions() {
+    }
+
+    /**
+     * A single completion.
+     */
+    public static final class Suggestion {
+        public final String text;
+        public final int type;
+
+        Suggestion(String text, int type) {
+            this.text = text;
+            this.type = type;
+        }
+    }
+
+    /**
+     * @param prefix what the user typed so far.
+     * @return up to {@link #MAX_SUGGESTIONS} completions, best first.
+     */
+    public List<Suggestion> suggest(String prefix) {
+        String key = toKey(prefix, true);
+        if (key.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Trie trie = mTrie;
+        Node node = trie.find(key);
+        if (node == null) {
+            return Collections.emptyList();
+        }
+        List<Suggestion> result = new ArrayList<>(node.top.length);
+        for (int termIndex : node.top) {
+            Term term = trie.terms.get(termIndex);
+            result.add(new Suggestion(term.text, term.type));
+        }
+        return result;
+    }
+
+    /**
+     * Replace the catalog terms with the titles, artists and genres of the given tracks.
+     * Builds the trie on the calling thread, so it must not be called from the main thread.
+     */
+    public void setCatalog(Collection<MutableMediaMetadata> tracks) {
+        Map<String, Term> terms = new HashMap<>();
+        for (MutableMediaMetadata track : tracks) {
+            long likes = Math.max(1, track.getLong(MediaMetadata.METADATA_KEY_NUM_TRACKS));
+            addTerm(terms, track.getString(MediaMetadata.METADATA_KEY_TITLE),
+                    TYPE_TITLE, likes);
+            addTerm(terms, track.getString(MediaMetadata.METADATA_KEY_ARTIST),
+                    TYPE_ARTIST, likes);
+            addTerm(terms, track.getString(MediaMetadata.METADATA_KEY_GENRE),
+                    TYPE_GENRE, likes);
+        }
+        synchronized (mLock) {
+            mCatalogTerms = new ArrayList<>(terms.values());
+            rebuildLocked();
+        }
+    }
+
+    /**
+     * Load the past queries from the preferences. Only reads them the first time it is called.
+     */
+    public void loadHistory(Context context) {
+        synchronized (mLock) {
+            if (mHistoryLoaded) {
+                return;
+            }
+            mHistoryLoaded = true;
+            mHistory.addAll(PrefUtils.getSearchHistory(context));
+        }
+        rebuildAsync();
+    }
+
+    /**
+     * Remember a submitted query, so it is suggested again next time.
+     */
+    public void recordQuery(Context context, String query) {
+        String key = toKey(query, false);
+        if (key.isEmpty()) {
+            return;
+        }
+        List<String> history;
+        synchronized (mLock) {
+            for (int i = mHistory.size() - 1; i >= 0; i--) {
+                if (toKey(mHistory.get(i), false).equals(key)) {
+                    mHistory.remove(i);
+                }
+            }
+            mHistory.add(0, query.trim());
+            while (mHistory.size() > MAX_HISTORY) {
+                mHistory.remove(mHistory.size() - 1);
+            }
+            history = new ArrayList<>(mHistory);
+        }
+        PrefUtils.setSearchHistory(context, history);
+        rebuildAsync();
+    }
+
+    private void rebuildAsync() {
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mLock) {
+                    rebuildLocked();
+                }
+            }
+        });
+    }
+
+    private void rebuildLocked() {
+        Map<String, Term> terms = new HashMap<>();
+        for (Term term : mCatalogTerms) {
+            terms.put(term.key, term);
+        }
+        for (int i = 0; i < mHistory.size(); i++) {
+            String query = mHistory.get(i);
+            String key = toKey(query, false);
+            if (!key.isEmpty()) {
+                // A past query shadows the catalog term it matches.
+                terms.put(key, new Term(key, query, TYPE_HISTORY, HISTORY_WEIGHT - i));
+            }
+        }
+        long start = System.nanoTime();
+        mTrie = new Trie(new ArrayList<>(terms.values()));
+        LogHelper.d(TAG, "Built suggestion trie with ", terms.size(), " terms in ",
+                (System.nanoTime() - start) / 1000000, "ms");
+    }
+
+    private static void addTerm(Map<String, Term> terms, String text, int type, long weight) {
+        String key = toKey(text, false);
+        if (key.isEmpty()) {
+            return;
+        }
+        Term term = terms.get(key);
+        if (term == null) {
+            terms.put(key, new Term(key, text, type, weight));
+        } else {
+            // Artists and genres shared by several tracks add up their popularity.
+            term.weight += weight;
+        }
+    }
+
+    /**
+     * Normalized form of a term or prefix: its tokens separated by single spaces. A typed
+     * prefix ending with a separator keeps a trailing space, so "let " does not complete
+     * "letter".
+     */
+    private static String toKey(String text, boolean isPrefix) {
+        if (text == null) {
+            return "";
+        }
+        String[] tokens = SearchIndex.tokenize(text);
+        StringBuilder sb = new StringBuilder(text.length());
+        for (String token : tokens) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(token);
+        }
+        if (isPrefix && tokens.length > 0
+                && !Character.isLetterOrDigit(text.charAt(text.length() - 1))) {
+            sb.append(' ');
+        }
+        return sb.toString();
+    }
+
+    private static final class Term {
+        final String key;
+        final String text;
+        final int type;
+        long weight;
+
+        Term(String key, String text, int type, long weight) {
+            this.key = key;
+            this.text = text;
+            this.type = type;
+            this.weight = weight;
+        }
+    }
+
+    private static final class Node {
+        private static final char[] NO_LABELS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+        private static final int[] NO_TERMS = new int[0];
+
+        // Label of the edge from the parent: the key of the term labelTerm, from labelStart to
+        // labelEnd.
+        final int labelTerm;
+        int labelStart;
+        final int labelEnd;
+        // First char of the label of each child, sorted, and the children in the same order.
+        char[] firstChars = NO_LABELS;
+        Node[] children = NO_CHILDREN;
+        // Terms ending at this node, only while the trie is built.
+        int[] terms = NO_TERMS;
+        // Best completions of the prefixes ending on the edge to this node, by decreasing
+        // weight.
+        int[] top = NO_TERMS;
+
+        Node(int labelTerm, int labelStart, int labelEnd) {
+            this.labelTerm = labelTerm;
+            this.labelStart = labelStart;
+            this.labelEnd = labelEnd;
+        }
+
+        Node child(char c) {
+            int pos = Arrays.binarySearch(firstChars, c);
+            return pos < 0 ? null : children[pos];
+        }
+
+        void putChild(char c, Node child) {
+            int pos = Arrays.binarySearch(firstChars, c);
+            if (pos >= 0) {
+                children[pos] = child;
+                return;
+            }
+            pos = -pos - 1;
+            char[] newFirstChars = new char[firstChars.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(firstChars, 0, newFirstChars, 0, pos);
+            System.arraycopy(children, 0, newChildren, 0, pos);
+            System.arraycopy(firstChars, pos, newFirstChars, pos + 1, firstChars.length - pos);
+            System.arraycopy(children, pos, newChildren, pos + 1, children.length - pos);
+            newFirstChars[pos] = c;
+            newChildren[pos] = child;
+            firstChars = newFirstChars;
+            children = newChildren;
+        }
+
+        void addTerm(int termIndex) {
+            for (int t : terms) {
+                if (t == termIndex) {
+                    return;
+                }
+            }
+            terms = Arrays.copyOf(terms, terms.length + 1);
+            terms[terms.length - 1] = termIndex;
+        }
+    }
+
+    private static final class Trie {
+        final List<Term> terms;
+        final Node root = new Node(-1, 0, 0);
+
+        Trie(List<Term> terms) {
+            this.terms = terms;
+            for (int i = 0; i < terms.size(); i++) {
+                String key = terms.get(i).key;
+                int wordStarts = 0;
+                for (int start = 0; start >= 0 && wordStarts < MAX_WORD_STARTS;
+                     start = nextWordStart(key, start)) {
+                    insert(key, start, i);
+                    wordStarts++;
+                }
+            }
+            computeTop(root);
+        }
+
+        private static int nextWordStart(String key, int from) {
+            int space = key.indexOf(' ', from);
+            return space < 0 ? -1 : space + 1;
+        }
+
+        private void insert(String key, int start, int termIndex) {
+            Node node = root;
+            int i = start;
+            while (i < key.length()) {
+                char c = key.charAt(i);
+                Node child = node.child(c);
+                if (child == null) {
+                    Node leaf = new Node(termIndex, i, key.length());
+                    leaf.addTerm(termIndex);
+                    node.putChild(c, leaf);
+                    return;
+                }
+                String label = terms.get(child.labelTerm).key;
+                int j = child.labelStart;
+                while (j < child.labelEnd && i < key.length()
+                        && label.charAt(j) == key.charAt(i)) {
+                    i++;
+                    j++;
+                }
+                if (j < child.labelEnd) {
+                    // The key leaves the edge halfway: split it where they differ.
+                    Node middle = new Node(child.labelTerm, child.labelStart, j);
+                    child.labelStart = j;
+                    middle.putChild(label.charAt(j), child);
+                    node.putChild(c, middle);
+                    child = middle;
+                }
+                node = child;
+            }
+            node.addTerm(termIndex);
+        }
+
+        private void computeTop(Node node) {
+            int candidateCount = node.terms.length;
+            for (Node child : node.children) {
+                computeTop(child);
+                candidateCount += child.top.length;
+            }
+            int[] candidates = Arrays.copyOf(node.terms, candidateCount);
+            int size = node.terms.length;
+            for (Node child : node.children) {
+                System.arraycopy(child.top, 0, candidates, size, child.top.length);
+                size += child.top.length;
+            }
+            // A leaf ending a single term keeps its array as is.
+            node.top = node.children.length == 0 && node.terms.length == 1
+                    ? node.terms : selectTop(candidates);
+            node.terms = Node.NO_TERMS;
+        }
+
+        private int[] selectTop(int[] candidates) {
+            int[] top = new int[Math.min(candidates.length, MAX_SUGGESTIONS)];
+            int size = 0;
+            for (int candidate : candidates) {
+                boolean duplicate = false;
+                for (int i = 0; i < size && !duplicate; i++) {
+                    duplicate = top[i] == candidate;
+                }
+                if (duplicate) {
+                    continue;
+                }
+                long weight = terms.get(candidate).weight;
+                int pos = size;
+                while (pos > 0 && terms.get(top[pos - 1]).weight < weight) {
+                    pos--;
+                }
+                if (pos >= top.length) {
+                    continue;
+                }
+                int moved = Math.min(size, top.length - 1) - pos;
+                System.arraycopy(top, pos, top, pos + 1, moved);
+                top[pos] = candidate;
+                size = Math.min(size + 1, top.length);
+            }
+            return size == top.length ? top : Arrays.copyOf(top, size);
+        }
+
+        /**
+         * @return the node whose completions are those of the key, or null if no term
+         * completes it. The key may end halfway along the edge to the node.
+         */
+        Node find(String key) {
+            Node node = root;
+            int i = 0;
+            while (i < key.length()) {
+                Node child = node.child(key.charAt(i));
+                if (child == null) {
+                    return null;
+                }
+                String label = terms.get(child.labelTerm).key;
+                for (int j = child.labelStart; j < child.labelEnd && i < key.length(); j++) {
+                    if (label.charAt(j) != key.charAt(i)) {
+                        return null;
+                    }
+                    i++;
+                }
+                node = child;
+            }
+            return node;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.model;
+
+import android.annotation.TargetApi;
+import android.media.MediaMetadata;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A random order of the tracks of one catalog version, produced one track at a time.
+ *
+ * The order is a permutation of the catalog ordinals computed by a small Feistel network keyed
+ * by the seed, so the track at any position is found in constant time without shuffling, or
+ * even listing, the catalog first. The same seed over the same catalog version always gives the
+ * same order.
+ *
+ * With a {@link Spread}, a track having the same artist or genre as the previous one is held
+ * back and played a little later, as soon as it no longer follows a track like it.
+ *
+ * Not thread safe.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public final class Shuffle {
+
+    /**
+     * What two consecutive tracks should not share.
+     */
+    public enum Spread {
+        NONE, ARTIST, GENRE
+    }
+
+    private static final int ROUNDS = 4;
+    // Tracks held back at most; past that, a track repeating the previous one is played anyway.
+    private static final int MAX_DEFERRED = 16;
+
+    private final SearchIndex mTracks;
+    private final Spread mSpread;
+    private final int mSize;
+    // The permutation works on numbers of 2 * mHalfBits bits, at most 4 times the size.
+    private final int mHalfBits;
+    private final int mHalfMask;
+    private final int[] mRoundKeys = new int[ROUNDS];
+
+    private int mPosition;
+    private final List<MutableMediaMetadata> mDeferred = new ArrayList<>();
+    private String mLastKey;
+
+    /**
+     * @param tracks frozen index of the catalog version to shuffle.
+     */
+    Shuffle(SearchIndex tracks, long seed, Spread spread) {
+        mTracks = tracks;
+        mSpread = spread;
+        mSize = tracks.size();
+        int bits = mSize > 1 ? 32 - Integer.numberOfLeadingZeros(mSize - 1) : 1;
+        mHalfBits = (bits + 1) / 2;
+        mHalfMask = (1 << mHalfBits) - 1;
+        for (int i = 0; i < ROUNDS; i++) {
+            seed = mix(seed + 0x9e3779b97f4a7c15L);
+            mRoundKeys[i] = (int) seed;
+        }
+    }
+
+    /**
+     * @return the next track, or null when every track was returned once.
+     */
+    public MutableMediaMetadata next() {
+        // A held back track goes first, as soon as it does not repeat the previous one.
+        for (int i = 0; i < mDeferred.size(); i++) {
+            if (!repeatsLast(mDeferred.get(i))) {
+                return take(mDeferred.remove(i));
+            }
+        }
+        while (mPosition < mSize) {
+            MutableMediaMetadata track = mTracks.getTrack(permute(mPosition++));
+            if (track == null) {
+                // Removed from the catalog.
+                continue;
+            }
+            if (repeatsLast(track) && mDeferred.size() < MAX_DEFERRED) {
+                mDeferred.add(track);
+                continue;
+            }
+            return take(track);
+        }
+        // Only tracks repeating the previous one are left.
+        return mDeferred.isEmpty() ? null : take(mDeferred.remove(0));
+    }
+
+    /**
+     * @return the ordinal at a position of the permutation.
+     */
+    int permute(int position) {
+        // The network permutes a range bigger than the catalog: walk the cycle until the
+        // result is in it, which is a permutation of the catalog too.
+        int value = position;
+        do {
+            value = encrypt(value);
+        } while (value >= mSize);
+        return value;
+    }
+
+    private int encrypt(int value) {
+        int left = value >>> mHalfBits;
+        int right = value & mHalfMask;
+        for (int key : mRoundKeys) {
+            int next = left ^ ((int) mix(right ^ key) & mHalfMask);
+            left = right;
+            right = next;
+        }
+        return (left << mHalfBits) | right;
+    }
+
+    private MutableMediaMetadata take(MutableMediaMetadata track) {
+        mLastKey = spreadKey(track);
+        return track;
+    }
+
+    private boolean repeatsLast(MutableMediaMetadata track) {
+        String key = spreadKey(track);
+        return key != null && key.equals(mLastKey);
+    }
+
+    private String spreadKey(MutableMediaMetadata track) {
+        switch (mSpread) {
+            case ARTIST:
+                return track.getString(MediaMetadata.METADATA_KEY_ARTIST);
+            case GENRE:
+                return GenreIndex.getGenreKey(track);
+            default:
+                return null;
+        }
+    }
+
+    private static long mix(long value) {
+        // Finalizer of MurmurHash3.
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9e53a85fe63L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
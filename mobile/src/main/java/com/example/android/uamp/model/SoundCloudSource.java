@@ -0,0 +1,412 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.model;
+
+import android.annotation.TargetApi;
+import android.media.MediaMetadata;
+import android.net.Uri;
+import android.os.Build;
+
+import com.example.android.uamp.utils.HttpHelper;
+import com.example.android.uamp.utils.LogHelper;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.squareup.okhttp.Call;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static com.example.android.uamp.model.MusicProvider.CUSTOM_METADATA_TRACK_ORIGIN;
+import static com.example.android.uamp.model.MusicProvider.CUSTOM_METADATA_TRACK_SOURCE;
+
+/**
+ * Tracks returned by the SoundCloud search API for the keyword.
+ *
+ * The response is streamed: tracks are parsed off the socket and reported in small batches,
+ * so the first ones can be browsed before the whole list was downloaded.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class SoundCloudSource implements CatalogSource {
+
+    private static final String TAG = LogHelper.makeLogTag(SoundCloudSource.class);
+
+    private static final String NAME = "soundcloud";
+
+    private static final String CATALOG_URL =
+            //"http://api.soundcloud.com/tracks.json?client_id=4f0b007dd6be94f1098f30bcd1e1a809&q=chicago&limit=50";
+            "http://api.soundcloud.com";
+
+    private static final String CLIENT_ID = "4f0b007dd6be94f1098f30bcd1e1a809";
+    private static final String CATALOG_LIMIT = "195";
+
+    // Number of tracks parsed off the socket before they are reported.
+    private static final int BATCH_SIZE = 25;
+
+    // Refreshes page through the tracks created since the last fetch. The cursor goes back a
+    // little, since tracks are indexed for search some time after they are created.
+    private static final int REFRESH_PAGE_SIZE = 50;
+    private static final int REFRESH_MAX_OFFSET = 1000;
+    private static final long CURSOR_OVERLAP_MS = 10 * 60 * 1000;
+
+    // Keyword of the last fetch or refresh, and when it started. Guarded by this.
+    private String mSyncedQuery;
+    private long mSyncedAt;
+
+    //private static final String JSON_MUSIC = "music";
+    private static final String JSON_TITLE = "title";//--
+    private static final String JSON_ALBUM = "permalink";//--
+    private static final String JSON_ARTIST = "permalink";//--
+    private static final String JSON_GENRE = "genre";//--
+    private static final String JSON_SOURCE = "stream_url";//--  remain
+    private static final String JSON_IMAGE = "artwork_url";//--
+    private static final String JSON_TRACK_NUMBER = "id"; //--
+    private static final String JSON_TOTAL_TRACK_COUNT = "likes_count";//--
+    private static final String JSON_DURATION = "duration";//--
+    /*private static final String JSON_MUSIC = "music";
+    private static final String JSON_TITLE = "title";
+    private static final String JSON_ALBUM = "album";
+    private static final String JSON_ARTIST = "artist";
+    private static final String JSON_GENRE = "genre";
+    private static final String JSON_SOURCE = "source";
+    private static final String JSON_IMAGE = "image";
+    private static final String JSON_TRACK_NUMBER = "trackNumber";
+    private static final String JSON_TOTAL_TRACK_COUNT = "totalTrackCount";
+    private static final String JSON_DURATION = "duration";*/
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void fetch(String query, Sink sink) throws IOException {
+        long start = System.currentTimeMillis();
+        stream(buildUrl(query, CATALOG_LIMIT).build().toString(), sink);
+        synchronized (this) {
+            mSyncedQuery = query;
+            mSyncedAt = start;
+        }
+    }
+
+    @Override
+    public Change refresh(String query, Sink sink) throws IOException {
+        long syncedAt;
+        synchronized (this) {
+            syncedAt = query.equals(mSyncedQuery) ? mSyncedAt : -1;
+        }
+        if (syncedAt < 0) {
+            fetch(query, sink);
+            return Change.FULL;
+        }
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        String from = format.format(new Date(syncedAt - CURSOR_OVERLAP_MS));
+        long start = System.currentTimeMillis();
+        int total = 0;
+        for (int offset = 0; offset < REFRESH_MAX_OFFSET; offset += REFRESH_PAGE_SIZE) {
+            String url = buildUrl(query, String.valueOf(REFRESH_PAGE_SIZE))
+                    .appendQueryParameter("created_at[from]", from)
+                    .appendQueryParameter("offset", String.valueOf(offset))
+                    .build().toString();
+            int count = stream(url, sink);
+            total += count;
+            if (count < REFRESH_PAGE_SIZE) {
+                break;
+            }
+        }
+        synchronized (this) {
+            mSyncedAt = start;
+        }
+        LogHelper.d(TAG, total, " tracks created for '", query, "' since ", from);
+        return total == 0 ? Change.NONE : Change.INCREMENTAL;
+    }
+
+    private static Uri.Builder buildUrl(String query, String limit) {
+        return Uri.parse(CATALOG_URL).buildUpon()
+                .appendEncodedPath("tracks.json")
+                .appendQueryParameter("client_id", CLIENT_ID)
+                .appendQueryParameter("q", query)
+                .appendQueryParameter("limit", limit);
+    }
+
+    /**
+     * Stream a list of tracks to the sink.
+     *
+     * @return the number of tracks in the list.
+     */
+    private int stream(String url, Sink sink) throws IOException {
+        LogHelper.d(TAG, "Streaming catalog from ", url);
+        Call call = HttpHelper.getCatalogClient().newCall(new Request.Builder().url(url).build());
+        sink.onRequestStarted(call);
+        Response response = call.execute();
+        if (!response.isSuccessful()) {
+            response.body().close();
+            throw new IOException("Could not retrieve music list, HTTP " + response.code());
+        }
+
+        JsonReader reader = new JsonReader(response.body().charStream());
+        int count = 0;
+        try {
+            List<MediaMetadata> batch = new ArrayList<>(BATCH_SIZE);
+            reader.beginArray();
+            while (reader.hasNext()) {
+                if (sink.isCancelled()) {
+                    throw new IOException("Canceled");
+                }
+                batch.add(buildFromJSON(readTrack(reader), ""));
+                count++;
+                if (batch.size() == BATCH_SIZE) {
+                    sink.onTracks(batch);
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+            reader.endArray();
+            if (!batch.isEmpty()) {
+                sink.onTracks(batch);
+            }
+        } catch (JSONException e) {
+            throw new IOException(e);
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Pull a single track object from the reader. Unknown and nested values (like the
+     * "user" object) are skipped without being materialized.
+     */
+    private static GitResult readTrack(JsonReader reader) throws IOException {
+        GitResult track = new GitResult();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+            } else if (JSON_TITLE.equals(name)) {
+                track.setTitle(reader.nextString());
+            } else if (JSON_ALBUM.equals(name)) {
+                track.setPermalink(reader.nextString());
+            } else if (JSON_GENRE.equals(name)) {
+                track.setGenre(reader.nextString());
+            } else if (JSON_SOURCE.equals(name)) {
+                track.setStream_url(reader.nextString());
+            } else if (JSON_IMAGE.equals(name)) {
+                track.setArtwork_url(reader.nextString());
+            } else if (JSON_TRACK_NUMBER.equals(name)) {
+                track.setId(reader.nextString());
+            } else if (JSON_TOTAL_TRACK_COUNT.equals(name)) {
+                track.setLikes_count(reader.nextString());
+            } else if (JSON_DURATION.equals(name)) {
+                track.setDuration(reader.nextString());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return track;
+    }
+
+    private static MediaMetadata buildFromJSON(GitResult  json, String basePath) throws JSONException { //JSONObject json
+        /*String title = json.getString(JSON_TITLE);
+        String album = json.getString(JSON_ALBUM);
+        String artist = json.getString(JSON_ARTIST);
+        String genre = json.getString(JSON_GENRE);
+        String source = json.getString(JSON_SOURCE);
+        String iconUrl = json.getString(JSON_IMAGE);
+        int trackNumber = json.getInt(JSON_TRACK_NUMBER);
+        int totalTrackCount = json.getInt(JSON_TOTAL_TRACK_COUNT);
+        int duration = json.getInt(JSON_DURATION) * 1000; // ms*/
+
+
+        String title = json.getTitle();
+        String album = json.getPermalink();
+        String artist = json.getPermalink();
+        String genre = json.getGenre();
+        String source = json.getStream_url();
+        String iconUrl = json.getArtwork_url();
+
+        long soundCloudId = 0;
+        int totalTrackCount = 1,duration = 1;
+        if( json.getId() !=null)
+        {
+             soundCloudId = Long.parseLong( json.getId());
+        }
+        if( json.getLikes_count() !=null)
+        {
+             totalTrackCount = Integer.parseInt( json.getLikes_count());
+        }
+        if( json.getDuration() !=null)
+        {
+             duration = (Integer.parseInt( json.getDuration()) ); // for milisec; * 1000
+        }
+
+
+
+
+        LogHelper.d(TAG, "Found music track: ", title);
+
+        // Media is stored relative to JSON file
+        if (source==null || !source.startsWith("http") ) {
+            //source = source +"?client_id=4f0b007dd6be94f1098f30bcd1e1a809";
+          // source="https://api.soundcloud.com/tracks/135948945/stream?client_id=4f0b007dd6be94f1098f30bcd1e1a809";
+          source ="http://storage.googleapis.com/automotive-media/Jazz_In_Paris.mp3";
+        }
+        if (iconUrl==null || !iconUrl.startsWith("http")) {
+            iconUrl = "https://i1.sndcdn.com/artworks-000071463904-nhv9da-large.jpg";
+        }
+        else
+        {
+            if(iconUrl.contains("large.jpg"))
+            {
+
+                iconUrl = iconUrl.replaceAll("large.jpg","crop.jpg");
+            }
+
+        }
+
+//        source ="http://storage.googleapis.com/automotive-media/Jazz_In_Paris.mp3";
+
+       /* if (!iconUrl.startsWith("http")) {
+            iconUrl = iconUrl;
+        }*/
+        source = source + "?client_id=" + CLIENT_ID;
+        // Tracks are identified by their SoundCloud id; the stream URL is only used when the
+        // id is missing.
+        long id = TrackId.fromSoundCloudId(soundCloudId);
+        if (id == TrackId.NONE) {
+            id = TrackId.fromSource(source);
+        }
+
+        // Adding the music source to the MediaMetadata (and consequently using it in the
+        // mediaSession.setMetadata) is not a good idea for a real world music app, because
+        // the session metadata can be accessed by notification listeners. This is done in this
+        // sample for convenience only.
+        return new MediaMetadata.Builder()
+                .putString(MediaMetadata.METADATA_KEY_MEDIA_ID, Long.toString(id))
+                .putString(CUSTOM_METADATA_TRACK_SOURCE, source)
+                .putString(CUSTOM_METADATA_TRACK_ORIGIN, NAME)
+                .putString(MediaMetadata.METADATA_KEY_ALBUM, album)
+                .putString(MediaMetadata.METADATA_KEY_ARTIST, artist)
+                .putLong(MediaMetadata.METADATA_KEY_DURATION, duration)
+                .putString(MediaMetadata.METADATA_KEY_GENRE, genre)
+                .putString(MediaMetadata.METADATA_KEY_ALBUM_ART_URI, iconUrl)
+                .putString(MediaMetadata.METADATA_KEY_TITLE, title)
+                .putLong(MediaMetadata.METADATA_KEY_TRACK_NUMBER, soundCloudId)
+                .putLong(MediaMetadata.METADATA_KEY_NUM_TRACKS, totalTrackCount)
+                .build();
+    }
+
+    /**
+     * A track as returned by the SoundCloud /tracks.json endpoint.
+     */
+    public static class GitResult
+    {
+        String title;
+
+        String permalink;
+
+        String genre;
+
+        String stream_url;
+
+        String artwork_url;
+
+        String id;
+
+        String likes_count;
+
+        String duration;
+
+        public void setPermalink(String permalink) {
+            this.permalink = permalink;
+        }
+
+        public String getPermalink() {
+            return permalink;
+        }
+
+        public void setGenre(String genre) {
+            this.genre = genre;
+        }
+
+        public String getGenre() {
+            return genre;
+        }
+
+        public void setStream_url(String stream_url) {
+            this.stream_url = stream_url;
+        }
+
+        public String getStream_url() {
+            return stream_url;
+        }
+
+        public void setArtwork_url(String artwork_url) {
+            this.artwork_url = artwork_url;
+        }
+
+        public String getArtwork_url() {
+            return artwork_url;
+        }
+
+        public void setId(String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public void setLikes_count(String likes_count) {
+            this.likes_count = likes_count;
+        }
+
+        public String getLikes_count() {
+            return likes_count;
+        }
+
+        public void setDuration(String duration) {
+            this.duration = duration;
+        }
+
+        public String getDuration() {
+            return duration;
+        }
+
+        public void setTitle(String title) {
+            this.title = title;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+    }
+}
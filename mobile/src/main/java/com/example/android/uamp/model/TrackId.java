@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.model;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 64-bit track identities, used as the unique music ID of the catalog.
+ *
+ * SoundCloud tracks use their SoundCloud id, which is positive. Tracks without one, like feed
+ * entries and downloaded files, use 64 bits of the SHA-1 of their stream URL or path with the
+ * sign bit set, so the two kinds can never collide. The music ID exposed in media IDs is the
+ * decimal form of the identity.
+ */
+public final class TrackId {
+
+    /**
+     * Returned when a value is not a valid identity. Never assigned to a track.
+     */
+    public static final long NONE = 0;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private TrackId() {
+    }
+
+    /**
+     * @return the identity of a track having the given SoundCloud id, or {@link #NONE}.
+     */
+    public static long fromSoundCloudId(long soundCloudId) {
+        return soundCloudId > 0 ? soundCloudId : NONE;
+    }
+
+    /**
+     * @return the identity of a track that is only known by its stream URL or file path.
+     */
+    public static long fromSource(String source) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1").digest(source.getBytes(UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+        long id = 0;
+        for (int i = 0; i < 8; i++) {
+            id = (id << 8) | (digest[i] & 0xff);
+        }
+        return id | Long.MIN_VALUE;
+    }
+
+    /**
+     * @return the identity written in decimal in the given string, or {@link #NONE}.
+     */
+    public static long parse(String value) {
+        return value == null ? NONE : parse(value, 0);
+    }
+
+    /**
+     * Parse the identity written in decimal from the given position to the end of the string,
+     * without allocating.
+     *
+     * @return the identity, or {@link #NONE} if the value is not a valid identity.
+     */
+    public static long parse(String value, int start) {
+        int end = value.length();
+        boolean negative = start < end && value.charAt(start) == '-';
+        int i = negative ? start + 1 : start;
+        if (i >= end) {
+            return NONE;
+        }
+        // Accumulate negatively, like Long.parseLong, so Long.MIN_VALUE does not overflow.
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multiplyMin = limit / 10;
+        long result = 0;
+        for (; i < end; i++) {
+            int digit = value.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || result < multiplyMin) {
+                return NONE;
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                return NONE;
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+}
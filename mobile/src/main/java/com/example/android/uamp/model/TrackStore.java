@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.model;
+
+import android.annotation.TargetApi;
+import android.media.MediaMetadata;
+import android.os.Build;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Columnar storage for the tracks of a catalog.
+ *
+ * A {@link MediaMetadata} is a Bundle holding boxed values and its own copy of every string,
+ * which costs over a kilobyte per track. Here each field is a column: numbers are primitive
+ * arrays, and artists, albums, genres and origins are indexes into a table of distinct
+ * strings, since many tracks share them. A {@link MediaMetadata} is only built when a track is
+ * actually sent to a session or a UI, with {@link #toMediaMetadata(int)}.
+ *
+ * Rows are appended and never modified, so the store can be shared by the catalog and the
+ * result cache. Appends are synchronized; a row can be read without locking by any thread that
+ * got its index from {@link #add(MediaMetadata)} through a safe publication.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public final class TrackStore {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    // Estimated sizes used to account for the memory held by a store.
+    private static final int ROW_BYTES = 4 * 3 + 8 * 4 + 4 * 4;
+    private static final int STRING_OVERHEAD_BYTES = 40;
+
+    // Guarded by this. Distinct artist, album, genre and origin values, and their index in
+    // mStrings.
+    private final Map<String, Integer> mStringIndex = new HashMap<>();
+    private final List<String> mStrings = new ArrayList<>();
+    private long mStringBytes;
+    // Number of strings already copied to the columns.
+    private int mPublishedStrings;
+
+    private volatile Columns mColumns = new Columns(INITIAL_CAPACITY);
+    private volatile int mSize;
+
+    /**
+     * The arrays of the store. They are replaced by bigger copies as the store grows, so
+     * readers always go through the current {@link #mColumns}.
+     */
+    private static final class Columns {
+        final long[] ids;
+        final String[] sources;
+        final String[] titles;
+        final String[] artUris;
+        final String[] strings;
+        final long[] durations;
+        final long[] trackNumbers;
+        final long[] likes;
+        final int[] artists;
+        final int[] albums;
+        final int[] genres;
+        final int[] origins;
+
+        Columns(int capacity) {
+            ids = new long[capacity];
+            sources = new String[capacity];
+            titles = new String[capacity];
+            artUris = new String[capacity];
+            strings = new String[capacity];
+            durations = new long[capacity];
+            trackNumbers = new long[capacity];
+            likes = new long[capacity];
+            artists = new int[capacity];
+            albums = new int[capacity];
+            genres = new int[capacity];
+            origins = new int[capacity];
+        }
+
+        Columns(Columns from, int capacity, int stringCapacity) {
+            ids = Arrays.copyOf(from.ids, capacity);
+            sources = Arrays.copyOf(from.sources, capacity);
+            titles = Arrays.copyOf(from.titles, capacity);
+            artUris = Arrays.copyOf(from.artUris, capacity);
+            strings = Arrays.copyOf(from.strings, stringCapacity);
+            durations = Arrays.copyOf(from.durations, capacity);
+            trackNumbers = Arrays.copyOf(from.trackNumbers, capacity);
+            likes = Arrays.copyOf(from.likes, capacity);
+            artists = Arrays.copyOf(from.artists, capacity);
+            albums = Arrays.copyOf(from.albums, capacity);
+            genres = Arrays.copyOf(from.genres, capacity);
+            origins = Arrays.copyOf(from.origins, capacity);
+        }
+    }
+
+    /**
+     * Append a track.
+     *
+     * @return the row of the track.
+     */
+    public int add(MediaMetadata metadata) {
+        return add(TrackId.parse(metadata.getString(MediaMetadata.METADATA_KEY_MEDIA_ID)),
+                metadata.getString(MusicProvider.CUSTOM_METADATA_TRACK_SOURCE),
+                metadata.getString(MediaMetadata.METADATA_KEY_TITLE),
+                metadata.getString(MediaMetadata.METADATA_KEY_ALBUM_ART_URI),
+                metadata.getString(MediaMetadata.METADATA_KEY_ARTIST),
+                metadata.getString(MediaMetadata.METADATA_KEY_ALBUM),
+                metadata.getString(MediaMetadata.METADATA_KEY_GENRE),
+                metadata.getString(MusicProvider.CUSTOM_METADATA_TRACK_ORIGIN),
+                metadata.getLong(MediaMetadata.METADATA_KEY_DURATION),
+                metadata.getLong(MediaMetadata.METADATA_KEY_TRACK_NUMBER),
+                metadata.getLong(MediaMetadata.METADATA_KEY_NUM_TRACKS));
+    }
+
+    /**
+     * Append a copy of a track of another store, without building its {@link MediaMetadata}.
+     *
+     * @return the row of the track in this store.
+     */
+    public int add(TrackStore from, int row) {
+        Columns columns = from.mColumns;
+        return add(columns.ids[row], columns.sources[row], columns.titles[row],
+                columns.artUris[row], string(columns, columns.artists[row]),
+                string(columns, columns.albums[row]), string(columns, columns.genres[row]),
+                string(columns, columns.origins[row]), columns.durations[row],
+                columns.trackNumbers[row], columns.likes[row]);
+    }
+
+    /**
+     * Append a track from the values of its fields, for readers that decode them from another
+     * format without building a {@link MediaMetadata}.
+     *
+     * @return the row of the track.
+     */
+    synchronized int add(long id, String source, String title, String artUri,
+                         String artistValue, String albumValue, String genreValue,
+                         String originValue, long duration, long trackNumber, long likes) {
+        int row = mSize;
+        Columns columns = mColumns;
+        int artist = intern(artistValue);
+        int album = intern(albumValue);
+        int genre = intern(genreValue);
+        int origin = intern(originValue);
+        if (row == columns.ids.length || mStrings.size() > columns.strings.length) {
+            columns = new Columns(columns, Math.max(columns.ids.length, row * 2),
+                    Math.max(columns.strings.length, mStrings.size() * 2));
+        }
+        for (int i = mPublishedStrings; i < mStrings.size(); i++) {
+            columns.strings[i] = mStrings.get(i);
+        }
+        mPublishedStrings = mStrings.size();
+        columns.ids[row] = id;
+        columns.sources[row] = source;
+        columns.titles[row] = title;
+        columns.artUris[row] = artUri;
+        columns.durations[row] = duration;
+        columns.trackNumbers[row] = trackNumber;
+        columns.likes[row] = likes;
+        columns.artists[row] = artist;
+        columns.albums[row] = album;
+        columns.genres[row] = genre;
+        columns.origins[row] = origin;
+        // Publish the arrays before the size, so readers of the row see them.
+        mColumns = columns;
+        mSize = row + 1;
+        return row;
+    }
+
+    /**
+     * @return the number of tracks in the store.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return the {@link TrackId} of the track.
+     */
+    public long getId(int row) {
+        return mColumns.ids[row];
+    }
+
+    /**
+     * @return the value of a string field of the track, or null.
+     */
+    public String getString(int row, String key) {
+        Columns columns = mColumns;
+        switch (key) {
+            case MediaMetadata.METADATA_KEY_MEDIA_ID:
+                return Long.toString(columns.ids[row]);
+            case MusicProvider.CUSTOM_METADATA_TRACK_SOURCE:
+                return columns.sources[row];
+            case MediaMetadata.METADATA_KEY_TITLE:
+                return columns.titles[row];
+            case MediaMetadata.METADATA_KEY_ALBUM_ART_URI:
+                return columns.artUris[row];
+            case MediaMetadata.METADATA_KEY_ARTIST:
+                return string(columns, columns.artists[row]);
+            case MediaMetadata.METADATA_KEY_ALBUM:
+                return string(columns, columns.albums[row]);
+            case MediaMetadata.METADATA_KEY_GENRE:
+                return string(columns, columns.genres[row]);
+            case MusicProvider.CUSTOM_METADATA_TRACK_ORIGIN:
+                return string(columns, columns.origins[row]);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return the value of a numeric field of the track, or 0.
+     */
+    public long getLong(int row, String key) {
+        Columns columns = mColumns;
+        switch (key) {
+            case MediaMetadata.METADATA_KEY_DURATION:
+                return columns.durations[row];
+            case MediaMetadata.METADATA_KEY_TRACK_NUMBER:
+                return columns.trackNumbers[row];
+            case MediaMetadata.METADATA_KEY_NUM_TRACKS:
+                return columns.likes[row];
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Build the {@link MediaMetadata} of a track. The result is not kept, so call this only for
+     * tracks that leave the catalog.
+     */
+    public MediaMetadata toMediaMetadata(int row) {
+        return new MediaMetadata.Builder()
+                .putString(MediaMetadata.METADATA_KEY_MEDIA_ID,
+                        getString(row, MediaMetadata.METADATA_KEY_MEDIA_ID))
+                .putString(MusicProvider.CUSTOM_METADATA_TRACK_SOURCE,
+                        getString(row, MusicProvider.CUSTOM_METADATA_TRACK_SOURCE))
+                .putString(MusicProvider.CUSTOM_METADATA_TRACK_ORIGIN,
+                        getString(row, MusicProvider.CUSTOM_METADATA_TRACK_ORIGIN))
+                .putString(MediaMetadata.METADATA_KEY_ALBUM,
+                        getString(row, MediaMetadata.METADATA_KEY_ALBUM))
+                .putString(MediaMetadata.METADATA_KEY_ARTIST,
+                        getString(row, MediaMetadata.METADATA_KEY_ARTIST))
+                .putLong(MediaMetadata.METADATA_KEY_DURATION,
+                        getLong(row, MediaMetadata.METADATA_KEY_DURATION))
+                .putString(MediaMetadata.METADATA_KEY_GENRE,
+                        getString(row, MediaMetadata.METADATA_KEY_GENRE))
+                .putString(MediaMetadata.METADATA_KEY_ALBUM_ART_URI,
+                        getString(row, MediaMetadata.METADATA_KEY_ALBUM_ART_URI))
+                .putString(MediaMetadata.METADATA_KEY_TITLE,
+                        getString(row, MediaMetadata.METADATA_KEY_TITLE))
+                .putLong(MediaMetadata.METADATA_KEY_TRACK_NUMBER,
+                        getLong(row, MediaMetadata.METADATA_KEY_TRACK_NUMBER))
+                .putLong(MediaMetadata.METADATA_KEY_NUM_TRACKS,
+                        getLong(row, MediaMetadata.METADATA_KEY_NUM_TRACKS))
+                .build();
+    }
+
+    /**
+     * @return a read only view of the tracks, building each {@link MediaMetadata} when it is
+     * read.
+     */
+    public List<MediaMetadata> asList() {
+        final int size = mSize;
+        return new AbstractList<MediaMetadata>() {
+            @Override
+            public MediaMetadata get(int location) {
+                if (location < 0 || location >= size) {
+                    throw new IndexOutOfBoundsException("Invalid index " + location
+                            + ", size is " + size);
+                }
+                return toMediaMetadata(location);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * @return estimated memory held by the store, in bytes.
+     */
+    public synchronized long estimateBytes() {
+        Columns columns = mColumns;
+        long bytes = (long) columns.ids.length * ROW_BYTES + mStringBytes;
+        for (int row = 0; row < mSize; row++) {
+            bytes += stringBytes(columns.sources[row])
+                    + stringBytes(columns.titles[row]) + stringBytes(columns.artUris[row]);
+        }
+        return bytes;
+    }
+
+    private int intern(String value) {
+        if (value == null) {
+            return -1;
+        }
+        Integer index = mStringIndex.get(value);
+        if (index == null) {
+            index = mStrings.size();
+            mStringIndex.put(value, index);
+            mStrings.add(value);
+            mStringBytes += stringBytes(value);
+        }
+        return index;
+    }
+
+    private static String string(Columns columns, int index) {
+        return index < 0 ? null : columns.strings[index];
+    }
+
+    private static long stringBytes(String value) {
+        return value == null ? 0 : STRING_OVERHEAD_BYTES + 2 * value.length();
+    }
+}
@@ -0,0 +1,513 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.model;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.android.uamp.utils.LogHelper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/**
+ * Favorite tracks and play history of the user, kept across restarts.
+ *
+ * Every change is appended to a journal of fixed size, checksummed records on a background
+ * thread, and synced before the next one is written. When the journal grows past
+ * {@link #COMPACT_AFTER_RECORDS} records, the aggregated state is written to a snapshot
+ * (through a temporary file renamed over the previous one) and the journal is truncated. On
+ * start the snapshot is read and the journal replayed on top of it, stopping at the first
+ * torn or corrupt record. Records carry a sequence number and the snapshot the last one it
+ * includes, so a crash between writing the snapshot and truncating the journal does not
+ * replay anything twice.
+ *
+ * Reads never touch the disk: they are served from in-memory aggregates, the favorites in the
+ * order they were added and the play counts in the order tracks were last played, which are
+ * updated as soon as a change is made.
+ */
+public final class UserLibrary {
+
+    private static final String TAG = LogHelper.makeLogTag(UserLibrary.class);
+
+    private static final String JOURNAL_FILE_NAME = "library.journal";
+    private static final String SNAPSHOT_FILE_NAME = "library.snapshot";
+    private static final int MAGIC = 0x55414c42; // "UALB"
+    private static final int VERSION = 1;
+
+    // Journal records: byte type | long sequence | long trackId | long time | int crc32.
+    private static final int RECORD_BYTES = 1 + 8 + 8 + 8 + 4;
+    private static final int COMPACT_AFTER_RECORDS = 500;
+
+    // Tracks whose play count is remembered; the least recently played are forgotten first.
+    private static final int MAX_HISTORY = 1000;
+
+    private static final byte FAVORITE_ADDED = 1;
+    private static final byte FAVORITE_REMOVED = 2;
+    private static final byte PLAYED = 3;
+
+    /**
+     * Listener notified on the main thread when the library changes, including when the stored
+     * library finished loading.
+     */
+    public interface OnLibraryChangedListener {
+        /**
+         * @param favoritesChanged true if the favorite tracks changed.
+         * @param historyChanged true if the recently or most played tracks changed.
+         */
+        void onLibraryChanged(boolean favoritesChanged, boolean historyChanged);
+    }
+
+    private final File mDir;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final List<OnLibraryChangedListener> mListeners = new CopyOnWriteArrayList<>();
+    // Journal writes and compactions, in the order changes were made.
+    private final ExecutorService mDiskExecutor = Executors.newSingleThreadExecutor();
+
+    // Guarded by this. State seen by readers, and changes made before the stored library was
+    // loaded, which are replayed over it; null once loaded.
+    private Aggregates mLive = new Aggregates();
+    private List<Event> mPendingEvents = new ArrayList<>();
+
+    // Only accessed on the disk thread. State written to disk so far, and the journal.
+    private Aggregates mDurable;
+    private RandomAccessFile mJournal;
+    private long mNextSequence;
+    private int mJournalRecords;
+
+    /**
+     * @param dir directory where the library is stored, or null to keep it in memory only.
+     */
+    public UserLibrary(File dir) {
+        mDir = dir;
+        mDiskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    public void addOnLibraryChangedListener(OnLibraryChangedListener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeOnLibraryChangedListener(OnLibraryChangedListener listener) {
+        mListeners.remove(listener);
+    }
+
+    public synchronized boolean isFavorite(long trackId) {
+        return mLive.favorites.containsKey(trackId);
+    }
+
+    public void setFavorite(long trackId, boolean favorite) {
+        record(favorite ? FAVORITE_ADDED : FAVORITE_REMOVED, trackId);
+    }
+
+    /**
+     * Count a play of the track, and make it the most recently played one.
+     */
+    public void recordPlay(long trackId) {
+        record(PLAYED, trackId);
+    }
+
+    /**
+     * @return the {@link TrackId}s of the favorite tracks, most recently added first.
+     */
+    public synchronized long[] getFavorites() {
+        return reversed(mLive.favorites.keySet(), mLive.favorites.size());
+    }
+
+    /**
+     * @return the {@link TrackId}s of the last played tracks, most recent first.
+     */
+    public synchronized long[] getRecentlyPlayed(int limit) {
+        return reversed(mLive.plays.keySet(), limit);
+    }
+
+    /**
+     * @return the {@link TrackId}s of the most played tracks, most played first.
+     */
+    public synchronized long[] getMostPlayed(int limit) {
+        long[] mostPlayed = mLive.getMostPlayed();
+        return mostPlayed.length <= limit ? mostPlayed.clone()
+                : Arrays.copyOf(mostPlayed, limit);
+    }
+
+    private void record(byte type, long trackId) {
+        final Event event = new Event(type, trackId, System.currentTimeMillis());
+        synchronized (this) {
+            if (type != PLAYED
+                    && mLive.favorites.containsKey(trackId) == (type == FAVORITE_ADDED)) {
+                return;
+            }
+            mLive.apply(event);
+            if (mPendingEvents != null) {
+                mPendingEvents.add(event);
+            }
+            // Queued under the lock, so the journal has the changes in the order they were
+            // applied.
+            mDiskExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    append(event);
+                }
+            });
+        }
+        notifyChanged(type != PLAYED, type == PLAYED);
+    }
+
+    private void notifyChanged(final boolean favoritesChanged, final boolean historyChanged) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (OnLibraryChangedListener listener : mListeners) {
+                    listener.onLibraryChanged(favoritesChanged, historyChanged);
+                }
+            }
+        });
+    }
+
+    private void load() {
+        Aggregates durable = new Aggregates();
+        long lastSequence = mDir == null ? 0 : readSnapshot(durable);
+        if (mDir != null) {
+            try {
+                mJournal = new RandomAccessFile(new File(mDir, JOURNAL_FILE_NAME), "rw");
+                lastSequence = replayJournal(durable, lastSequence);
+            } catch (IOException e) {
+                LogHelper.w(TAG, e, "Could not open the library journal, changes will be lost");
+                closeJournal();
+            }
+        }
+        mDurable = durable;
+        mNextSequence = lastSequence + 1;
+
+        synchronized (this) {
+            Aggregates live = durable.copy();
+            for (Event event : mPendingEvents) {
+                live.apply(event);
+            }
+            mLive = live;
+            mPendingEvents = null;
+        }
+        LogHelper.d(TAG, "Loaded library: ", durable.favorites.size(), " favorites, ",
+                durable.plays.size(), " played tracks, ", mJournalRecords, " journal records");
+        notifyChanged(true, true);
+    }
+
+    /**
+     * @return the sequence number of the last change included in the snapshot, or 0.
+     */
+    private long readSnapshot(Aggregates into) {
+        File file = new File(mDir, SNAPSHOT_FILE_NAME);
+        if (!file.isFile()) {
+            return 0;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                LogHelper.w(TAG, "Ignoring library snapshot with unknown format: ", file);
+                return 0;
+            }
+            long lastSequence = in.readLong();
+            Aggregates state = new Aggregates();
+            int favorites = in.readInt();
+            for (int i = 0; i < favorites; i++) {
+                state.favorites.put(in.readLong(), in.readLong());
+            }
+            int plays = in.readInt();
+            for (int i = 0; i < plays; i++) {
+                long trackId = in.readLong();
+                state.plays.put(trackId, new PlayCount(in.readInt(), in.readLong()));
+            }
+            into.favorites.putAll(state.favorites);
+            into.plays.putAll(state.plays);
+            return lastSequence;
+        } catch (IOException e) {
+            LogHelper.w(TAG, e, "Could not read library snapshot");
+            return 0;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply the journal records written after the snapshot, and cut the journal after the
+     * last valid record so new records are not written after a torn one.
+     *
+     * @return the sequence number of the last change applied.
+     */
+    private long replayJournal(Aggregates into, long lastSequence) throws IOException {
+        long length = mJournal.length();
+        byte[] bytes = new byte[(int) Math.min(length, Integer.MAX_VALUE)];
+        mJournal.seek(0);
+        mJournal.readFully(bytes);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        CRC32 crc = new CRC32();
+        int valid = 0;
+        while (buffer.remaining() >= RECORD_BYTES) {
+            int start = buffer.position();
+            crc.reset();
+            crc.update(bytes, start, RECORD_BYTES - 4);
+            byte type = buffer.get();
+            long sequence = buffer.getLong();
+            long trackId = buffer.getLong();
+            long time = buffer.getLong();
+            if (buffer.getInt() != (int) crc.getValue() || type < FAVORITE_ADDED
+                    || type > PLAYED) {
+                break;
+            }
+            if (sequence > lastSequence) {
+                into.apply(new Event(type, trackId, time));
+                lastSequence = sequence;
+            }
+            valid++;
+        }
+        long validLength = (long) valid * RECORD_BYTES;
+        if (validLength < length) {
+            LogHelper.w(TAG, "Dropping ", length - validLength,
+                    " bytes after the last valid library journal record");
+            mJournal.setLength(validLength);
+        }
+        mJournal.seek(validLength);
+        mJournalRecords = valid;
+        return lastSequence;
+    }
+
+    private void append(Event event) {
+        mDurable.apply(event);
+        if (mJournal == null) {
+            return;
+        }
+        long sequence = mNextSequence++;
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_BYTES);
+        buffer.put(event.type).putLong(sequence).putLong(event.trackId).putLong(event.time);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, RECORD_BYTES - 4);
+        buffer.putInt((int) crc.getValue());
+        try {
+            mJournal.write(buffer.array());
+            mJournal.getFD().sync();
+        } catch (IOException e) {
+            LogHelper.w(TAG, e, "Could not append to the library journal");
+            return;
+        }
+        if (++mJournalRecords >= COMPACT_AFTER_RECORDS) {
+            compact(sequence);
+        }
+    }
+
+    /**
+     * Write the durable state to a new snapshot, then empty the journal.
+     */
+    private void compact(long lastSequence) {
+        File file = new File(mDir, SNAPSHOT_FILE_NAME);
+        File tmp = new File(mDir, SNAPSHOT_FILE_NAME + ".tmp");
+        DataOutputStream out = null;
+        try {
+            FileOutputStream fos = new FileOutputStream(tmp);
+            out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(lastSequence);
+            out.writeInt(mDurable.favorites.size());
+            for (Map.Entry<Long, Long> favorite : mDurable.favorites.entrySet()) {
+                out.writeLong(favorite.getKey());
+                out.writeLong(favorite.getValue());
+            }
+            out.writeInt(mDurable.plays.size());
+            for (Map.Entry<Long, PlayCount> play : mDurable.plays.entrySet()) {
+                out.writeLong(play.getKey());
+                out.writeInt(play.getValue().count);
+                out.writeLong(play.getValue().lastPlayed);
+            }
+            out.flush();
+            fos.getFD().sync();
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                LogHelper.w(TAG, "Could not rename library snapshot to ", file);
+                return;
+            }
+            // Records up to lastSequence are skipped on replay, so a crash before the
+            // truncation loses nothing.
+            mJournal.setLength(0);
+            mJournal.getFD().sync();
+            LogHelper.d(TAG, "Compacted ", mJournalRecords, " library journal records");
+            mJournalRecords = 0;
+        } catch (IOException e) {
+            LogHelper.w(TAG, e, "Could not compact the library journal");
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private void closeJournal() {
+        if (mJournal != null) {
+            try {
+                mJournal.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            mJournal = null;
+        }
+    }
+
+    private static long[] reversed(Iterable<Long> ids, int limit) {
+        List<Long> all = new ArrayList<>();
+        for (Long id : ids) {
+            all.add(id);
+        }
+        long[] result = new long[Math.min(limit, all.size())];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = all.get(all.size() - 1 - i);
+        }
+        return result;
+    }
+
+    private static final class Event {
+        final byte type;
+        final long trackId;
+        final long time;
+
+        Event(byte type, long trackId, long time) {
+            this.type = type;
+            this.trackId = trackId;
+            this.time = time;
+        }
+    }
+
+    private static final class PlayCount {
+        int count;
+        long lastPlayed;
+
+        PlayCount(int count, long lastPlayed) {
+            this.count = count;
+            this.lastPlayed = lastPlayed;
+        }
+    }
+
+    /**
+     * Favorites and play counts folded from the changes, the form in which they are served and
+     * stored in the snapshot.
+     */
+    private static final class Aggregates {
+        // Favorite tracks and when they were added, oldest first.
+        final Map<Long, Long> favorites = new LinkedHashMap<>();
+        // Play counts of the last MAX_HISTORY played tracks, least recently played first.
+        final Map<Long, PlayCount> plays = new LinkedHashMap<Long, PlayCount>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, PlayCount> eldest) {
+                return size() > MAX_HISTORY;
+            }
+        };
+        // Track ids sorted by play count, or null when a play was recorded since.
+        private long[] mMostPlayed;
+
+        void apply(Event event) {
+            switch (event.type) {
+                case FAVORITE_ADDED:
+                    favorites.remove(event.trackId);
+                    favorites.put(event.trackId, event.time);
+                    break;
+                case FAVORITE_REMOVED:
+                    favorites.remove(event.trackId);
+                    break;
+                case PLAYED:
+                    // Removed and put back, so the track moves to the end of the history.
+                    PlayCount play = plays.remove(event.trackId);
+                    if (play == null) {
+                        play = new PlayCount(0, 0);
+                    }
+                    play.count++;
+                    play.lastPlayed = event.time;
+                    plays.put(event.trackId, play);
+                    mMostPlayed = null;
+                    break;
+            }
+        }
+
+        long[] getMostPlayed() {
+            if (mMostPlayed == null) {
+                List<Map.Entry<Long, PlayCount>> entries = new ArrayList<>(plays.entrySet());
+                Collections.sort(entries, MOST_PLAYED_FIRST);
+                long[] mostPlayed = new long[entries.size()];
+                for (int i = 0; i < mostPlayed.length; i++) {
+                    mostPlayed[i] = entries.get(i).getKey();
+                }
+                mMostPlayed = mostPlayed;
+            }
+            return mMostPlayed;
+        }
+
+        Aggregates copy() {
+            Aggregates copy = new Aggregates();
+            copy.favorites.putAll(favorites);
+            for (Map.Entry<Long, PlayCount> play : plays.entrySet()) {
+                copy.plays.put(play.getKey(),
+                        new PlayCount(play.getValue().count, play.getValue().lastPlayed));
+            }
+            return copy;
+        }
+    }
+
+    private static final Comparator<Map.Entry<Long, PlayCount>> MOST_PLAYED_FIRST =
+            new Comparator<Map.Entry<Long, PlayCount>>() {
+        @Override
+        public int compare(Map.Entry<Long, PlayCount> lhs, Map.Entry<Long, PlayCount> rhs) {
+            if (lhs.getValue().count != rhs.getValue().count) {
+                return lhs.getValue().count > rhs.getValue().count ? -1 : 1;
+            }
+            // Ties go to the most recently played.
+            return lhs.getValue().lastPlayed > rhs.getValue().lastPlayed ? -1
+                    : lhs.getValue().lastPlayed == rhs.getValue().lastPlayed ? 0 : 1;
+        }
+    };
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.proxy;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.media.MediaMetadata;
+import android.os.Build;
+
+import com.example.android.uamp.model.MusicProvider;
+import com.example.android.uamp.model.TrackId;
+import com.example.android.uamp.save.DownloadIndex;
+import com.example.android.uamp.utils.LogHelper;
+import com.example.android.uamp.utils.NetworkHelper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Downloads the first seconds of the tracks played next into the {@link StreamProxy} cache
+ * while the current track plays, so the player starts them from the cache instead of waiting
+ * for a new connection and its first buffer.
+ *
+ * How many tracks, and how many seconds of each, depends on the network: more on an unmetered
+ * one, less on a mobile one, none when roaming. Prefetches run one at a time, in queue order,
+ * and are cancelled when the tracks coming next change.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public final class Prefetcher {
+
+    private static final String TAG = LogHelper.makeLogTag(Prefetcher.class);
+
+    /**
+     * Most tracks prefetched at once.
+     */
+    public static final int MAX_TRACKS = 2;
+
+    // Tracks prefetched, and seconds of each, on an unmetered network.
+    private static final int UNMETERED_TRACKS = MAX_TRACKS;
+    private static final int UNMETERED_SECONDS = 30;
+    // On a metered network.
+    private static final int METERED_TRACKS = 1;
+    private static final int METERED_SECONDS = 10;
+
+    private final Context mContext;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    // Sources being prefetched, and the flag cancelling them.
+    private List<String> mSources = Collections.emptyList();
+    private AtomicBoolean mCancelled = new AtomicBoolean();
+
+    public Prefetcher(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Prefetch the start of the tracks played next, cancelling the prefetch of any other track.
+     * Called on the main thread, each time the next tracks may have changed.
+     *
+     * @param tracks played next, the first first. Only the first ones are prefetched.
+     */
+    public void prefetch(List<MediaMetadata> tracks) {
+        final int seconds;
+        int count;
+        if (NetworkHelper.isUnmetered(mContext)) {
+            count = UNMETERED_TRACKS;
+            seconds = UNMETERED_SECONDS;
+        } else if (NetworkHelper.isOnline(mContext) && !NetworkHelper.isRoaming(mContext)) {
+            count = METERED_TRACKS;
+            seconds = METERED_SECONDS;
+        } else {
+            cancel();
+            return;
+        }
+        final List<String> sources = new ArrayList<>();
+        final List<Long> durations = new ArrayList<>();
+        DownloadIndex downloads = DownloadIndex.getInstance(mContext);
+        for (MediaMetadata track : tracks) {
+            if (sources.size() == count) {
+                break;
+            }
+            if (downloads.getFile(TrackId.parse(
+                    track.getString(MediaMetadata.METADATA_KEY_MEDIA_ID))) != null) {
+                // Played from its downloaded file.
+                continue;
+            }
+            String source = track.getString(MusicProvider.CUSTOM_METADATA_TRACK_SOURCE);
+            if (source != null && source.startsWith("http") && !sources.contains(source)) {
+                sources.add(source);
+                durations.add(track.getLong(MediaMetadata.METADATA_KEY_DURATION));
+            }
+        }
+        if (sources.equals(mSources)) {
+            // Already prefetching them.
+            return;
+        }
+        cancel();
+        final StreamProxy proxy = StreamProxy.getInstance(mContext);
+        if (proxy == null || sources.isEmpty()) {
+            return;
+        }
+        mSources = sources;
+        final AtomicBoolean cancelled = mCancelled;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < sources.size() && !cancelled.get(); i++) {
+                    try {
+                        long bytes = proxy.prefetch(sources.get(i), durations.get(i), seconds,
+                                cancelled);
+                        LogHelper.d(TAG, "Prefetched ", bytes, " bytes of ", sources.get(i));
+                    } catch (IOException e) {
+                        // The player downloads it when it plays it.
+                        LogHelper.w(TAG, "Could not prefetch ", sources.get(i), ": ",
+                                e.getMessage());
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop the prefetches in progress.
+     */
+    public void cancel() {
+        mCancelled.set(true);
+        mCancelled = new AtomicBoolean();
+        mSources = Collections.emptyList();
+    }
+}
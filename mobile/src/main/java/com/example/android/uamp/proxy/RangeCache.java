@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.proxy;
+
+import com.example.android.uamp.utils.LogHelper;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded on-disk cache of the bytes of streamed tracks.
+ *
+ * Each stream is cut in chunks of {@link #CHUNK_SIZE} bytes, stored one per file in a directory
+ * named after a hash of the stream URL, along with the length of the stream. Only whole chunks
+ * are stored, the last one of a stream being shorter, so a chunk file is either complete or
+ * absent and any byte range is served from the chunks it spans. When the cache grows over its
+ * size, the least recently used chunks are deleted, whatever stream they belong to.
+ *
+ * The files stay between runs of the process, and {@link #load()} indexes them again. Past
+ * that, the lock is only held over the index in memory: files are read, written and touched
+ * outside of it, and a length file is replaced through a rename so it is never seen half
+ * written.
+ *
+ * Thread safe: the connections of the proxy read and write it concurrently.
+ */
+final class RangeCache {
+
+    private static final String TAG = LogHelper.makeLogTag(RangeCache.class);
+
+    static final int CHUNK_SIZE = 256 * 1024;
+
+    private static final String LENGTH_FILE = "length";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File mDir;
+    private final long mMaxBytes;
+    // Chunk files in access order, least recently used first, with their size.
+    private final LinkedHashMap<File, Long> mChunks = new LinkedHashMap<>(64, 0.75f, true);
+    private long mSize;
+    // Length of each stream, by key.
+    private final Map<String, Long> mLengths = new HashMap<>();
+
+    RangeCache(File dir, long maxBytes) {
+        mDir = dir;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Index the chunks stored by a previous run. Called once, before the cache is used, off
+     * the main thread.
+     */
+    synchronized void load() {
+        List<File> chunks = new ArrayList<>();
+        File[] entries = mDir.listFiles();
+        if (entries != null) {
+            for (File entry : entries) {
+                File[] files = entry.listFiles();
+                if (files == null) {
+                    continue;
+                }
+                for (File file : files) {
+                    if (file.getName().endsWith(TEMP_SUFFIX)) {
+                        // Left by a download or a length write that did not finish.
+                        file.delete();
+                    } else if (file.getName().equals(LENGTH_FILE)) {
+                        long length = readLength(file);
+                        if (length >= 0) {
+                            mLengths.put(entry.getName(), length);
+                        }
+                    } else {
+                        chunks.add(file);
+                    }
+                }
+            }
+        }
+        final Map<File, Long> lastModified = new HashMap<>();
+        for (File chunk : chunks) {
+            lastModified.put(chunk, chunk.lastModified());
+        }
+        Collections.sort(chunks, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lastModified.get(lhs);
+                long r = lastModified.get(rhs);
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (File chunk : chunks) {
+            long size = chunk.length();
+            mChunks.put(chunk, size);
+            mSize += size;
+        }
+        trim();
+        LogHelper.i(TAG, "Stream cache holds ", mChunks.size(), " chunks, ", mSize, " bytes");
+    }
+
+    /**
+     * @return the name the cached bytes of a stream are stored under.
+     */
+    static String keyOf(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(url.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * @return the length of a stream in bytes, or -1 if it is not known yet.
+     */
+    synchronized long getLength(String key) {
+        Long length = mLengths.get(key);
+        return length != null ? length : -1;
+    }
+
+    void setLength(String key, long length) {
+        synchronized (this) {
+            Long previous = mLengths.put(key, length);
+            if (previous != null && previous == length) {
+                return;
+            }
+        }
+        File entry = new File(mDir, key);
+        entry.mkdirs();
+        File temp = null;
+        FileWriter writer = null;
+        try {
+            // A file of its own per write, so concurrent writes of a length do not mix.
+            temp = File.createTempFile(LENGTH_FILE, TEMP_SUFFIX, entry);
+            writer = new FileWriter(temp);
+            writer.write(Long.toString(length));
+            writer.close();
+            writer = null;
+            if (!temp.renameTo(new File(entry, LENGTH_FILE))) {
+                throw new IOException("Could not rename " + temp);
+            }
+        } catch (IOException e) {
+            LogHelper.w(TAG, e, "Could not write the length of ", key);
+            if (temp != null) {
+                temp.delete();
+            }
+        } finally {
+            closeQuietly(writer);
+        }
+    }
+
+    /**
+     * @return the file of a cached chunk, now the most recently used, or null if the chunk is
+     * not cached.
+     */
+    File getChunk(String key, long index) {
+        File chunk = new File(new File(mDir, key), Long.toString(index));
+        synchronized (this) {
+            if (mChunks.get(chunk) == null) {
+                return null;
+            }
+        }
+        // Keeps the order of use for the next run. Harmless if the chunk was evicted meanwhile.
+        chunk.setLastModified(System.currentTimeMillis());
+        return chunk;
+    }
+
+    /**
+     * @return a new file to download a chunk of a stream to, before {@link #putChunk}.
+     */
+    File newChunkFile(String key) throws IOException {
+        File entry = new File(mDir, key);
+        entry.mkdirs();
+        return File.createTempFile("chunk", TEMP_SUFFIX, entry);
+    }
+
+    /**
+     * Store a chunk downloaded completely to a file from {@link #newChunkFile}.
+     */
+    synchronized void putChunk(String key, long index, File downloaded) {
+        File chunk = new File(new File(mDir, key), Long.toString(index));
+        if (!downloaded.renameTo(chunk)) {
+            LogHelper.w(TAG, "Could not store chunk ", index, " of ", key);
+            downloaded.delete();
+            return;
+        }
+        long size = chunk.length();
+        Long previous = mChunks.put(chunk, size);
+        mSize += size - (previous != null ? previous : 0);
+        trim();
+    }
+
+    private static long readLength(File file) {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(file));
+            return Long.parseLong(reader.readLine());
+        } catch (IOException | NumberFormatException e) {
+            LogHelper.w(TAG, e, "Could not read ", file);
+            return -1;
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<File, Long>> it = mChunks.entrySet().iterator();
+        while (mSize > mMaxBytes && it.hasNext()) {
+            Map.Entry<File, Long> eldest = it.next();
+            // A connection still reading the file keeps it open until it is done.
+            eldest.getKey().delete();
+            mSize -= eldest.getValue();
+            it.remove();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
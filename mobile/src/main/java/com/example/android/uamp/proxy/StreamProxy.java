@@ -0,0 +1,560 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.proxy;
+
+import android.content.Context;
+
+import com.example.android.uamp.utils.HttpHelper;
+import com.example.android.uamp.utils.LogHelper;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HTTP server on localhost that {@link android.media.MediaPlayer} streams tracks through, so the
+ * bytes of a track are downloaded once.
+ *
+ * The proxy answers the requests of the player, including Range requests sent when seeking,
+ * from the chunks of the stream in its {@link RangeCache}. Cached chunks are sent with
+ * {@link FileChannel#transferTo}, which copies the file to the socket in the kernel. A missing
+ * chunk is downloaded whole, written to the cache as it is sent to the player. Replaying a
+ * track, seeking back, or playing it again after the process was killed reads the cache.
+ *
+ * The {@link Prefetcher} also fills the cache ahead of playback, with the start of the tracks
+ * that are played next.
+ *
+ * Only the sources handed out by {@link #getProxyUrl} are served, so other apps cannot use the
+ * proxy to reach arbitrary URLs.
+ */
+public final class StreamProxy {
+
+    private static final String TAG = LogHelper.makeLogTag(StreamProxy.class);
+
+    private static final String CACHE_DIR = "streams";
+    private static final long CACHE_MAX_BYTES = 256L * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    // Sent until the server of a stream tells its type, which is never for a stream that is
+    // only read from the cache: the catalogs stream MP3.
+    private static final String DEFAULT_CONTENT_TYPE = "audio/mpeg";
+    // Bit rate assumed to prefetch a track whose duration is unknown: 320 kbps.
+    private static final int DEFAULT_BYTES_PER_SECOND = 40000;
+
+    private static StreamProxy sInstance;
+
+    private final RangeCache mCache;
+    private final ServerSocketChannel mServer;
+    private final ExecutorService mConnectionExecutor = Executors.newCachedThreadPool();
+    // Sources handed out by getProxyUrl, by cache key.
+    private final ConcurrentHashMap<String, Source> mSources = new ConcurrentHashMap<>();
+
+    private final AtomicLong mBytesFromCache = new AtomicLong();
+    private final AtomicLong mBytesFromNetwork = new AtomicLong();
+
+    /**
+     * @return the proxy, started on first use, or null if it could not start.
+     */
+    public static synchronized StreamProxy getInstance(Context context) {
+        if (sInstance == null) {
+            File dir = new File(context.getApplicationContext().getCacheDir(), CACHE_DIR);
+            try {
+                sInstance = new StreamProxy(new RangeCache(dir, CACHE_MAX_BYTES));
+            } catch (IOException e) {
+                LogHelper.e(TAG, e, "Could not start the stream proxy");
+                return null;
+            }
+        }
+        return sInstance;
+    }
+
+    private StreamProxy(RangeCache cache) throws IOException {
+        mCache = cache;
+        mServer = ServerSocketChannel.open();
+        mServer.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mCache.load();
+                acceptConnections();
+            }
+        }, "StreamProxy");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        LogHelper.i(TAG, "Stream proxy listening on port ", mServer.socket().getLocalPort());
+    }
+
+    /**
+     * @return the URL the player opens to play a source: remote streams go through the proxy,
+     * which serves them from then on, anything else, like a file, is returned as is.
+     */
+    public String getProxyUrl(String source) {
+        if (source == null || !(source.startsWith("http://") || source.startsWith("https://"))) {
+            return source;
+        }
+        String key = RangeCache.keyOf(source);
+        if (!mSources.containsKey(key)) {
+            mSources.putIfAbsent(key, new Source(source));
+        }
+        // The key makes the path look like a file to the player.
+        return "http://127.0.0.1:" + mServer.socket().getLocalPort() + "/" + key;
+    }
+
+    /**
+     * @return the part of the bytes sent to the player that were read from the cache, or 0
+     * if none was sent yet.
+     */
+    public float getCacheHitRatio() {
+        long cached = mBytesFromCache.get();
+        long total = cached + mBytesFromNetwork.get();
+        return total == 0 ? 0 : (float) cached / total;
+    }
+
+    /**
+     * @return the number of bytes sent to the player from the cache instead of the network.
+     */
+    public long getBytesSaved() {
+        return mBytesFromCache.get();
+    }
+
+    private void acceptConnections() {
+        while (true) {
+            final SocketChannel client;
+            try {
+                client = mServer.accept();
+            } catch (IOException e) {
+                LogHelper.e(TAG, e, "Stream proxy stopped");
+                return;
+            }
+            mConnectionExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        serve(client);
+                    } catch (IOException e) {
+                        // Usually the player closing the connection to seek or stop.
+                        LogHelper.d(TAG, "Connection ended: ", e.getMessage());
+                    } finally {
+                        closeQuietly(client);
+                    }
+                    LogHelper.d(TAG, "Stream cache hit ratio ", getCacheHitRatio(),
+                            ", bytes saved ", getBytesSaved());
+                }
+            });
+        }
+    }
+
+    private void serve(SocketChannel client) throws IOException {
+        // Only the request line and headers are read: a GET has no body.
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                Channels.newInputStream(client), "ISO-8859-1"));
+        String requestLine = reader.readLine();
+        long rangeStart = -1;
+        long rangeEnd = -1;
+        String header;
+        while ((header = reader.readLine()) != null && !header.isEmpty()) {
+            if (header.regionMatches(true, 0, "Range:", 0, 6)) {
+                String range = header.substring(6).trim();
+                if (range.startsWith("bytes=")) {
+                    int dash = range.indexOf('-');
+                    try {
+                        rangeStart = Long.parseLong(range.substring(6, dash).trim());
+                        String end = range.substring(dash + 1).trim();
+                        rangeEnd = end.isEmpty() ? -1 : Long.parseLong(end);
+                    } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                        // Suffix or multiple ranges, which players do not send: send it all.
+                        rangeStart = -1;
+                        rangeEnd = -1;
+                    }
+                }
+            }
+        }
+        String key = parseKey(requestLine);
+        if (key == null) {
+            writeStatus(client, "400 Bad Request");
+            return;
+        }
+        Source source = mSources.get(key);
+        if (source == null) {
+            writeStatus(client, "403 Forbidden");
+            return;
+        }
+
+        String url = source.mUrl;
+        long start = Math.max(0, rangeStart);
+        long length = mCache.getLength(key);
+        Upstream upstream = null;
+        try {
+            if (length < 0) {
+                upstream = new Upstream(url, chunkStart(start), null);
+                source.onResponse(upstream);
+                length = upstream.mLength;
+                if (length < 0) {
+                    // A live stream, or a server that does not tell: nothing to cache.
+                    upstream.skipTo(start);
+                    writeHeaders(client, "200 OK", source.mContentType, -1, null);
+                    upstream.pipeTo(client);
+                    return;
+                }
+                mCache.setLength(key, length);
+            }
+            if (start >= length) {
+                writeStatus(client, "416 Requested Range Not Satisfiable");
+                return;
+            }
+            long end = rangeEnd < 0 ? length - 1 : Math.min(rangeEnd, length - 1);
+            if (rangeStart < 0) {
+                writeHeaders(client, "200 OK", source.mContentType, length, null);
+            } else {
+                writeHeaders(client, "206 Partial Content", source.mContentType,
+                        end - start + 1, "bytes " + start + "-" + end + "/" + length);
+            }
+
+            long position = start;
+            while (position <= end) {
+                long index = position / RangeCache.CHUNK_SIZE;
+                long chunkStart = index * RangeCache.CHUNK_SIZE;
+                long chunkLength = Math.min(RangeCache.CHUNK_SIZE, length - chunkStart);
+                long offset = position - chunkStart;
+                long count = Math.min(chunkLength - offset, end + 1 - position);
+                File chunk = mCache.getChunk(key, index);
+                if (chunk != null && sendChunk(chunk, offset, count, client)) {
+                    mBytesFromCache.addAndGet(count);
+                } else {
+                    if (upstream == null || upstream.mPosition != chunkStart) {
+                        closeQuietly(upstream);
+                        upstream = new Upstream(url, chunkStart, null);
+                        source.onResponse(upstream);
+                    }
+                    File downloaded = mCache.newChunkFile(key);
+                    try {
+                        upstream.teeChunk(downloaded, chunkLength, offset, count, client);
+                    } catch (IOException e) {
+                        downloaded.delete();
+                        throw e;
+                    }
+                    mCache.putChunk(key, index, downloaded);
+                    mBytesFromNetwork.addAndGet(count);
+                }
+                position += count;
+            }
+        } finally {
+            closeQuietly(upstream);
+        }
+    }
+
+    /**
+     * Download the first seconds of a stream to the cache, skipping the chunks already cached.
+     * Blocks until done.
+     *
+     * @param durationMs duration of the track, to tell how many bytes make the seconds, or 0.
+     * @param cancelled set to stop the download.
+     * @return the number of bytes downloaded.
+     */
+    long prefetch(String source, long durationMs, int seconds, AtomicBoolean cancelled)
+            throws IOException {
+        String key = RangeCache.keyOf(source);
+        long length = mCache.getLength(key);
+        long downloaded = 0;
+        Upstream upstream = null;
+        try {
+            for (long position = 0; !cancelled.get(); position += RangeCache.CHUNK_SIZE) {
+                if (length >= 0 && position >= prefetchLength(length, durationMs, seconds)) {
+                    break;
+                }
+                long index = position / RangeCache.CHUNK_SIZE;
+                if (mCache.getChunk(key, index) != null) {
+                    continue;
+                }
+                if (upstream == null || upstream.mPosition != position) {
+                    closeQuietly(upstream);
+                    upstream = new Upstream(source, position, cancelled);
+                    if (length < 0) {
+                        length = upstream.mLength;
+                        if (length < 0) {
+                            // Not cacheable, see serve().
+                            break;
+                        }
+                        mCache.setLength(key, length);
+                        if (position >= prefetchLength(length, durationMs, seconds)) {
+                            break;
+                        }
+                    }
+                }
+                long chunkLength = Math.min(RangeCache.CHUNK_SIZE, length - position);
+                File file = mCache.newChunkFile(key);
+                try {
+                    upstream.teeChunk(file, chunkLength, 0, 0, null);
+                } catch (IOException e) {
+                    file.delete();
+                    throw e;
+                }
+                mCache.putChunk(key, index, file);
+                downloaded += chunkLength;
+            }
+        } finally {
+            closeQuietly(upstream);
+        }
+        return downloaded;
+    }
+
+    private static long prefetchLength(long length, long durationMs, int seconds) {
+        long bytes = durationMs > 0 ? length * seconds * 1000 / durationMs
+                : (long) seconds * DEFAULT_BYTES_PER_SECOND;
+        return Math.min(length, bytes);
+    }
+
+    /**
+     * Send part of a cached chunk without copying it through the Java heap.
+     *
+     * @return false if the chunk was evicted before it could be opened.
+     */
+    private static boolean sendChunk(File chunk, long offset, long count, SocketChannel client)
+            throws IOException {
+        FileInputStream in;
+        try {
+            in = new FileInputStream(chunk);
+        } catch (IOException e) {
+            return false;
+        }
+        try {
+            FileChannel channel = in.getChannel();
+            long sent = 0;
+            while (sent < count) {
+                long n = channel.transferTo(offset + sent, count - sent, client);
+                if (n <= 0 && offset + sent >= channel.size()) {
+                    throw new IOException("Cached chunk is truncated: " + chunk);
+                }
+                sent += n;
+            }
+            return true;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private static long chunkStart(long position) {
+        return position - position % RangeCache.CHUNK_SIZE;
+    }
+
+    /**
+     * @return the cache key in the path of a proxy request line, or null.
+     */
+    private static String parseKey(String requestLine) {
+        if (requestLine == null || !requestLine.startsWith("GET /")) {
+            return null;
+        }
+        int end = requestLine.indexOf(' ', 5);
+        int query = requestLine.indexOf('?', 5);
+        if (query >= 0 && query < end) {
+            end = query;
+        }
+        return end > 5 ? requestLine.substring(5, end) : null;
+    }
+
+    private static void writeStatus(SocketChannel client, String status) throws IOException {
+        writeAscii(client, "HTTP/1.1 " + status + "\r\nContent-Length: 0\r\n"
+                + "Connection: close\r\n\r\n");
+    }
+
+    private static void writeHeaders(SocketChannel client, String status, String contentType,
+                                     long contentLength, String contentRange)
+            throws IOException {
+        StringBuilder sb = new StringBuilder("HTTP/1.1 ").append(status).append("\r\n");
+        sb.append("Content-Type: ").append(contentType).append("\r\n");
+        sb.append("Accept-Ranges: bytes\r\n");
+        if (contentLength >= 0) {
+            sb.append("Content-Length: ").append(contentLength).append("\r\n");
+        }
+        if (contentRange != null) {
+            sb.append("Content-Range: ").append(contentRange).append("\r\n");
+        }
+        sb.append("Connection: close\r\n\r\n");
+        writeAscii(client, sb.toString());
+    }
+
+    private static void writeAscii(SocketChannel client, String text) throws IOException {
+        writeFully(client, ByteBuffer.wrap(text.getBytes("ISO-8859-1")));
+    }
+
+    private static void writeFully(SocketChannel client, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            client.write(buffer);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * A stream the player may request, with the type its server last reported.
+     */
+    private static final class Source {
+        final String mUrl;
+        volatile String mContentType = DEFAULT_CONTENT_TYPE;
+
+        Source(String url) {
+            mUrl = url;
+        }
+
+        void onResponse(Upstream upstream) {
+            String contentType = upstream.mResponse.header("Content-Type");
+            if (contentType != null) {
+                mContentType = contentType;
+            }
+        }
+    }
+
+    /**
+     * A download of a stream from some position, read sequentially.
+     */
+    private static final class Upstream implements Closeable {
+
+        private final Response mResponse;
+        private final InputStream mIn;
+        private final byte[] mBuffer = new byte[BUFFER_SIZE];
+        // Set to stop reading, or null.
+        private final AtomicBoolean mCancelled;
+        // Length of the whole stream, or -1 if the server does not tell.
+        final long mLength;
+        long mPosition;
+
+        Upstream(String url, long position, AtomicBoolean cancelled) throws IOException {
+            mCancelled = cancelled;
+            Request.Builder request = new Request.Builder().url(url);
+            if (position > 0) {
+                request.header("Range", "bytes=" + position + "-");
+            }
+            mResponse = HttpHelper.getStreamClient().newCall(request.build()).execute();
+            if (!mResponse.isSuccessful()) {
+                mResponse.body().close();
+                throw new IOException("Unexpected response " + mResponse.code() + " for " + url);
+            }
+            mIn = mResponse.body().byteStream();
+            if (mResponse.code() == 206) {
+                mLength = parseTotalLength(mResponse.header("Content-Range"));
+                mPosition = position;
+            } else {
+                // The server ignored the range.
+                mLength = mResponse.body().contentLength();
+                mPosition = 0;
+                skipTo(position);
+            }
+        }
+
+        void skipTo(long position) throws IOException {
+            while (mPosition < position) {
+                long skipped = mIn.skip(position - mPosition);
+                if (skipped <= 0) {
+                    throw new IOException("Stream ended before " + position);
+                }
+                mPosition += skipped;
+            }
+        }
+
+        /**
+         * Download a whole chunk to a file, sending count of its bytes from offset to the
+         * player as they arrive. The player may be null if count is 0.
+         */
+        void teeChunk(File file, long chunkLength, long offset, long count, SocketChannel client)
+                throws IOException {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                long read = 0;
+                while (read < chunkLength) {
+                    if (mCancelled != null && mCancelled.get()) {
+                        throw new InterruptedIOException("Download cancelled");
+                    }
+                    int n = mIn.read(mBuffer, 0,
+                            (int) Math.min(mBuffer.length, chunkLength - read));
+                    if (n < 0) {
+                        throw new IOException("Stream ended " + (chunkLength - read)
+                                + " bytes before the end of a chunk");
+                    }
+                    out.write(mBuffer, 0, n);
+                    // The part of [read, read + n) in [offset, offset + count).
+                    long from = Math.max(read, offset);
+                    long to = Math.min(read + n, offset + count);
+                    if (from < to) {
+                        writeFully(client, ByteBuffer.wrap(mBuffer, (int) (from - read),
+                                (int) (to - from)));
+                    }
+                    read += n;
+                    mPosition += n;
+                }
+            } finally {
+                out.close();
+            }
+        }
+
+        /**
+         * Send the rest of the stream to the player, without caching it.
+         */
+        void pipeTo(SocketChannel client) throws IOException {
+            int n;
+            while ((n = mIn.read(mBuffer)) >= 0) {
+                writeFully(client, ByteBuffer.wrap(mBuffer, 0, n));
+                mPosition += n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            mResponse.body().close();
+        }
+
+        private static long parseTotalLength(String contentRange) {
+            // bytes <first>-<last>/<total>
+            int slash = contentRange != null ? contentRange.lastIndexOf('/') : -1;
+            if (slash < 0) {
+                return -1;
+            }
+            try {
+                return Long.parseLong(contentRange.substring(slash + 1).trim());
+            } catch (NumberFormatException e) {
+                // "*" when the total is unknown.
+                return -1;
+            }
+        }
+    }
+}
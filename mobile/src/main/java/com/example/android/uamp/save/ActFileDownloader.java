@@ -5,7 +5,6 @@ import android.content.ActivityNotFoundException;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
-import android.os.Environment;
 import android.util.Log;
 import android.view.View;
 import android.view.View.OnClickListener;
@@ -92,22 +91,7 @@ public class ActFileDownloader extends BaseActivity
 
 		try {
 
-			String FolderName = "MyGeet";
-
-			String dirPath = "/storage/sdcard1/Android/data/";
-			File dir = new File(dirPath);
-			final File appDir;
-			if(dir.exists())
-			{
-				String secStore = System.getenv("SECONDARY_STORAGE");
-				appDir = new File(secStore+File.separator+ FolderName);
-
-			}
-			else
-			{
-				appDir = new File(Environment.getExternalStorageDirectory()+File.separator+FolderName);
-
-			}
+			final File appDir = MyDownloader.getDownloadDir();
 
 
 			if(appDir !=null)
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.save;
+
+import android.content.Context;
+
+import com.example.android.uamp.model.TrackId;
+import com.example.android.uamp.utils.LogHelper;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The tracks downloaded to the {@link MyDownloader} folder, by {@link TrackId}, so playback
+ * reads the file instead of streaming the track again.
+ *
+ * A download adds its track when it completes, and the index is kept across restarts in a
+ * journal of "trackId TAB path" lines appended on a background thread; an empty path removes
+ * the track. The folder itself is never scanned: a file deleted since it was downloaded is
+ * noticed when the player fails to open it, and removed then. On start the journal is
+ * replayed, and rewritten when most of its lines are outdated.
+ *
+ * Lookups never touch the disk, so they can run on the main thread.
+ */
+public final class DownloadIndex {
+
+    private static final String TAG = LogHelper.makeLogTag(DownloadIndex.class);
+
+    private static final String JOURNAL_FILE_NAME = "downloads.index";
+    // Fewer outdated lines are not worth rewriting the journal for.
+    private static final int MIN_STALE_LINES = 64;
+
+    private static DownloadIndex sInstance;
+
+    private final File mJournalFile;
+    // Journal reads and writes, in the order changes were made.
+    private final ExecutorService mDiskExecutor = Executors.newSingleThreadExecutor();
+    private final CountDownLatch mLoaded = new CountDownLatch(1);
+
+    // Guarded by this. Path of each downloaded track, and changes made before the journal was
+    // loaded, replayed over it; null once loaded.
+    private Map<Long, String> mFiles = new HashMap<>();
+    private List<Object[]> mPendingChanges = new ArrayList<>();
+
+    public static synchronized DownloadIndex getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DownloadIndex(context.getApplicationContext().getFilesDir());
+        }
+        return sInstance;
+    }
+
+    private DownloadIndex(File dir) {
+        mJournalFile = new File(dir, JOURNAL_FILE_NAME);
+        mDiskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    /**
+     * @return the file a track was downloaded to, or null if it was not downloaded. The file
+     * may have been deleted since: see {@link #onFileMissing}.
+     */
+    public synchronized File getFile(long trackId) {
+        String path = mFiles.get(trackId);
+        return path != null ? new File(path) : null;
+    }
+
+    /**
+     * Waits for the journal to be loaded, so it must not be called from the main thread.
+     *
+     * @return the track each downloaded file was saved for, by absolute path.
+     */
+    public Map<String, Long> getTrackIdsByPath() throws InterruptedException {
+        mLoaded.await();
+        Map<String, Long> trackIds = new HashMap<>();
+        synchronized (this) {
+            for (Map.Entry<Long, String> entry : mFiles.entrySet()) {
+                trackIds.put(entry.getValue(), entry.getKey());
+            }
+        }
+        return trackIds;
+    }
+
+    /**
+     * Remove a track whose downloaded file could not be opened.
+     */
+    public void onFileMissing(long trackId, File file) {
+        synchronized (this) {
+            if (!file.getAbsolutePath().equals(mFiles.get(trackId))) {
+                // Downloaded again meanwhile.
+                return;
+            }
+        }
+        LogHelper.d(TAG, "Downloaded file was deleted: ", file);
+        record(trackId, null);
+    }
+
+    /**
+     * Add a track whose download completed. Called from the download thread.
+     */
+    public void onDownloadCompleted(long trackId, File file) {
+        if (trackId == TrackId.NONE) {
+            return;
+        }
+        LogHelper.d(TAG, "Track ", trackId, " downloaded to ", file);
+        record(trackId, file.getAbsolutePath());
+    }
+
+    private void record(final long trackId, final String path) {
+        synchronized (this) {
+            apply(mFiles, trackId, path);
+            if (mPendingChanges != null) {
+                mPendingChanges.add(new Object[] {trackId, path});
+            }
+            // Queued under the lock, so the journal has the changes in the order they were
+            // applied.
+            mDiskExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    append(trackId, path);
+                }
+            });
+        }
+    }
+
+    private static void apply(Map<Long, String> files, long trackId, String path) {
+        if (path != null) {
+            files.put(trackId, path);
+        } else {
+            files.remove(trackId);
+        }
+    }
+
+    private void load() {
+        Map<Long, String> files = new HashMap<>();
+        int lines = 0;
+        if (mJournalFile.isFile()) {
+            BufferedReader reader = null;
+            try {
+                reader = new BufferedReader(new FileReader(mJournalFile));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int tab = line.indexOf('\t');
+                    long trackId = tab > 0 ? TrackId.parse(line.substring(0, tab)) : TrackId.NONE;
+                    if (trackId == TrackId.NONE) {
+                        // A line torn by a crash: only the last one can be.
+                        continue;
+                    }
+                    String path = line.substring(tab + 1);
+                    apply(files, trackId, path.isEmpty() ? null : path);
+                    lines++;
+                }
+            } catch (IOException e) {
+                LogHelper.w(TAG, e, "Could not read the download index");
+            } finally {
+                closeQuietly(reader);
+            }
+        }
+        int staleLines = lines - files.size();
+        if (staleLines > files.size() && staleLines >= MIN_STALE_LINES) {
+            compact(files);
+        }
+        synchronized (this) {
+            for (Object[] change : mPendingChanges) {
+                apply(files, (Long) change[0], (String) change[1]);
+            }
+            mFiles = files;
+            mPendingChanges = null;
+        }
+        mLoaded.countDown();
+        LogHelper.d(TAG, "Loaded download index: ", files.size(), " tracks");
+    }
+
+    private void append(long trackId, String path) {
+        Writer writer = null;
+        try {
+            writer = new FileWriter(mJournalFile, true);
+            writer.write(trackId + "\t" + (path != null ? path : "") + "\n");
+        } catch (IOException e) {
+            LogHelper.w(TAG, e, "Could not write the download index");
+        } finally {
+            closeQuietly(writer);
+        }
+    }
+
+    /**
+     * Rewrite the journal with one line per track, through a temporary file renamed over it.
+     */
+    private void compact(Map<Long, String> files) {
+        File temp = new File(mJournalFile.getPath() + ".tmp");
+        Writer writer = null;
+        try {
+            writer = new FileWriter(temp);
+            for (Map.Entry<Long, String> entry : files.entrySet()) {
+                writer.write(entry.getKey() + "\t" + entry.getValue() + "\n");
+            }
+            writer.close();
+            writer = null;
+            if (!temp.renameTo(mJournalFile)) {
+                throw new IOException("Could not rename " + temp);
+            }
+        } catch (IOException e) {
+            LogHelper.w(TAG, e, "Could not compact the download index");
+            temp.delete();
+        } finally {
+            closeQuietly(writer);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
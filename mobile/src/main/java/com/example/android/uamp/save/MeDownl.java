@@ -33,6 +33,9 @@ public abstract class MeDownl extends Observable implements Runnable{
 	/** The file name, extracted from URL */
 	protected String mFileName;
 	
+	/** The {@link com.example.android.uamp.model.TrackId} of the downloaded track */
+	protected long mTrackId;
+	
 	/** Size of the downloaded file (in bytes) */
 	protected int mFileSize;
 	
@@ -75,11 +78,12 @@ public abstract class MeDownl extends Observable implements Runnable{
 	 * @param outputFolder
 	 * @param numConnections
 	 */
-	protected MeDownl(URL url, String outputFolder, int numConnections,String filename,Context context) {
+	protected MeDownl(URL url, String outputFolder, int numConnections,String filename,long trackId,Context context) {
 		mContext = context;
 		mURL = url;
 		mOutputFolder = outputFolder;
 		mNumConnections = numConnections;
+		mTrackId = trackId;
 		
 		// Get the file name from url path
 		String fileURL = url.getFile();
@@ -160,6 +164,11 @@ public abstract class MeDownl extends Observable implements Runnable{
 	 */
 	protected void setState(int value) {
 		mState = value;
+		if (value == COMPLETED) {
+			// Playback reads the file from now on instead of streaming the track.
+			DownloadIndex.getInstance(mContext).onDownloadCompleted(mTrackId,
+					new File(mOutputFolder + mFileName));
+		}
 		stateChanged();
 	}
 	
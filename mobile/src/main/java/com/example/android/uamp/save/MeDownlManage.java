@@ -70,9 +70,9 @@ public class MeDownlManage {
 	}
 	
 	
-	public static MeDownl createDownload(URL verifiedURL, String outputFolder,int connections,String filename,Context context) {
+	public static MeDownl createDownload(URL verifiedURL, String outputFolder,int connections,String filename,long trackId,Context context) {
 		mNumConnPerDownload = connections;
-		MeDownlServer fd = new MeDownlServer(verifiedURL, outputFolder, mNumConnPerDownload,filename,context);
+		MeDownlServer fd = new MeDownlServer(verifiedURL, outputFolder, mNumConnPerDownload,filename,trackId,context);
 		mDownloadList.add(fd);
 		
 		return fd;
@@ -2,10 +2,13 @@ package com.example.android.uamp.save;
 
 import android.content.Context;
 
+import com.example.android.uamp.utils.HttpHelper;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.net.HttpURLConnection;
 import java.net.URL;
 
 
@@ -14,8 +17,8 @@ public class MeDownlServer extends MeDownl{
 	Context mContext;
 	
 	
-	public MeDownlServer(URL url, String outputFolder, int numConnections,String filename,Context context) {
-		super(url, outputFolder, numConnections,filename,context);
+	public MeDownlServer(URL url, String outputFolder, int numConnections,String filename,long trackId,Context context) {
+		super(url, outputFolder, numConnections,filename,trackId,context);
 		mContext = context;
 		
 		download();
@@ -28,22 +31,21 @@ public class MeDownlServer extends MeDownl{
 	
 	@Override
 	public void run() {
-		HttpURLConnection conn = null;
+		Response response = null;
 		try {
-			// Open connection to URL
-			conn = (HttpURLConnection)mURL.openConnection();
-			conn.setConnectTimeout(10000);
-			
-			// Connect to server
-			conn.connect();
+			// Connect to server, through the shared connection pool
+			response = HttpHelper.getDownloadClient()
+					.newCall(new Request.Builder().url(mURL).build()).execute();
 			
 			// Make sure the response code is in the 200 range.
-            if (conn.getResponseCode() / 100 != 2) {
+            if (response.code() / 100 != 2) {
                 error();
             }
             
             // Check for valid content length.
-            int contentLength = conn.getContentLength();
+            int contentLength = (int) response.body().contentLength();
+            // Only the length is needed here, release the connection for the download threads.
+            response.body().close();
             if (contentLength < 1) {
                 error();
             }
@@ -103,8 +105,11 @@ public class MeDownlServer extends MeDownl{
 			error();
 			System.out.println("===Exception====="+e.toString());
 		} finally {
-			if (conn != null)
-				conn.disconnect();
+			if (response != null) {
+				try {
+					response.body().close();
+				} catch (IOException e) {}
+			}
 		}
 	}
 	
@@ -131,24 +136,23 @@ public class MeDownlServer extends MeDownl{
 			RandomAccessFile raf = null;
 			
 			try {
-				// open Http connection to URL
-				HttpURLConnection conn = (HttpURLConnection)mURL.openConnection();
-				
 				// set the range of byte to download
 				String byteRange = mStartByte + "-" + mEndByte;
-				conn.setRequestProperty("Range", "bytes=" + byteRange);
 				System.out.println("bytes=" + byteRange);
 				
-				// connect to server
-				conn.connect();
+				// connect to server, reusing a pooled connection when there is one
+				Response response = HttpHelper.getDownloadClient().newCall(new Request.Builder()
+						.url(mURL)
+						.header("Range", "bytes=" + byteRange)
+						.build()).execute();
 				
 				// Make sure the response code is in the 200 range.
-	            if (conn.getResponseCode() / 100 != 2) {
+	            if (response.code() / 100 != 2) {
 	                error();
 	            }
 				
 				// get the input stream
-				in = new BufferedInputStream(conn.getInputStream());
+				in = new BufferedInputStream(response.body().byteStream());
 				
 				// open the output file and seek to the start location
 				raf = new RandomAccessFile(mOutputFile, "rw");
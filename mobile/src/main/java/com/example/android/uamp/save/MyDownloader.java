@@ -4,6 +4,8 @@ import android.app.Activity;
 import android.content.Context;
 import android.os.Environment;
 
+import com.example.android.uamp.model.TrackId;
+
 import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URI;
@@ -13,9 +15,35 @@ import java.net.URL;
 public class MyDownloader 
 {
 	URL url;
-	String FolderName = "MyGeet";
+	static final String FolderName = "MyGeet";
+
+	/**
+	 * Folder downloaded songs are saved to: on the SD card when there is one, else on the
+	 * primary external storage. It may not exist yet.
+	 */
+	public static File getDownloadDir()
+	{
+		if (new File("/storage/sdcard1/Android/data/").exists())
+		{
+			String secStore = System.getenv("SECONDARY_STORAGE");
+			return new File(secStore+File.separator+ FolderName);
+		}
+		return new File(Environment.getExternalStorageDirectory()+File.separator+FolderName);
+	}
 
+	/**
+	 * Download a file that is only known by its URL.
+	 */
 	public void Download(final Context context,String urlPath,final String fileName)
+	{
+		Download(context, urlPath, fileName, TrackId.fromSource(urlPath));
+	}
+
+	/**
+	 * Download a track of the catalog. Once complete, it is added to the {@link DownloadIndex}
+	 * under the given {@link TrackId}, so playback reads the file instead of streaming it.
+	 */
+	public void Download(final Context context,String urlPath,final String fileName,final long trackId)
 	{
 		System.out.println("===Download_barProgressDialog2===");
 
@@ -44,51 +72,22 @@ public class MyDownloader
 			 
 
 
-			String dirPath = "/storage/sdcard1/Android/data/";
-			File dir = new File(dirPath);
-			final File appDir;
-			if(dir.exists())
+			final File appDir = getDownloadDir();
+			if(!appDir.exists()) 
 			{
-				String secStore = System.getenv("SECONDARY_STORAGE");
-				appDir = new File(secStore+File.separator+ FolderName);
-				if(!appDir.exists()) 
-				{
-					// create empty directory
-					if (appDir.mkdirs())
-					{   
-						System.out.println("=sdcard1 folder created="+FolderName);
-					}
-					else
-					{
-						System.out.println("=sdcard1 unable to create folder="+FolderName);
-					}
+				// create empty directory
+				if (appDir.mkdirs())
+				{   
+					System.out.println("=folder created="+appDir);
 				}
 				else
 				{
-					System.out.println("=sdcard1 folder already exist="+FolderName);
+					System.out.println("=unable to create folder="+appDir);
 				}
-				
 			}
 			else
 			{
-
-				appDir = new File(Environment.getExternalStorageDirectory()+File.separator+FolderName);
-				if(!appDir.exists() ) 
-				{
-					// create empty directory
-					if (appDir.mkdirs())
-					{   
-						System.out.println("=sdcard folder created="+FolderName);
-					}
-					else
-					{
-						System.out.println("=sdcard unable to create folder="+FolderName);
-					}
-				}
-				else
-				{
-					System.out.println("=sdcard folder already exist="+FolderName);
-				}
+				System.out.println("=folder already exist="+appDir);
 			}
 
 			((Activity) context).runOnUiThread(new Runnable() {
@@ -97,7 +96,7 @@ public class MyDownloader
 					System.out.println("==folder path is ### ="+appDir.getAbsolutePath());
 
 					MeDownlManage downlManage = new MeDownlManage();
-					MeDownlManage.createDownload(url, appDir.getAbsolutePath()+"/", 5 ,fileName,context);
+					MeDownlManage.createDownload(url, appDir.getAbsolutePath()+"/", 5 ,fileName,trackId,context);
 				}
 			});
 
@@ -18,7 +18,10 @@ package com.example.android.uamp.ui;
 import android.annotation.SuppressLint;
 import android.annotation.TargetApi;
 import android.app.ActivityManager;
+import android.app.SearchManager;
 import android.content.ComponentName;
+import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.graphics.BitmapFactory;
 import android.media.MediaMetadata;
 import android.media.browse.MediaBrowser;
@@ -27,7 +30,11 @@ import android.media.session.MediaSession;
 import android.media.session.PlaybackState;
 import android.os.Build;
 import android.os.Bundle;
+import android.provider.BaseColumns;
+import android.provider.MediaStore;
 import android.support.annotation.NonNull;
+import android.support.v4.widget.CursorAdapter;
+import android.support.v4.widget.SimpleCursorAdapter;
 import android.support.v7.widget.SearchView;
 import android.util.Log;
 import android.view.Menu;
@@ -35,6 +42,7 @@ import android.view.MenuItem;
 
 import com.example.android.uamp.MusicService;
 import com.example.android.uamp.R;
+import com.example.android.uamp.model.SearchSuggestions;
 import com.example.android.uamp.utils.LogHelper;
 import com.example.android.uamp.utils.NetworkHelper;
 import com.example.android.uamp.utils.ResourceHelper;
@@ -66,6 +74,8 @@ public abstract class BaseActivity extends ActionBarCastActivity implements Medi
             ResourceHelper.getThemeColor(this, R.attr.colorPrimary, android.R.color.darker_gray));
         setTaskDescription(taskDesc);
 
+        SearchSuggestions.getInstance().loadHistory(this);
+
         // Connect a media browser just to get the media session token. There are other ways
         // this can be done, for example by sharing the session token directly.
        //
@@ -217,18 +227,53 @@ public abstract class BaseActivity extends ActionBarCastActivity implements Medi
 
     SearchView searchView;
 
+    private static final String[] SUGGESTION_COLUMNS = {
+        BaseColumns._ID, SearchManager.SUGGEST_COLUMN_TEXT_1, SearchManager.SUGGEST_COLUMN_FORMAT
+    };
+
     @Override
     public boolean onCreateOptionsMenu( Menu menu) {
         getMenuInflater().inflate( R.menu.main, menu);
 
         final MenuItem myActionMenuItem = menu.findItem( R.id.action_search);
         searchView = (SearchView) myActionMenuItem.getActionView();
+        searchView.setSuggestionsAdapter(new SimpleCursorAdapter(this,
+            android.R.layout.simple_list_item_1, null,
+            new String[] {SearchManager.SUGGEST_COLUMN_TEXT_1}, new int[] {android.R.id.text1},
+            0));
+        searchView.setOnSuggestionListener(new SearchView.OnSuggestionListener() {
+            @Override
+            public boolean onSuggestionSelect(int position) {
+                return false;
+            }
+
+            @Override
+            public boolean onSuggestionClick(int position) {
+                Cursor cursor = searchView.getSuggestionsAdapter().getCursor();
+                if (cursor == null || !cursor.moveToPosition(position)) {
+                    return false;
+                }
+                String text = cursor.getString(1);
+                int type = cursor.getInt(2);
+                if (type == SearchSuggestions.TYPE_HISTORY) {
+                    searchView.setQuery(text, true);
+                } else {
+                    playFromCatalog(text, type);
+                    if (!searchView.isIconified()) {
+                        searchView.setIconified(true);
+                    }
+                    myActionMenuItem.collapseActionView();
+                }
+                return true;
+            }
+        });
         searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
             @SuppressLint("LongLogTag")
             @Override
             public boolean onQueryTextSubmit(String query) {
                 Log.d("SearchOnQueryTextSubmit: " ,"---->"+ query);
 
+                SearchSuggestions.getInstance().recordQuery(BaseActivity.this, query);
                 setSearchSong(query);
                 if( ! searchView.isIconified()) {
                     searchView.setIconified(true);
@@ -238,13 +283,56 @@ public abstract class BaseActivity extends ActionBarCastActivity implements Medi
             }
             @Override
             public boolean onQueryTextChange(String s) {
-                // UserFeedback.show( "SearchOnQueryTextChanged: " + s);
-                return false;
+                showSuggestions(s);
+                return true;
             }
         });
         return true;
     }
 
+    private void showSuggestions(String prefix) {
+        MatrixCursor cursor = new MatrixCursor(SUGGESTION_COLUMNS);
+        int id = 0;
+        for (SearchSuggestions.Suggestion suggestion :
+                SearchSuggestions.getInstance().suggest(prefix)) {
+            cursor.addRow(new Object[] {id++, suggestion.text, suggestion.type});
+        }
+        CursorAdapter adapter = searchView.getSuggestionsAdapter();
+        adapter.changeCursor(cursor);
+    }
+
+    /**
+     * Play a suggestion coming from the catalog already loaded in the service, without
+     * fetching a new catalog from the network.
+     */
+    private void playFromCatalog(String text, int type) {
+        MediaController controller = getMediaController();
+        if (controller == null) {
+            setSearchSong(text);
+            return;
+        }
+        SearchSuggestions.getInstance().recordQuery(this, text);
+        Bundle extras = new Bundle();
+        switch (type) {
+            case SearchSuggestions.TYPE_ARTIST:
+                extras.putString(MediaStore.EXTRA_MEDIA_FOCUS,
+                    MediaStore.Audio.Artists.ENTRY_CONTENT_TYPE);
+                extras.putString(MediaStore.EXTRA_MEDIA_ARTIST, text);
+                break;
+            case SearchSuggestions.TYPE_GENRE:
+                extras.putString(MediaStore.EXTRA_MEDIA_FOCUS,
+                    MediaStore.Audio.Genres.ENTRY_CONTENT_TYPE);
+                extras.putString(MediaStore.EXTRA_MEDIA_GENRE, text);
+                break;
+            default:
+                extras.putString(MediaStore.EXTRA_MEDIA_FOCUS,
+                    MediaStore.Audio.Media.ENTRY_CONTENT_TYPE);
+                extras.putString(MediaStore.EXTRA_MEDIA_TITLE, text);
+                break;
+        }
+        controller.getTransportControls().playFromSearch(text, extras);
+    }
+
 
     private void setSearchSong(String query)
     {
@@ -42,6 +42,8 @@ import android.widget.TextView;
 import com.example.android.uamp.AlbumArtCache;
 import com.example.android.uamp.MusicService;
 import com.example.android.uamp.R;
+import com.example.android.uamp.model.MusicProvider;
+import com.example.android.uamp.model.TrackId;
 import com.example.android.uamp.save.MyDownloader;
 import com.example.android.uamp.utils.LogHelper;
 
@@ -150,16 +152,19 @@ public class FullScreenPlayerActivity extends ActionBarCastActivity {
         tvSave.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                Log.i("=Click path is=","==Url=>>"+tvSave.getTag().toString());
-                String strSaveLink = "";//= tvSave.getTag().toString();
-                if(tvSave.getTag().toString() !=null && tvSave.getTag().toString().contains("stream-2070786681"))
-                {
-                     strSaveLink  = tvSave.getTag().toString();
-                    String strData = strSaveLink.replaceAll("stream-2070786681","stream");
-                    strSaveLink = strData;
-                    Log.i("=Click path is=","==final Url=>>"+strSaveLink);
+                MediaMetadata track = (MediaMetadata) tvSave.getTag();
+                if (track == null) {
+                    return;
                 }
-                setSaveSong(strSaveLink + "?client_id=4f0b007dd6be94f1098f30bcd1e1a809",""+strMyFilename,".mp3");
+                // The stream URL of the track, with the client id of its catalog source.
+                String strSaveLink = track.getString(MusicProvider.CUSTOM_METADATA_TRACK_SOURCE);
+                if (strSaveLink == null || !strSaveLink.startsWith("http")) {
+                    // Already a file on the device.
+                    return;
+                }
+                Log.i("=Click path is=","==Url=>>"+strSaveLink);
+                setSaveSong(strSaveLink, ""+strMyFilename, ".mp3",
+                        TrackId.parse(track.getString(MediaMetadata.METADATA_KEY_MEDIA_ID)));
                 tvSave.setEnabled(false);
             }
         });
@@ -369,7 +374,7 @@ public class FullScreenPlayerActivity extends ActionBarCastActivity {
         try{
             if(metadata.getString(MediaMetadata.METADATA_KEY_MEDIA_ID) !=null)
             {
-                tvSave.setTag(metadata.getString(MediaMetadata.METADATA_KEY_MEDIA_ID));
+                tvSave.setTag(metadata);
                 Log.i("==Full screen===",metadata.getString(MediaMetadata.METADATA_KEY_MEDIA_ID));
             }
 
@@ -450,7 +455,7 @@ public class FullScreenPlayerActivity extends ActionBarCastActivity {
 
 
 
-  private void  setSaveSong(String urlPath,String filename, String original_format)
+  private void  setSaveSong(String urlPath,String filename, String original_format, long trackId)
   {
 
               try {
@@ -480,7 +485,7 @@ public class FullScreenPlayerActivity extends ActionBarCastActivity {
 
                         //  String urlPath = obj.stream_url + "?client_id=nnlknlkl";
                           MyDownloader downloader = new  MyDownloader();
-                          downloader.Download(FullScreenPlayerActivity.this, urlPath, filename);
+                          downloader.Download(FullScreenPlayerActivity.this, urlPath, filename, trackId);
 
                       } catch (Exception e) {
                           // TODO: handle exception
@@ -18,11 +18,12 @@ package com.example.android.uamp.utils;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
 
 public class BitmapHelper {
     private static final String TAG = LogHelper.makeLogTag(BitmapHelper.class);
@@ -63,11 +64,15 @@ public class BitmapHelper {
     @SuppressWarnings("SameParameterValue")
     public static Bitmap fetchAndRescaleBitmap(String uri, int width, int height)
             throws IOException {
-        URL url = new URL(uri);
         BufferedInputStream is = null;
         try {
-            HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-            is = new BufferedInputStream(urlConnection.getInputStream());
+            Response response = HttpHelper.getArtworkClient()
+                    .newCall(new Request.Builder().url(uri).build()).execute();
+            if (!response.isSuccessful()) {
+                response.body().close();
+                throw new IOException("Could not fetch " + uri + ", HTTP " + response.code());
+            }
+            is = new BufferedInputStream(response.body().byteStream());
             is.mark(MAX_READ_LIMIT_PER_IMG);
             int scaleFactor = findScaleFactor(width, height, is);
             LogHelper.d(TAG, "Scaling bitmap ", uri, " by factor ", scaleFactor, " to support ",
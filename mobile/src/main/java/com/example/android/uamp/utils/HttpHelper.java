@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.uamp.utils;
+
+import android.content.Context;
+
+import com.squareup.okhttp.Cache;
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.Dispatcher;
+import com.squareup.okhttp.OkHttpClient;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Application wide HTTP stack.
+ *
+ * Every subsystem gets its own {@link OkHttpClient}, with its own timeouts and
+ * {@link Dispatcher}, but they all share one connection pool, so keep-alive connections and TLS
+ * sessions to the same host are reused across the catalog, artwork and downloads. Catalog and
+ * artwork responses go through a bounded disk cache, which also revalidates expired entries
+ * with their ETag or Last-Modified validators instead of downloading them again.
+ *
+ * {@link #init(Context)} must be called once, from the application.
+ */
+public class HttpHelper {
+
+    private static final String TAG = LogHelper.makeLogTag(HttpHelper.class);
+
+    private static final String CACHE_DIR = "http";
+    private static final long CACHE_MAX_BYTES = 16 * 1024 * 1024;
+
+    // Idle connections kept alive, and for how long.
+    private static final int MAX_IDLE_CONNECTIONS = 6;
+    private static final long KEEP_ALIVE_MS = 5 * 60 * 1000;
+
+    private static volatile OkHttpClient sCatalogClient;
+    private static volatile OkHttpClient sArtworkClient;
+    private static volatile OkHttpClient sDownloadClient;
+    private static volatile OkHttpClient sStreamClient;
+
+    public static synchronized void init(Context context) {
+        if (sCatalogClient != null) {
+            return;
+        }
+        OkHttpClient base = new OkHttpClient();
+        base.setConnectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MS));
+        base.setCache(new Cache(new File(context.getCacheDir(), CACHE_DIR), CACHE_MAX_BYTES));
+
+        // Catalog requests are few and latency sensitive.
+        OkHttpClient catalog = base.clone();
+        catalog.setDispatcher(newDispatcher(2));
+        catalog.setConnectTimeout(10, TimeUnit.SECONDS);
+        catalog.setReadTimeout(15, TimeUnit.SECONDS);
+
+        // Artwork is small and fetched in bursts while browsing.
+        OkHttpClient artwork = base.clone();
+        artwork.setDispatcher(newDispatcher(4));
+        artwork.setConnectTimeout(10, TimeUnit.SECONDS);
+        artwork.setReadTimeout(10, TimeUnit.SECONDS);
+
+        // Downloads are large, so they would only evict everything else from the cache.
+        OkHttpClient download = base.clone();
+        download.setCache(null);
+        download.setDispatcher(newDispatcher(4));
+        download.setConnectTimeout(10, TimeUnit.SECONDS);
+        download.setReadTimeout(30, TimeUnit.SECONDS);
+
+        // Streams are cached by the stream proxy, in ranges, and read at the playback rate.
+        OkHttpClient stream = base.clone();
+        stream.setCache(null);
+        stream.setDispatcher(newDispatcher(2));
+        stream.setConnectTimeout(10, TimeUnit.SECONDS);
+        stream.setReadTimeout(20, TimeUnit.SECONDS);
+
+        sArtworkClient = artwork;
+        sDownloadClient = download;
+        sStreamClient = stream;
+        sCatalogClient = catalog;
+        LogHelper.d(TAG, "HTTP stack ready, cache dir ", context.getCacheDir());
+    }
+
+    public static OkHttpClient getCatalogClient() {
+        return checkInitialized(sCatalogClient);
+    }
+
+    public static OkHttpClient getArtworkClient() {
+        return checkInitialized(sArtworkClient);
+    }
+
+    public static OkHttpClient getDownloadClient() {
+        return checkInitialized(sDownloadClient);
+    }
+
+    public static OkHttpClient getStreamClient() {
+        return checkInitialized(sStreamClient);
+    }
+
+    private static OkHttpClient checkInitialized(OkHttpClient client) {
+        if (client == null) {
+            throw new IllegalStateException("HttpHelper.init() was not called");
+        }
+        return client;
+    }
+
+    private static Dispatcher newDispatcher(int maxRequestsPerHost) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+        return dispatcher;
+    }
+}
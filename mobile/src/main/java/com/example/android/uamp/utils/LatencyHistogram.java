@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.utils;
+
+/**
+ * Counts of latencies in buckets doubling in width, from under 25ms to over 6.4s.
+ *
+ * Percentiles are read from the buckets, so they are upper bounds within a factor of 2, which
+ * is enough to tell a start from the cache from one waiting on the network.
+ */
+public final class LatencyHistogram {
+
+    // Upper bounds of the buckets, in milliseconds. The last bucket has none.
+    private static final long[] BOUNDS_MS = {25, 50, 100, 200, 400, 800, 1600, 3200, 6400};
+
+    private final String mName;
+    private final int[] mCounts = new int[BOUNDS_MS.length + 1];
+    private int mTotal;
+    private long mMaxMs;
+
+    /**
+     * @param name of the latency, for {@link #toString()}.
+     */
+    public LatencyHistogram(String name) {
+        mName = name;
+    }
+
+    public synchronized void record(long latencyMs) {
+        int bucket = 0;
+        while (bucket < BOUNDS_MS.length && latencyMs >= BOUNDS_MS[bucket]) {
+            bucket++;
+        }
+        mCounts[bucket]++;
+        mTotal++;
+        mMaxMs = Math.max(mMaxMs, latencyMs);
+    }
+
+    public synchronized int getCount() {
+        return mTotal;
+    }
+
+    /**
+     * @param percent between 0 and 100.
+     * @return the upper bound of the bucket holding the percentile, the largest latency
+     * recorded for the last bucket, or 0 if nothing was recorded.
+     */
+    public synchronized long getPercentileMs(int percent) {
+        if (mTotal == 0) {
+            return 0;
+        }
+        // Rank of the percentile, from 1.
+        int rank = Math.max(1, (mTotal * percent + 99) / 100);
+        int seen = 0;
+        for (int i = 0; i < BOUNDS_MS.length; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                return Math.min(BOUNDS_MS[i], mMaxMs);
+            }
+        }
+        return mMaxMs;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder(mName).append(": n=").append(mTotal)
+                .append(" p50<=").append(getPercentileMs(50))
+                .append("ms p90<=").append(getPercentileMs(90))
+                .append("ms max=").append(mMaxMs).append("ms [");
+        for (int i = 0; i < mCounts.length; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(i < BOUNDS_MS.length ? "<" + BOUNDS_MS[i] : ">=" + BOUNDS_MS[i - 1])
+                    .append(':').append(mCounts[i]);
+        }
+        return sb.append(']').toString();
+    }
+}
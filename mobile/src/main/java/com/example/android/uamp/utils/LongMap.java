@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Open addressing hash map from primitive long keys to values, so lookups neither box the key
+ * nor hash a string. Keys are spread with a 64-bit mixer and probed linearly in a power of two
+ * table that is kept at most half full. The key 0 is reserved for empty slots and entries
+ * cannot be removed.
+ *
+ * Writes are synchronized. Reads take no lock: they always see a consistent table, but may miss
+ * an entry that is being added concurrently.
+ */
+public final class LongMap<V> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private static final class Table {
+        final long[] keys;
+        final Object[] values;
+
+        Table(int capacity) {
+            this(new long[capacity], new Object[capacity]);
+        }
+
+        Table(long[] keys, Object[] values) {
+            this.keys = keys;
+            this.values = values;
+        }
+    }
+
+    private volatile Table mTable;
+    private volatile int mSize;
+
+    public LongMap() {
+        this(MIN_CAPACITY / 2);
+    }
+
+    /**
+     * @param expectedSize number of entries the map can hold before it grows.
+     */
+    public LongMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        mTable = new Table(capacity);
+    }
+
+    private LongMap(Table table, int size) {
+        mTable = table;
+        mSize = size;
+    }
+
+    /**
+     * @return the value of the key, or null.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        Table table = mTable;
+        int mask = table.keys.length - 1;
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            long k = table.keys[i];
+            if (k == key) {
+                return (V) table.values[i];
+            }
+            if (k == 0) {
+                return null;
+            }
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return the previous value of the key, or null.
+     */
+    public synchronized V put(long key, V value) {
+        return put(key, value, true);
+    }
+
+    /**
+     * @return the current value of the key, or null if the value was added.
+     */
+    public synchronized V putIfAbsent(long key, V value) {
+        return put(key, value, false);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return a copy of the values, in no particular order.
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        Table table = mTable;
+        List<V> values = new ArrayList<>(mSize);
+        for (int i = 0; i < table.keys.length; i++) {
+            Object value = table.values[i];
+            if (table.keys[i] != 0 && value != null) {
+                values.add((V) value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return a map holding the same entries, which does not see later changes of this one.
+     * This copies two arrays, so it is cheap enough to publish a frozen copy after each batch
+     * of changes.
+     */
+    public synchronized LongMap<V> copy() {
+        Table table = mTable;
+        return new LongMap<>(new Table(table.keys.clone(), table.values.clone()), mSize);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V put(long key, V value, boolean replace) {
+        if (key == 0) {
+            throw new IllegalArgumentException("0 is not a valid key");
+        }
+        if (value == null) {
+            throw new NullPointerException("value == null");
+        }
+        Table table = mTable;
+        if ((mSize + 1) * 2 > table.keys.length) {
+            table = resize(table, table.keys.length * 2);
+        }
+        int mask = table.keys.length - 1;
+        int i = slot(key, mask);
+        while (table.keys[i] != 0 && table.keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        V previous = (V) table.values[i];
+        if (previous != null && !replace) {
+            return previous;
+        }
+        // The value is stored before the key, so readers finding the key see a value.
+        table.values[i] = value;
+        if (table.keys[i] == 0) {
+            table.keys[i] = key;
+            mSize++;
+        }
+        return previous;
+    }
+
+    private Table resize(Table from, int capacity) {
+        Table to = new Table(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < from.keys.length; j++) {
+            long key = from.keys[j];
+            if (key == 0) {
+                continue;
+            }
+            int i = slot(key, mask);
+            while (to.keys[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            to.keys[i] = key;
+            to.values[i] = from.values[j];
+        }
+        mTable = to;
+        return to;
+    }
+
+    private static int slot(long key, int mask) {
+        // Finalizer of MurmurHash3, so sequential ids spread over the table.
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9e53a85fe63L;
+        key ^= key >>> 33;
+        return (int) key & mask;
+    }
+}
@@ -18,7 +18,8 @@ package com.example.android.uamp.utils;
 
 import android.support.annotation.NonNull;
 
-import java.util.Arrays;
+import com.example.android.uamp.model.TrackId;
+
 
 /**
  * Utility class to help on queue related tasks.
@@ -29,9 +30,18 @@ public class MediaIDHelper {
     public static final String MEDIA_ID_ROOT = "__ROOT__";
     public static final String MEDIA_ID_MUSICS_BY_GENRE = "__BY_GENRE__";
     public static final String MEDIA_ID_MUSICS_BY_SEARCH = "__BY_SEARCH__";
+    public static final String MEDIA_ID_MUSICS_BY_ARTIST = "__BY_ARTIST__";
+    public static final String MEDIA_ID_MUSICS_BY_ALBUM = "__BY_ALBUM__";
+    public static final String MEDIA_ID_MUSICS_BY_DURATION = "__BY_DURATION__";
+    public static final String MEDIA_ID_TOP_TRACKS = "__TOP_TRACKS__";
+    public static final String MEDIA_ID_FAVORITES = "__FAVORITES__";
+    public static final String MEDIA_ID_RECENTLY_PLAYED = "__RECENTLY_PLAYED__";
+    public static final String MEDIA_ID_MOST_PLAYED = "__MOST_PLAYED__";
 
-    private static final char CATEGORY_SEPARATOR = '/';
-    private static final char LEAF_SEPARATOR = '|';
+    static final char CATEGORY_SEPARATOR = '/';
+    static final char LEAF_SEPARATOR = '|';
+    // Starts the hex code of a separator, or of itself, escaped in a category value.
+    static final char ESCAPE = '%';
 
     public static String createMediaID(String musicID, String... categories) {
         // MediaIDs are of the form <categoryType>/<categoryValue>|<musicUniqueId>, to make it easy
@@ -43,7 +53,7 @@ public class MediaIDHelper {
         if (categories != null && categories.length > 0) {
             sb.append(categories[0]);
             for (int i=1; i < categories.length; i++) {
-                sb.append(CATEGORY_SEPARATOR).append(categories[i]);
+                sb.append(CATEGORY_SEPARATOR).append(escape(categories[i]));
             }
         }
         if (musicID != null) {
@@ -53,7 +63,63 @@ public class MediaIDHelper {
     }
 
     public static String createBrowseCategoryMediaID(String categoryType, String categoryValue) {
-        return categoryType + CATEGORY_SEPARATOR + categoryValue;
+        return categoryType + CATEGORY_SEPARATOR + escape(categoryValue);
+    }
+
+    /**
+     * Escape the separators in a category value, like the '/' of "AC/DC", so the value stays
+     * one part of the media ID. {@link MediaId#getCategoryValue()} and {@link #getHierarchy}
+     * return the value as it was.
+     */
+    static String escape(String value) {
+        if (value == null || !needsEscape(value)) {
+            return value;
+        }
+        StringBuilder sb = new StringBuilder(value.length() + 8);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == CATEGORY_SEPARATOR || c == LEAF_SEPARATOR || c == ESCAPE) {
+                sb.append(ESCAPE).append(Character.forDigit(c >> 4, 16))
+                        .append(Character.forDigit(c & 0xf, 16));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the value escaped by {@link #escape}, as it was.
+     */
+    static String unescape(String value) {
+        if (value.indexOf(ESCAPE) < 0) {
+            return value;
+        }
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ESCAPE && i + 2 < value.length()) {
+                int high = Character.digit(value.charAt(i + 1), 16);
+                int low = Character.digit(value.charAt(i + 2), 16);
+                if (high >= 0 && low >= 0) {
+                    sb.append((char) (high << 4 | low));
+                    i += 2;
+                    continue;
+                }
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static boolean needsEscape(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == CATEGORY_SEPARATOR || c == LEAF_SEPARATOR || c == ESCAPE) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -66,11 +132,22 @@ public class MediaIDHelper {
      * @return musicID
      */
     public static String extractMusicIDFromMediaID(String mediaID) {
+        return MediaId.of(mediaID).getMusicId();
+    }
+
+    /**
+     * Same as {@link #extractMusicIDFromMediaID(String)}, parsed as a {@link TrackId} without
+     * allocating.
+     *
+     * @param mediaID that contains the musicID
+     * @return the TrackId, or {@link TrackId#NONE}
+     */
+    public static long extractTrackIdFromMediaID(String mediaID) {
         int pos = mediaID.indexOf(LEAF_SEPARATOR);
         if (pos >= 0) {
-            return mediaID.substring(pos+1);
+            return TrackId.parse(mediaID, pos + 1);
         }
-        return null;
+        return TrackId.NONE;
     }
 
     /**
@@ -79,6 +156,8 @@ public class MediaIDHelper {
      * mediaID. This is necessary so we know where the user selected the music from, when the music
      * exists in more than one music list, and thus we are able to correctly build the playing queue.
      *
+     * Allocates the parts on each call: prefer {@link MediaId} to read single parts.
+     *
      * @param mediaID that contains a category and categoryValue.
      */
     public static @NonNull String[] getHierarchy(String mediaID) {
@@ -86,30 +165,19 @@ public class MediaIDHelper {
         if (pos >= 0) {
             mediaID = mediaID.substring(0, pos);
         }
-        return mediaID.split(String.valueOf(CATEGORY_SEPARATOR));
-    }
-
-    public static String extractBrowseCategoryValueFromMediaID(String mediaID) {
-        String[] hierarchy = getHierarchy(mediaID);
-        if (hierarchy.length == 2) {
-            return hierarchy[1];
+        String[] hierarchy = mediaID.split(String.valueOf(CATEGORY_SEPARATOR));
+        for (int i = 1; i < hierarchy.length; i++) {
+            hierarchy[i] = unescape(hierarchy[i]);
         }
-        return null;
+        return hierarchy;
     }
 
-    private static boolean isBrowseable(String mediaID) {
-        return mediaID.indexOf(LEAF_SEPARATOR) < 0;
+    public static String extractBrowseCategoryValueFromMediaID(String mediaID) {
+        MediaId parsed = MediaId.of(mediaID);
+        return parsed.getDepth() == 2 ? parsed.getCategoryValue() : null;
     }
 
     public static String getParentMediaID(String mediaID) {
-        String[] hierarchy = getHierarchy(mediaID);
-        if (!isBrowseable(mediaID)) {
-            return createMediaID(null, hierarchy);
-        }
-        if (hierarchy.length <= 1) {
-            return MEDIA_ID_ROOT;
-        }
-        String[] parentHierarchy = Arrays.copyOf(hierarchy, hierarchy.length-1);
-        return createMediaID(null, parentHierarchy);
+        return MediaId.of(mediaID).getParent();
     }
 }
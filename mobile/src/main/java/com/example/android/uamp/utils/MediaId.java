@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.utils;
+
+import com.example.android.uamp.model.TrackId;
+
+/**
+ * A parsed media ID, of the form {@code <categoryType>/<categoryValue>|<musicUniqueId>} built by
+ * {@link MediaIDHelper#createMediaID}. Separators in the category value are escaped, so a value
+ * like "AC/DC" is one part.
+ *
+ * The parts are kept as offsets into the original string, found in a single pass. Parts
+ * returned as strings are cut on first use and kept, and recently parsed IDs are cached by
+ * {@link #of(String)}, so asking the same ID for its parent or its music ID again, as the
+ * browse and playback paths do, allocates nothing.
+ */
+public final class MediaId {
+
+    // Cache of recently parsed IDs: each hash code maps to a pair of slots, holding the last
+    // two IDs parsed for it. Entries never change once built, so the cache is read and written
+    // without locking.
+    private static final int CACHE_SIZE = 128;
+    private static final MediaId[] sCache = new MediaId[CACHE_SIZE];
+
+    private final String mMediaId;
+    // End of the category type.
+    private final int mCategoryEnd;
+    // End of the category value, or -1 if there is no value.
+    private final int mValueEnd;
+    // Position of the last category separator, or -1.
+    private final int mLastSeparator;
+    // Position of the leaf separator, or the length of the ID if it is browseable.
+    private final int mPathEnd;
+    // Number of category parts.
+    private final int mDepth;
+
+    // Parts cut from mMediaId on first use. Strings are immutable, so a race only costs a copy.
+    private String mCategory;
+    private String mCategoryValue;
+    private String mMusicId;
+    private String mParent;
+
+    private MediaId(String mediaId) {
+        mMediaId = mediaId;
+        int leaf = mediaId.indexOf(MediaIDHelper.LEAF_SEPARATOR);
+        mPathEnd = leaf >= 0 ? leaf : mediaId.length();
+        int categoryEnd = mPathEnd;
+        int valueEnd = -1;
+        int lastSeparator = -1;
+        int depth = 1;
+        for (int i = 0; i < mPathEnd; i++) {
+            if (mediaId.charAt(i) != MediaIDHelper.CATEGORY_SEPARATOR) {
+                continue;
+            }
+            if (depth == 1) {
+                categoryEnd = i;
+            } else if (depth == 2) {
+                valueEnd = i;
+            }
+            lastSeparator = i;
+            depth++;
+        }
+        if (depth == 2) {
+            valueEnd = mPathEnd;
+        }
+        mCategoryEnd = categoryEnd;
+        mValueEnd = valueEnd;
+        mLastSeparator = lastSeparator;
+        mDepth = depth;
+    }
+
+    /**
+     * @return the parsed ID, from the cache if it was parsed recently.
+     */
+    public static MediaId of(String mediaId) {
+        int slot = (mediaId.hashCode() << 1) & (CACHE_SIZE - 1);
+        MediaId recent = sCache[slot];
+        if (recent != null && recent.mMediaId.equals(mediaId)) {
+            return recent;
+        }
+        MediaId older = sCache[slot + 1];
+        if (older != null && older.mMediaId.equals(mediaId)) {
+            return older;
+        }
+        MediaId parsed = new MediaId(mediaId);
+        sCache[slot + 1] = recent;
+        sCache[slot] = parsed;
+        return parsed;
+    }
+
+    /**
+     * @return the number of category parts, like 2 for "by_genre/Classical".
+     */
+    public int getDepth() {
+        return mDepth;
+    }
+
+    /**
+     * @return the category type, like "by_genre".
+     */
+    public String getCategory() {
+        String category = mCategory;
+        if (category == null) {
+            category = mMediaId.substring(0, mCategoryEnd);
+            mCategory = category;
+        }
+        return category;
+    }
+
+    /**
+     * @return true if the category type is the given one, without cutting it from the ID.
+     */
+    public boolean isCategory(String categoryType) {
+        return categoryType.length() == mCategoryEnd
+                && mMediaId.regionMatches(0, categoryType, 0, mCategoryEnd);
+    }
+
+    /**
+     * @return the category value, like "Classical", unescaped, or null if the ID has none.
+     */
+    public String getCategoryValue() {
+        if (mValueEnd < 0) {
+            return null;
+        }
+        String value = mCategoryValue;
+        if (value == null) {
+            value = MediaIDHelper.unescape(mMediaId.substring(mCategoryEnd + 1, mValueEnd));
+            mCategoryValue = value;
+        }
+        return value;
+    }
+
+    /**
+     * @return true if the ID is a category, and false if it is a playable music.
+     */
+    public boolean isBrowseable() {
+        return mPathEnd == mMediaId.length();
+    }
+
+    /**
+     * @return the unique music ID, or null if the ID is browseable.
+     */
+    public String getMusicId() {
+        if (isBrowseable()) {
+            return null;
+        }
+        String musicId = mMusicId;
+        if (musicId == null) {
+            musicId = mMediaId.substring(mPathEnd + 1);
+            mMusicId = musicId;
+        }
+        return musicId;
+    }
+
+    /**
+     * @return the music ID as a {@link TrackId}, or {@link TrackId#NONE}. Never allocates.
+     */
+    public long getTrackId() {
+        if (isBrowseable()) {
+            return TrackId.NONE;
+        }
+        return TrackId.parse(mMediaId, mPathEnd + 1);
+    }
+
+    /**
+     * @return the media ID of the category holding this ID: the category of a music, or the
+     * category one level up, or {@link MediaIDHelper#MEDIA_ID_ROOT}.
+     */
+    public String getParent() {
+        String parent = mParent;
+        if (parent == null) {
+            if (!isBrowseable()) {
+                parent = mMediaId.substring(0, mPathEnd);
+            } else if (mDepth <= 1) {
+                parent = MediaIDHelper.MEDIA_ID_ROOT;
+            } else {
+                parent = mMediaId.substring(0, mLastSeparator);
+            }
+            mParent = parent;
+        }
+        return parent;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof MediaId && mMediaId.equals(((MediaId) o).mMediaId));
+    }
+
+    @Override
+    public int hashCode() {
+        return mMediaId.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return mMediaId;
+    }
+}
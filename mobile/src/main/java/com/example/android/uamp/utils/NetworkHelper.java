@@ -34,4 +34,27 @@ public class NetworkHelper {
         NetworkInfo networkInfo = connMgr.getActiveNetworkInfo();
         return (networkInfo != null && networkInfo.isConnected());
     }
+
+    /**
+     * @param context to use to check for network connectivity.
+     * @return true if connected to a network that is not metered, like most Wi-Fi networks.
+     */
+    public static boolean isUnmetered(Context context) {
+        ConnectivityManager connMgr = (ConnectivityManager)
+            context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connMgr.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected()
+                && !connMgr.isActiveNetworkMetered();
+    }
+
+    /**
+     * @param context to use to check for network connectivity.
+     * @return true if connected to a mobile network while roaming.
+     */
+    public static boolean isRoaming(Context context) {
+        ConnectivityManager connMgr = (ConnectivityManager)
+            context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connMgr.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isRoaming();
+    }
 }
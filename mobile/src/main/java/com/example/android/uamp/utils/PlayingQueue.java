@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.utils;
+
+import android.annotation.TargetApi;
+import android.media.MediaDescription;
+import android.media.session.MediaSession;
+import android.os.Build;
+
+import com.example.android.uamp.model.Shuffle;
+import com.example.android.uamp.model.TrackId;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * The items of a playing queue, with the position of each queue id and each track, so the item
+ * to skip to is found without scanning the queue.
+ *
+ * The positions are kept up to date by the edits: inserting, removing or moving an item only
+ * renumbers the items whose position changed, which costs about as much as shifting them in the
+ * list. When a track is in the queue more than once, its first position is found.
+ *
+ * Not thread safe: the queue is used from the main thread, like the session it is set on.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public final class PlayingQueue extends AbstractList<MediaSession.QueueItem>
+        implements RandomAccess {
+
+    private final ArrayList<MediaSession.QueueItem> mItems;
+    private final Map<Long, Integer> mPositionByQueueId;
+    // First position of each track.
+    private final Map<Long, Integer> mPositionByTrackId;
+    private long mNextQueueId;
+    // Tracks still to append to a shuffled queue, or null.
+    private Shuffle mShuffle;
+
+    public PlayingQueue() {
+        this(0);
+    }
+
+    /**
+     * @param expectedSize number of items the queue can hold before it grows.
+     */
+    public PlayingQueue(int expectedSize) {
+        mItems = new ArrayList<>(expectedSize);
+        mPositionByQueueId = new HashMap<>(expectedSize * 2);
+        mPositionByTrackId = new HashMap<>(expectedSize * 2);
+    }
+
+    @Override
+    public MediaSession.QueueItem get(int location) {
+        return mItems.get(location);
+    }
+
+    @Override
+    public int size() {
+        return mItems.size();
+    }
+
+    /**
+     * @return the tracks still to append if this is a shuffled queue, or null.
+     */
+    public Shuffle getShuffle() {
+        return mShuffle;
+    }
+
+    public void setShuffle(Shuffle shuffle) {
+        mShuffle = shuffle;
+    }
+
+    /**
+     * @return the position of the item with the given queue id, or -1.
+     */
+    public int indexOfQueueId(long queueId) {
+        Integer position = mPositionByQueueId.get(queueId);
+        return position != null ? position : -1;
+    }
+
+    /**
+     * @return the first position of the track of a media ID, or -1. Queue items all come from
+     * the same category, so the track identifies the item.
+     */
+    public int indexOfMediaId(String mediaId) {
+        return indexOfTrack(MediaIDHelper.extractTrackIdFromMediaID(mediaId));
+    }
+
+    /**
+     * @return the first position of the {@link TrackId}, or -1.
+     */
+    public int indexOfTrack(long trackId) {
+        Integer position = mPositionByTrackId.get(trackId);
+        return position != null ? position : -1;
+    }
+
+    /**
+     * Insert an item.
+     *
+     * @throws IllegalArgumentException if the queue id of the item is already used.
+     */
+    @Override
+    public void add(int location, MediaSession.QueueItem item) {
+        long queueId = item.getQueueId();
+        if (mPositionByQueueId.containsKey(queueId)) {
+            throw new IllegalArgumentException("Queue id " + queueId + " is already used");
+        }
+        mItems.add(location, item);
+        mNextQueueId = Math.max(mNextQueueId, queueId + 1);
+        reindex(location, mItems.size());
+        modCount++;
+    }
+
+    /**
+     * Insert a new item with a queue id not used yet.
+     *
+     * @return the inserted item.
+     */
+    public MediaSession.QueueItem insert(int location, MediaDescription description) {
+        MediaSession.QueueItem item = new MediaSession.QueueItem(description, mNextQueueId);
+        add(location, item);
+        return item;
+    }
+
+    @Override
+    public MediaSession.QueueItem remove(int location) {
+        MediaSession.QueueItem item = mItems.remove(location);
+        mPositionByQueueId.remove(item.getQueueId());
+        reindex(location, mItems.size());
+        long trackId = trackIdAt(item);
+        Integer first = mPositionByTrackId.get(trackId);
+        if (first != null && (first >= mItems.size() || trackIdAt(mItems.get(first)) != trackId)) {
+            // That was the last occurrence of the track.
+            mPositionByTrackId.remove(trackId);
+        }
+        modCount++;
+        return item;
+    }
+
+    /**
+     * Move an item to another position, shifting the items in between.
+     */
+    public void move(int from, int to) {
+        if (from == to) {
+            return;
+        }
+        mItems.add(to, mItems.remove(from));
+        reindex(Math.min(from, to), Math.max(from, to) + 1);
+        modCount++;
+    }
+
+    @Override
+    public void clear() {
+        mItems.clear();
+        mPositionByQueueId.clear();
+        mPositionByTrackId.clear();
+        modCount++;
+    }
+
+    /**
+     * Record the positions of the items in [from, to), which are the only ones that moved.
+     */
+    private void reindex(int from, int to) {
+        for (int i = from; i < to; i++) {
+            MediaSession.QueueItem item = mItems.get(i);
+            mPositionByQueueId.put(item.getQueueId(), i);
+            long trackId = trackIdAt(item);
+            if (trackId == TrackId.NONE) {
+                continue;
+            }
+            // An earlier position is kept: before the range it did not move, and in the range
+            // it was just recorded. Any other position is stale or later.
+            Integer first = mPositionByTrackId.get(trackId);
+            if (first == null || first >= i || trackIdAt(mItems.get(first)) != trackId) {
+                mPositionByTrackId.put(trackId, i);
+            }
+        }
+    }
+
+    private static long trackIdAt(MediaSession.QueueItem item) {
+        return MediaIDHelper.extractTrackIdFromMediaID(item.getDescription().getMediaId());
+    }
+}
@@ -17,6 +17,11 @@ package com.example.android.uamp.utils;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Util for setting and accessing {@link SharedPreferences} for the current application.
@@ -25,6 +30,10 @@ public class PrefUtils {
 
     private static final String PREF_NAMESPACE = "com.example.android.uamp.utils.PREFS";
     private static final String FTU_SHOWN = "ftu_shown";
+    private static final String SEARCH_HISTORY = "search_history";
+    private static final String SEARCH_HISTORY_SEPARATOR = "\n";
+    private static final String CROSSFADE_DURATION = "crossfade_duration";
+    private static final String CROSSFADE_CURVE = "crossfade_curve";
 
     public static SharedPreferences getPreferences(Context context) {
         return context.getSharedPreferences(PREF_NAMESPACE, Context.MODE_PRIVATE);
@@ -38,4 +47,50 @@ public class PrefUtils {
     public static boolean isFtuShown(Context context) {
         return getPreferences(context).getBoolean(FTU_SHOWN, false);
     }
+
+    /**
+     * @return the past search queries, most recent first.
+     */
+    public static List<String> getSearchHistory(Context context) {
+        String history = getPreferences(context).getString(SEARCH_HISTORY, null);
+        if (TextUtils.isEmpty(history)) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(Arrays.asList(history.split(SEARCH_HISTORY_SEPARATOR)));
+    }
+
+    public static void setSearchHistory(Context context, List<String> queries) {
+        StringBuilder sb = new StringBuilder();
+        for (String query : queries) {
+            if (sb.length() > 0) {
+                sb.append(SEARCH_HISTORY_SEPARATOR);
+            }
+            sb.append(query.replace(SEARCH_HISTORY_SEPARATOR, " "));
+        }
+        getPreferences(context).edit().putString(SEARCH_HISTORY, sb.toString()).apply();
+    }
+
+    /**
+     * @return how long one track fades into the next, in milliseconds. 0, the default, plays
+     * the tracks back to back without a gap.
+     */
+    public static int getCrossfadeDuration(Context context) {
+        return getPreferences(context).getInt(CROSSFADE_DURATION, 0);
+    }
+
+    public static void setCrossfadeDuration(Context context, int durationMs) {
+        getPreferences(context).edit().putInt(CROSSFADE_DURATION, durationMs).apply();
+    }
+
+    /**
+     * @return the name of the {@link com.example.android.uamp.Crossfader.Curve} of the fades,
+     * or null for the default one.
+     */
+    public static String getCrossfadeCurve(Context context) {
+        return getPreferences(context).getString(CROSSFADE_CURVE, null);
+    }
+
+    public static void setCrossfadeCurve(Context context, String curve) {
+        getPreferences(context).edit().putString(CROSSFADE_CURVE, curve).apply();
+    }
 }
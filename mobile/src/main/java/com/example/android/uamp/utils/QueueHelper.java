@@ -24,14 +24,22 @@ import android.os.Bundle;
 
 import com.example.android.uamp.VoiceSearchParams;
 import com.example.android.uamp.model.MusicProvider;
+import com.example.android.uamp.model.MutableMediaMetadata;
+import com.example.android.uamp.model.Shuffle;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
 
+import static com.example.android.uamp.utils.MediaIDHelper.MEDIA_ID_FAVORITES;
+import static com.example.android.uamp.utils.MediaIDHelper.MEDIA_ID_MOST_PLAYED;
+import static com.example.android.uamp.utils.MediaIDHelper.MEDIA_ID_MUSICS_BY_ALBUM;
+import static com.example.android.uamp.utils.MediaIDHelper.MEDIA_ID_MUSICS_BY_ARTIST;
+import static com.example.android.uamp.utils.MediaIDHelper.MEDIA_ID_MUSICS_BY_DURATION;
 import static com.example.android.uamp.utils.MediaIDHelper.MEDIA_ID_MUSICS_BY_GENRE;
 import static com.example.android.uamp.utils.MediaIDHelper.MEDIA_ID_MUSICS_BY_SEARCH;
+import static com.example.android.uamp.utils.MediaIDHelper.MEDIA_ID_RECENTLY_PLAYED;
+import static com.example.android.uamp.utils.MediaIDHelper.MEDIA_ID_TOP_TRACKS;
 
 /**
  * Utility class to help on queue related tasks.
@@ -41,27 +49,44 @@ public class QueueHelper {
 
     private static final String TAG = LogHelper.makeLogTag(QueueHelper.class);
 
-    public static List<MediaSession.QueueItem> getPlayingQueue(String mediaId,
-            MusicProvider musicProvider) {
+    // Tracks added at once to a shuffled queue.
+    private static final int SHUFFLE_BATCH = 25;
+
+    public static PlayingQueue getPlayingQueue(String mediaId, MusicProvider musicProvider) {
 
         // extract the browsing hierarchy from the media ID:
-        String[] hierarchy = MediaIDHelper.getHierarchy(mediaId);
+        MediaId hierarchy = MediaId.of(mediaId);
+        String categoryType = hierarchy.getCategory();
 
-        if (hierarchy.length != 2) {
+        // Top tracks and the library lists are the categories without a value.
+        boolean valueless = hierarchy.getDepth() == 1 && isValuelessCategory(categoryType);
+        if (hierarchy.getDepth() != 2 && !valueless) {
             LogHelper.e(TAG, "Could not build a playing queue for this mediaId: ", mediaId);
             return null;
         }
 
-        String categoryType = hierarchy[0];
-        String categoryValue = hierarchy[1];
+        String categoryValue = hierarchy.getCategoryValue();
         LogHelper.d(TAG, "Creating playing queue for ", categoryType, ",  ", categoryValue);
 
         Iterable<MediaMetadata> tracks = null;
-        // This sample only supports genre and by_search category types.
         if (categoryType.equals(MEDIA_ID_MUSICS_BY_GENRE)) {
             tracks = musicProvider.getMusicsByGenre(categoryValue);
         } else if (categoryType.equals(MEDIA_ID_MUSICS_BY_SEARCH)) {
             tracks = musicProvider.searchMusicBySongTitle(categoryValue);
+        } else if (categoryType.equals(MEDIA_ID_MUSICS_BY_ARTIST)) {
+            tracks = musicProvider.getMusicsByArtist(categoryValue);
+        } else if (categoryType.equals(MEDIA_ID_MUSICS_BY_ALBUM)) {
+            tracks = musicProvider.getMusicsByAlbum(categoryValue);
+        } else if (categoryType.equals(MEDIA_ID_MUSICS_BY_DURATION)) {
+            tracks = musicProvider.getMusicsByDuration(categoryValue);
+        } else if (categoryType.equals(MEDIA_ID_TOP_TRACKS)) {
+            tracks = musicProvider.getTopTracks();
+        } else if (categoryType.equals(MEDIA_ID_FAVORITES)) {
+            tracks = musicProvider.getFavorites();
+        } else if (categoryType.equals(MEDIA_ID_RECENTLY_PLAYED)) {
+            tracks = musicProvider.getRecentlyPlayed();
+        } else if (categoryType.equals(MEDIA_ID_MOST_PLAYED)) {
+            tracks = musicProvider.getMostPlayed();
         }
 
         if (tracks == null) {
@@ -69,10 +94,17 @@ public class QueueHelper {
             return null;
         }
 
-        return convertToQueue(tracks, hierarchy[0], hierarchy[1]);
+        return valueless ? convertToQueue(tracks, categoryType)
+                : convertToQueue(tracks, categoryType, categoryValue);
+    }
+
+    private static boolean isValuelessCategory(String categoryType) {
+        return MEDIA_ID_TOP_TRACKS.equals(categoryType) || MEDIA_ID_FAVORITES.equals(categoryType)
+                || MEDIA_ID_RECENTLY_PLAYED.equals(categoryType)
+                || MEDIA_ID_MOST_PLAYED.equals(categoryType);
     }
 
-    public static List<MediaSession.QueueItem> getPlayingQueueFromSearch(String query,
+    public static PlayingQueue getPlayingQueueFromSearch(String query,
             Bundle queryParams, MusicProvider musicProvider) {
 
         LogHelper.d(TAG, "Creating playing queue for musics from search: ", query,
@@ -89,14 +121,30 @@ public class QueueHelper {
         }
 
         Iterable<MediaMetadata> result = null;
+        String focusField = null;
+        String focusValue = null;
         if (params.isAlbumFocus) {
             result = musicProvider.searchMusicByAlbum(params.album);
+            focusField = MediaMetadata.METADATA_KEY_ALBUM;
+            focusValue = params.album;
         } else if (params.isGenreFocus) {
             result = musicProvider.getMusicsByGenre(params.genre);
+            focusField = MediaMetadata.METADATA_KEY_GENRE;
+            focusValue = params.genre;
         } else if (params.isArtistFocus) {
             result = musicProvider.searchMusicByArtist(params.artist);
+            focusField = MediaMetadata.METADATA_KEY_ARTIST;
+            focusValue = params.artist;
         } else if (params.isSongFocus) {
             result = musicProvider.searchMusicBySongTitle(params.song);
+            focusField = MediaMetadata.METADATA_KEY_TITLE;
+            focusValue = params.song;
+        }
+
+        // Voice queries are often misspelled ("madona"), so before giving up on the media
+        // focus we look for values that are a few edits away from it.
+        if (focusField != null && focusValue != null && isEmpty(result)) {
+            result = musicProvider.searchMusicFuzzy(focusField, focusValue);
         }
 
         // If there was no results using media focus parameter, we do an unstructured query.
@@ -104,44 +152,32 @@ public class QueueHelper {
         // to Google, for example, but is not. For example, a user searching for Madonna on
         // a PodCast application wouldn't get results if we only looked at the
         // Artist (podcast author). Then, we can instead do an unstructured search.
-        if (params.isUnstructured || result == null || !result.iterator().hasNext()) {
-            // To keep it simple for this example, we do unstructured searches on the
-            // song title only. A real world application could search on other fields as well.
+        if (params.isUnstructured || isEmpty(result)) {
+            // Unstructured searches match the song title first, then any field allowing
+            // for typos.
             result = musicProvider.searchMusicBySongTitle(query);
+            if (isEmpty(result)) {
+                result = musicProvider.searchMusicFuzzy(query);
+            }
         }
 
         return convertToQueue(result, MEDIA_ID_MUSICS_BY_SEARCH, query);
     }
 
 
-    public static int getMusicIndexOnQueue(Iterable<MediaSession.QueueItem> queue,
-             String mediaId) {
-        int index = 0;
-        for (MediaSession.QueueItem item : queue) {
-            if (mediaId.equals(item.getDescription().getMediaId())) {
-                return index;
-            }
-            index++;
-        }
-        return -1;
+    private static boolean isEmpty(Iterable<MediaMetadata> tracks) {
+        return tracks == null || !tracks.iterator().hasNext();
     }
 
-    public static int getMusicIndexOnQueue(Iterable<MediaSession.QueueItem> queue,
-             long queueId) {
-        int index = 0;
-        for (MediaSession.QueueItem item : queue) {
-            if (queueId == item.getQueueId()) {
-                return index;
-            }
-            index++;
-        }
-        return -1;
+    private static PlayingQueue convertToQueue(
+            Iterable<MediaMetadata> tracks, String... categories) {
+        PlayingQueue queue = new PlayingQueue();
+        appendToQueue(queue, tracks, categories);
+        return queue;
     }
 
-    private static List<MediaSession.QueueItem> convertToQueue(
+    private static void appendToQueue(PlayingQueue queue,
             Iterable<MediaMetadata> tracks, String... categories) {
-        List<MediaSession.QueueItem> queue = new ArrayList<>();
-        int count = 0;
         for (MediaMetadata track : tracks) {
 
             // We create a hierarchy-aware mediaID, so we know what the queue is about by looking
@@ -153,38 +189,53 @@ public class QueueHelper {
                     .putString(MediaMetadata.METADATA_KEY_MEDIA_ID, hierarchyAwareMediaID)
                     .build();
 
-            // We don't expect queues to change after created, so we use the item index as the
-            // queueId. Any other number unique in the queue would work.
-            MediaSession.QueueItem item = new MediaSession.QueueItem(
-                    trackCopy.getDescription(), count++);
-            queue.add(item);
+            // Queue ids are given in order, so they are unique in the queue.
+            queue.insert(queue.size(), trackCopy.getDescription());
         }
-        return queue;
-
     }
 
     /**
-     * Create a random queue.
+     * Create a random queue. Only its first tracks are added: the queue is a {@link Shuffle}
+     * of the whole catalog, extended by {@link #extendShuffledQueue} as it is played.
      *
      * @param musicProvider the provider used for fetching music.
-     * @return list containing {@link MediaSession.QueueItem}'s
+     * @return queue containing {@link MediaSession.QueueItem}'s
      */
-    public static List<MediaSession.QueueItem> getRandomQueue(MusicProvider musicProvider) {
-        List<MediaMetadata> result = new ArrayList<>();
-
-        for (String genre: musicProvider.getGenres()) {
-            Iterable<MediaMetadata> tracks = musicProvider.getMusicsByGenre(genre);
-            for (MediaMetadata track: tracks) {
-                if (ThreadLocalRandom.current().nextBoolean()) {
-                    result.add(track);
-                }
-            }
-        }
-        LogHelper.d(TAG, "getRandomQueue: result.size=", result.size());
+    public static PlayingQueue getRandomQueue(MusicProvider musicProvider) {
+        PlayingQueue queue = new PlayingQueue(SHUFFLE_BATCH);
+        queue.setShuffle(musicProvider.newShuffle(ThreadLocalRandom.current().nextLong(),
+                Shuffle.Spread.ARTIST));
+        appendShuffled(queue);
+        LogHelper.d(TAG, "getRandomQueue: result.size=", queue.size());
+        return queue;
+    }
 
-        Collections.shuffle(result);
+    /**
+     * Append the next tracks of a shuffled queue when playback gets close to its end.
+     *
+     * @return true if tracks were appended.
+     */
+    public static boolean extendShuffledQueue(PlayingQueue queue, int currentIndex) {
+        if (queue == null || queue.getShuffle() == null
+                || currentIndex < queue.size() - SHUFFLE_BATCH / 2) {
+            return false;
+        }
+        return appendShuffled(queue);
+    }
 
-        return convertToQueue(result, MEDIA_ID_MUSICS_BY_SEARCH, "random");
+    private static boolean appendShuffled(PlayingQueue queue) {
+        Shuffle shuffle = queue.getShuffle();
+        List<MediaMetadata> tracks = new ArrayList<>(SHUFFLE_BATCH);
+        MutableMediaMetadata track;
+        while (tracks.size() < SHUFFLE_BATCH && (track = shuffle.next()) != null) {
+            tracks.add(track.getMetadata());
+        }
+        if (tracks.size() < SHUFFLE_BATCH) {
+            // Every track was added once.
+            queue.setShuffle(null);
+        }
+        appendToQueue(queue, tracks, MEDIA_ID_MUSICS_BY_SEARCH, "random");
+        return !tracks.isEmpty();
     }
 
     public static boolean isIndexPlayable(int index, List<MediaSession.QueueItem> queue) {
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.uamp.utils;
+
+import android.annotation.TargetApi;
+import android.media.session.MediaSession;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The part of a {@link PlayingQueue} that is set on the media session.
+ *
+ * The whole queue stays in the service, and the session only gets a window of items around the
+ * current one, so the binder transaction setting it has a bounded size however long the queue
+ * is. Queue ids are those of the whole queue, so a controller skipping to an item of the window
+ * still finds it. The window slides when playback gets close to one of its ends, not on every
+ * track, so controllers are not sent a new queue each time.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public final class QueueWindow {
+
+    // Items shown before and after the current one.
+    private static final int ITEMS_BEFORE = 10;
+    private static final int ITEMS_AFTER = 40;
+    // The window slides when the current item gets this close to one of its ends.
+    private static final int SLIDE_MARGIN = 5;
+
+    private boolean mPublished;
+    private PlayingQueue mQueue;
+    private int mQueueSize;
+    private int mStart;
+    private int mEnd;
+    private List<MediaSession.QueueItem> mItems;
+
+    /**
+     * Move the window so it shows the current item of the queue.
+     *
+     * @return true if the window changed, and {@link #getItems()} must be set on the session.
+     */
+    public boolean update(PlayingQueue queue, int current) {
+        if (queue == null) {
+            boolean changed = !mPublished || mQueue != null;
+            mPublished = true;
+            mQueue = null;
+            mItems = null;
+            return changed;
+        }
+        int size = queue.size();
+        current = Math.max(0, Math.min(current, size - 1));
+        boolean sameQueue = mPublished && queue == mQueue && size == mQueueSize;
+        if (sameQueue && !isNearStart(current) && !isNearEnd(current)) {
+            return false;
+        }
+        // When skipping backwards, most items are shown before the current one instead.
+        boolean backwards = sameQueue && isNearStart(current);
+        int start = Math.max(0, current - (backwards ? ITEMS_AFTER : ITEMS_BEFORE));
+        int end = Math.min(size, current + (backwards ? ITEMS_BEFORE : ITEMS_AFTER) + 1);
+        // Near the ends of the queue, show more items on the other side.
+        int missing = ITEMS_BEFORE + ITEMS_AFTER + 1 - (end - start);
+        if (start == 0) {
+            end = Math.min(size, end + missing);
+        } else if (end == size) {
+            start = Math.max(0, start - missing);
+        }
+        mPublished = true;
+        mQueue = queue;
+        mQueueSize = size;
+        mStart = start;
+        mEnd = end;
+        // A copy, since the session keeps the list it is given.
+        mItems = new ArrayList<>(queue.subList(start, end));
+        return true;
+    }
+
+    /**
+     * @return the items to set on the session, or null if there is no queue.
+     */
+    public List<MediaSession.QueueItem> getItems() {
+        return mItems;
+    }
+
+    private boolean isNearStart(int current) {
+        return current < mStart || (mStart > 0 && current - mStart < SLIDE_MARGIN);
+    }
+
+    private boolean isNearEnd(int current) {
+        return current >= mEnd || (mEnd < mQueueSize && mEnd - current <= SLIDE_MARGIN);
+    }
+}
@@ -23,7 +23,7 @@ import android.os.Build;
 import android.os.Bundle;
 
 import com.example.android.uamp.VoiceSearchParams;
-import com.example.android.uamp.model.SoundColudMusicProvider;
+import com.example.android.uamp.model.MusicProvider;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -42,18 +42,18 @@ public class SoundCloudQueueHelper {
     private static final String TAG = LogHelper.makeLogTag(SoundCloudQueueHelper.class);
 
     public static List<MediaSession.QueueItem> getPlayingQueue(String mediaId,
-                                                               SoundColudMusicProvider musicProvider) {
+                                                               MusicProvider musicProvider) {
 
         // extract the browsing hierarchy from the media ID:
-        String[] hierarchy = MediaIDHelper.getHierarchy(mediaId);
+        MediaId hierarchy = MediaId.of(mediaId);
 
-        if (hierarchy.length != 2) {
+        if (hierarchy.getDepth() != 2) {
             LogHelper.e(TAG, "Could not build a playing queue for this mediaId: ", mediaId);
             return null;
         }
 
-        String categoryType = hierarchy[0];
-        String categoryValue = hierarchy[1];
+        String categoryType = hierarchy.getCategory();
+        String categoryValue = hierarchy.getCategoryValue();
         LogHelper.d(TAG, "Creating playing queue for ", categoryType, ",  ", categoryValue);
 
         Iterable<MediaMetadata> tracks = null;
@@ -69,11 +69,11 @@ public class SoundCloudQueueHelper {
             return null;
         }
 
-        return convertToQueue(tracks, hierarchy[0], hierarchy[1]);
+        return convertToQueue(tracks, categoryType, categoryValue);
     }
 
     public static List<MediaSession.QueueItem> getPlayingQueueFromSearch(String query,
-            Bundle queryParams, SoundColudMusicProvider musicProvider) {
+            Bundle queryParams, MusicProvider musicProvider) {
 
         LogHelper.d(TAG, "Creating playing queue for musics from search: ", query,
             " params=", queryParams);
@@ -169,7 +169,7 @@ public class SoundCloudQueueHelper {
      * @param musicProvider the provider used for fetching music.
      * @return list containing {@link android.media.session.MediaSession.QueueItem}'s
      */
-    public static List<MediaSession.QueueItem> getRandomQueue(SoundColudMusicProvider musicProvider) {
+    public static List<MediaSession.QueueItem> getRandomQueue(MusicProvider musicProvider) {
         List<MediaMetadata> result = new ArrayList<>();
 
         for (String genre: musicProvider.getGenres()) {